@@ -0,0 +1,270 @@
+package fr.uge.patchwork;
+
+import java.util.Objects;
+
+/**
+ * Search of the best move of the current player of a {@link Patchwork} with a
+ * negamax alpha-beta, deepened one move at a time until the time budget is
+ * spent. The moves are applied and undone on the game itself, and the
+ * evaluated positions are kept in a {@link TranspositionTable} so that the best
+ * move of the previous depth is searched first.
+ *
+ * A player can play several turns in a row, so the score of a move is only
+ * negated when the player to move changes.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class AlphaBetaSearch implements MoveSearch {
+  /**
+   * Maximum depth of the search in moves.
+   */
+  private static final int MAX_DEPTH = 64;
+  /**
+   * Score greater than any evaluation.
+   */
+  private static final int INFINITY = 1_000_000;
+  /**
+   * Mask of the number of nodes between two checks of the time.
+   */
+  private static final int TIME_CHECK_MASK = 1023;
+  /**
+   * Number of spaces in a 7x7 square.
+   */
+  private static final int SQUARE_SPACES = 49;
+  /**
+   * The time budget of a move in nanoseconds.
+   */
+  private final long budget;
+  /**
+   * The evaluated positions, kept from one move to the other.
+   */
+  private final TranspositionTable table;
+  /**
+   * A move generator for each depth, so that the search does not allocate.
+   */
+  private final MoveGenerator[] generators;
+  /**
+   * The time after which the search is aborted.
+   */
+  private long deadline;
+  /**
+   * If the time budget has been spent during the current search.
+   */
+  private boolean aborted;
+  /**
+   * The number of positions searched by the last search.
+   */
+  private long nodes;
+  /**
+   * The last depth fully searched by the last search.
+   */
+  private int completedDepth;
+  /**
+   * The best move found at the root of the current depth.
+   */
+  private int rootMove;
+
+  /**
+   * AlphaBetaSearch constructor : Create a search with the given time budget.
+   *
+   * @param timeBudget     The time budget of a move in milliseconds.
+   * @param tableMegabytes The memory of the transposition table in MB.
+   */
+  public AlphaBetaSearch(long timeBudget, int tableMegabytes) {
+    if (timeBudget <= 0)
+      throw new IllegalArgumentException("timeBudget <= 0");
+    budget = timeBudget * 1_000_000;
+    table = new TranspositionTable(tableMegabytes);
+    generators = new MoveGenerator[MAX_DEPTH + 1];
+    for (var depth = 0; depth <= MAX_DEPTH; depth++)
+      generators[depth] = new MoveGenerator();
+  }
+
+  /**
+   * Search the best move of the current player. The game is changed during the
+   * search but is given back in the same state.
+   *
+   * @param patchwork The game, not over.
+   * @return The best move encoded by {@link Move#encode()}.
+   */
+  @Override
+  public int bestMove(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    if (patchwork.isOver())
+      throw new IllegalStateException("game is over");
+    var start = System.nanoTime();
+    // A part of the budget is kept to stop the search and play the move
+    deadline = start + budget - budget / 20;
+    aborted = false;
+    nodes = 0;
+    completedDepth = 0;
+    generators[0].generate(patchwork);
+    var best = generators[0].move(0);
+    for (var depth = 1; depth <= MAX_DEPTH; depth++) {
+      rootMove = -1;
+      negamax(patchwork, depth, 0, -INFINITY, INFINITY);
+      // The best move of the previous depth is searched first, so a move found
+      // by an aborted search is at least as good
+      if (rootMove >= 0)
+        best = rootMove;
+      if (aborted)
+        break;
+      completedDepth = depth;
+      // The next depth is longer than all the previous ones
+      if (System.nanoTime() - start > budget / 2)
+        break;
+    }
+    return best;
+  }
+
+  /**
+   * Search a position.
+   *
+   * @param patchwork The game.
+   * @param depth     The number of moves left to search.
+   * @param ply       The number of moves from the root.
+   * @param alpha     The score the player to move is sure to get.
+   * @param beta      The score the other player is sure to get.
+   * @return The score of the position for the player to move.
+   */
+  private int negamax(Patchwork patchwork, int depth, int ply, int alpha, int beta) {
+    if ((++nodes & TIME_CHECK_MASK) == 0 && System.nanoTime() > deadline)
+      aborted = true;
+    if (aborted)
+      return 0;
+    if (patchwork.isOver())
+      return finalScore(patchwork);
+    if (depth == 0 || ply == MAX_DEPTH)
+      return evaluate(patchwork);
+
+    var hash = patchwork.getHash();
+    var data = table.probe(hash);
+    var generator = generators[ply];
+    generator.generate(patchwork);
+    if (data != TranspositionTable.NO_ENTRY) {
+      if (ply > 0 && TranspositionTable.depth(data) >= depth) {
+        var score = TranspositionTable.score(data);
+        var bound = TranspositionTable.bound(data);
+        if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+            || (bound == TranspositionTable.UPPER_BOUND && score <= alpha))
+          return score;
+      }
+      generator.moveToFront(TranspositionTable.move(data));
+    }
+
+    var player = patchwork.getPlayerTurn();
+    var originalAlpha = alpha;
+    var best = -INFINITY;
+    var bestMove = generator.move(0);
+    for (var index = 0; index < generator.size(); index++) {
+      var move = generator.move(index);
+      patchwork.apply(move);
+      int score;
+      if (patchwork.getPlayerTurn() == player)
+        score = negamax(patchwork, depth - 1, ply + 1, alpha, beta);
+      else
+        score = -negamax(patchwork, depth - 1, ply + 1, -beta, -alpha);
+      patchwork.undo();
+      if (aborted)
+        return 0;
+      if (score > best) {
+        best = score;
+        bestMove = move;
+        if (ply == 0)
+          rootMove = move;
+      }
+      if (best > alpha)
+        alpha = best;
+      if (alpha >= beta)
+        break;
+    }
+
+    var bound = (best <= originalAlpha) ? TranspositionTable.UPPER_BOUND
+        : (best >= beta) ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+    table.store(hash, best, depth, bound, bestMove);
+    return best;
+  }
+
+  /**
+   * Give the score difference at the end of the game for the player to move.
+   *
+   * @param patchwork The game, over.
+   * @return The score difference.
+   */
+  private static int finalScore(Patchwork patchwork) {
+    var player = patchwork.getPlayerTurn();
+    return patchwork.getPlayer(player).score() - patchwork.getPlayer(player % 2 + 1).score();
+  }
+
+  /**
+   * Evaluate a position for the player to move : the difference of the values
+   * of the two players.
+   *
+   * @param patchwork The game.
+   * @return The evaluation in buttons.
+   */
+  public static int evaluate(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    var player = patchwork.getPlayerTurn();
+    var bonusLeft = !patchwork.getPlayer(1).getHas7x7() && !patchwork.getPlayer(2).getHas7x7()
+        && patchwork.getGameMode() != 1;
+    return value(patchwork, patchwork.getPlayer(player), bonusLeft)
+        - value(patchwork, patchwork.getPlayer(player % 2 + 1), bonusLeft);
+  }
+
+  /**
+   * Evaluate a player : its score (buttons, 7x7 tile and empty spaces), the
+   * income it will still receive, the spaces it can still advance to get
+   * buttons and its chances to get the 7x7 tile.
+   *
+   * @param patchwork The game.
+   * @param player    The player.
+   * @param bonusLeft If the 7x7 tile has not been given yet.
+   * @return The value in buttons.
+   */
+  private static int value(Patchwork patchwork, Player player, boolean bonusLeft) {
+    var timeBoard = patchwork.getTimeBoard();
+    var quiltBoard = player.getQuiltBoard();
+    var value = player.score() + quiltBoard.getIncome() * timeBoard.remainingButtons(player.getTokenPosition())
+        + (timeBoard.getSize() - 1 - player.getTokenPosition());
+    if (bonusLeft) {
+      var fill = quiltBoard.best7x7Fill();
+      value += 7 * fill * fill / (SQUARE_SPACES * SQUARE_SPACES);
+    }
+    return value;
+  }
+
+  /**
+   * Give the number of positions searched by the last search.
+   *
+   * @return The number of positions.
+   */
+  public long nodes() {
+    return nodes;
+  }
+
+  /**
+   * Give the last depth fully searched by the last search.
+   *
+   * @return The depth in moves.
+   */
+  public int completedDepth() {
+    return completedDepth;
+  }
+
+  /**
+   * Give the transposition table of the search, whose statistics count all the
+   * searches since the search was created.
+   *
+   * @return The transposition table.
+   */
+  public TranspositionTable table() {
+    return table;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("depth %d, %d nodes, table : %s", completedDepth, nodes, table);
+  }
+}
@@ -0,0 +1,204 @@
+package fr.uge.patchwork;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Compact binary protocol between a {@link BotServer} and bot clients, every
+ * number being big-endian. A client plays many games on a single connection
+ * and sends its decisions for all of them in a single frame, the server
+ * replying with a single frame.
+ *
+ * A frame is an int giving the number of bytes that follow, then messages. A
+ * client frame holds messages starting with their type :
+ * <ul>
+ * <li>{@link #NEW_GAME} int game, long seed : start a game dealt from the seed
+ * ;</li>
+ * <li>{@link #MOVE} int game, short move : play a move encoded by
+ * {@link #encodeMove(int, int, int)} for the player to move ;</li>
+ * <li>{@link #END_GAME} int game : abandon a game.</li>
+ * </ul>
+ * The server frame holds a state record of {@link #STATE_SIZE} bytes for each
+ * {@link #NEW_GAME} and {@link #MOVE} message, in the order of the messages :
+ * int game, byte status, byte player to move, byte special patches to place,
+ * byte first player at the end, long hash of the game, then for each player
+ * short buttons, byte token position, byte income, short score, long first 64
+ * spaces and int last 17 spaces of its quilt board, then for each of the three
+ * next patches byte position (-1 if there is no patch), byte cost, byte time,
+ * byte income, byte number of orientations and {@link #MAX_ORIENTATIONS} int
+ * shapes, the shape of each orientation (bit line * 5 + column, the patch being
+ * in the top left corner) followed by zeros. The orientation of a move is the
+ * index of its shape in this list, so a client does not have to compute the
+ * orientations of a patch in the same order as the server. A game over is
+ * forgotten after its state is sent.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class BinaryProtocol {
+  /**
+   * Type of the message starting a game.
+   */
+  public static final int NEW_GAME = 1;
+  /**
+   * Type of the message playing a move.
+   */
+  public static final int MOVE = 2;
+  /**
+   * Type of the message abandoning a game.
+   */
+  public static final int END_GAME = 3;
+  /**
+   * Status of a game waiting for a move.
+   */
+  public static final int PLAYING = 0;
+  /**
+   * Status of a game over.
+   */
+  public static final int OVER = 1;
+  /**
+   * Status of a game whose move was not valid, the game being unchanged.
+   */
+  public static final int ILLEGAL_MOVE = 2;
+  /**
+   * Status of a game that does not exist, the rest of the record being zeros.
+   */
+  public static final int UNKNOWN_GAME = 3;
+  /**
+   * Status of a new game refused because the game exists or because the
+   * connection has too many games, the rest of the record being zeros.
+   */
+  public static final int REJECTED = 4;
+  /**
+   * Slot of a move that does not take a patch of the list : the player advances
+   * or places a special patch.
+   */
+  public static final int NO_PATCH = 3;
+  /**
+   * Maximum number of distinct orientations of a patch, its rotations and the
+   * rotations of its mirror.
+   */
+  public static final int MAX_ORIENTATIONS = 8;
+  /**
+   * Size in bytes of the state record of a game.
+   */
+  public static final int STATE_SIZE = 52 + NO_PATCH * (5 + 4 * MAX_ORIENTATIONS);
+  /**
+   * Maximum size in bytes of a frame, its length excluded.
+   */
+  public static final int MAX_FRAME = 1 << 20;
+
+  /**
+   * BinaryProtocol constructor : No instance, only static methods.
+   */
+  private BinaryProtocol() {
+  }
+
+  /**
+   * Encode a move of the protocol in 12 bits : the slot in bits 0-1, the
+   * orientation in bits 2-4 and the anchor in bits 5-11.
+   *
+   * @param slot        The rank of the patch taken among the three next
+   *                    patches, or {@link #NO_PATCH} to advance or to place a
+   *                    special patch.
+   * @param orientation The index of the orientation among the shapes of the
+   *                    patch sent in the state of the game.
+   * @param anchor      The space (line * 9 + column) of the top left corner of
+   *                    the patch or {@link Move#NO_ANCHOR} to throw it away.
+   * @return The encoded move.
+   */
+  public static int encodeMove(int slot, int orientation, int anchor) {
+    if (slot < 0 || slot > NO_PATCH)
+      throw new IllegalArgumentException("slot invalid");
+    if (orientation < 0 || orientation >= MAX_ORIENTATIONS)
+      throw new IllegalArgumentException("orientation invalid");
+    if ((anchor < 0 || anchor >= 81) && anchor != Move.NO_ANCHOR)
+      throw new IllegalArgumentException("anchor invalid");
+    return slot | orientation << 2 | anchor << 5;
+  }
+
+  /**
+   * Give the move of the protocol of a move of a game.
+   *
+   * @param patchwork The game, before the move.
+   * @param move      The move encoded by {@link Move#encode()}.
+   * @return The move encoded by {@link #encodeMove(int, int, int)}.
+   */
+  public static int toWire(Patchwork patchwork, int move) {
+    Objects.requireNonNull(patchwork);
+    if (Move.type(move) != Move.TAKE)
+      return encodeMove(NO_PATCH, 0, Move.anchor(move));
+    var patchesList = patchwork.getPatchesList();
+    for (var slot = 0; slot < NO_PATCH; slot++)
+      if (patchesList.nextPosition(slot) == Move.position(move))
+        return encodeMove(slot, Move.orientation(move), Move.anchor(move));
+    throw new IllegalArgumentException("patch not in the three next");
+  }
+
+  /**
+   * Give the move of a game of a move of the protocol.
+   *
+   * @param patchwork The game, before the move.
+   * @param wireMove  The move encoded by {@link #encodeMove(int, int, int)}.
+   * @return The move encoded by {@link Move#encode()}, or -1 if it is not
+   *         valid.
+   */
+  public static int fromWire(Patchwork patchwork, int wireMove) {
+    Objects.requireNonNull(patchwork);
+    var slot = wireMove & 0x3;
+    var orientation = (wireMove >>> 2) & 0x7;
+    var anchor = (wireMove >>> 5) & 0x7F;
+    if ((wireMove >>> 12) != 0 || (anchor >= 81 && anchor != Move.NO_ANCHOR))
+      return -1;
+    if (patchwork.getPendingSpecialPatches() > 0)
+      return (slot == NO_PATCH) ? Move.encode(Move.SPECIAL_PATCH, 0, 0, anchor) : -1;
+    if (slot == NO_PATCH)
+      return Move.advance().encode();
+    var position = patchwork.getPatchesList().nextPosition(slot);
+    return (position < 0) ? -1 : Move.encode(Move.TAKE, position, orientation, anchor);
+  }
+
+  /**
+   * Write the state record of a game.
+   *
+   * @param buffer    The buffer, with at least {@link #STATE_SIZE} bytes
+   *                  remaining.
+   * @param game      The id of the game given by the client.
+   * @param status    The status of the game.
+   * @param patchwork The game, or null to write zeros after the status.
+   */
+  public static void writeState(ByteBuffer buffer, int game, int status, Patchwork patchwork) {
+    Objects.requireNonNull(buffer);
+    var start = buffer.position();
+    buffer.putInt(game).put((byte) status);
+    if (patchwork == null) {
+      buffer.put(new byte[STATE_SIZE - 5]);
+      return;
+    }
+    buffer.put((byte) patchwork.getPlayerTurn()).put((byte) patchwork.getPendingSpecialPatches())
+        .put((byte) patchwork.getFirstPlayerAtEnd()).putLong(patchwork.getHash());
+    for (var id = 1; id <= 2; id++) {
+      var player = patchwork.getPlayer(id);
+      var quiltBoard = player.getQuiltBoard();
+      buffer.putShort((short) player.getButtons()).put((byte) player.getTokenPosition())
+          .put((byte) quiltBoard.getIncome()).putShort((short) player.score()).putLong(quiltBoard.getLowSpaces())
+          .putInt((int) quiltBoard.getHighSpaces());
+    }
+    var patchesList = patchwork.getPatchesList();
+    var catalog = patchesList.getCatalog();
+    for (var slot = 0; slot < NO_PATCH; slot++) {
+      var position = patchesList.nextPosition(slot);
+      if (position < 0) {
+        buffer.put((byte) -1).put(new byte[4 + 4 * MAX_ORIENTATIONS]);
+        continue;
+      }
+      var id = patchesList.patchId(position);
+      var orientations = catalog.orientationCount(id);
+      buffer.put((byte) position).put((byte) catalog.cost(id)).put((byte) catalog.time(id))
+          .put((byte) catalog.income(id)).put((byte) orientations);
+      for (var orientation = 0; orientation < MAX_ORIENTATIONS; orientation++)
+        buffer.putInt((orientation < orientations) ? catalog.shape(id, orientation) : 0);
+    }
+    assert buffer.position() - start == STATE_SIZE;
+  }
+}
@@ -0,0 +1,285 @@
+package fr.uge.patchwork;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TCP server refereeing games played by bot clients with the
+ * {@link BinaryProtocol}. A connection plays many games at once : the server
+ * applies the moves of a client frame to its games and sends back the states
+ * of all of them in a single frame, written at once. The moves of both players
+ * of a game are chosen by the client.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class BotServer implements AutoCloseable {
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+  /**
+   * Number of connections waiting to be accepted.
+   */
+  private static final int BACKLOG = 256;
+  /**
+   * Size in bytes of the read buffer of a connection.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  /**
+   * Maximum number of games played at once on a connection.
+   */
+  private static final int MAX_GAMES = 1 << 16;
+  /**
+   * The game whose patches are dealt in every game.
+   */
+  private final Patchwork template;
+  /**
+   * The socket accepting the connections.
+   */
+  private final ServerSocket serverSocket;
+  /**
+   * The threads of the connections.
+   */
+  private final ExecutorService connections;
+  /**
+   * The sockets of the connections, closed with the server.
+   */
+  private final Set<Socket> sockets;
+  /**
+   * The number of connections open.
+   */
+  private final AtomicInteger active;
+  /**
+   * The number of moves applied.
+   */
+  private final LongAdder moves;
+  /**
+   * The thread accepting the connections.
+   */
+  private Thread acceptor;
+
+  /**
+   * BotServer constructor : Create a server listening on an address.
+   *
+   * @param address  The address listened, for example the loopback address.
+   * @param port     The port listened, 0 for any free port.
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   * @throws IOException If the address can not be listened.
+   */
+  public BotServer(InetAddress address, int port, int gameMode) throws IOException {
+    Objects.requireNonNull(address);
+    if (gameMode != 1 && gameMode != 2)
+      throw new IllegalArgumentException("gameMode has to be 1 or 2.");
+    template = new Patchwork(TIME_BOARD_SIZE, gameMode);
+    template.loadPatches();
+    serverSocket = new ServerSocket(port, BACKLOG, address);
+    connections = GameServer.sessionThreads();
+    sockets = ConcurrentHashMap.newKeySet();
+    active = new AtomicInteger();
+    moves = new LongAdder();
+  }
+
+  /**
+   * Start accepting connections.
+   */
+  public void start() {
+    if (acceptor != null)
+      throw new IllegalStateException("server already started");
+    acceptor = new Thread(this::accept, "bot-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Accept the connections until the server is closed.
+   */
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // The server socket is closed
+        return;
+      }
+      sockets.add(socket);
+      active.incrementAndGet();
+      try {
+        connections.execute(() -> connection(socket));
+      } catch (RuntimeException e) {
+        // The server is closed
+        disconnect(socket);
+      }
+    }
+  }
+
+  /**
+   * Answer the frames of a connection until it is closed or sends a frame that
+   * is not valid.
+   *
+   * @param socket The socket of the connection.
+   */
+  private void connection(Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      var input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+      var output = socket.getOutputStream();
+      var games = new HashMap<Integer, Patchwork>();
+      var frame = new byte[BUFFER_SIZE];
+      var reply = ByteBuffer.allocate(BUFFER_SIZE);
+      while (true) {
+        int length;
+        try {
+          length = input.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        if (length < 0 || length > BinaryProtocol.MAX_FRAME)
+          return;
+        if (length > frame.length)
+          frame = new byte[Math.max(length, frame.length * 2)];
+        input.readFully(frame, 0, length);
+        reply = answer(games, ByteBuffer.wrap(frame, 0, length), reply);
+        output.write(reply.array(), 0, reply.position());
+      }
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+      // The client is disconnected, has sent a frame that is not valid or the
+      // server is closed
+    } finally {
+      disconnect(socket);
+    }
+  }
+
+  /**
+   * Apply the messages of a client frame and write the reply frame.
+   *
+   * @param games   The games of the connection by id.
+   * @param request The messages of the client frame.
+   * @param reply   The buffer of the reply, reused between frames.
+   * @return The buffer holding the reply frame from 0 to its position, larger
+   *         than reply if reply was too small.
+   */
+  private ByteBuffer answer(HashMap<Integer, Patchwork> games, ByteBuffer request, ByteBuffer reply) {
+    reply.clear();
+    reply.putInt(0);
+    while (request.hasRemaining()) {
+      if (reply.remaining() < BinaryProtocol.STATE_SIZE)
+        reply = ByteBuffer.wrap(Arrays.copyOf(reply.array(), reply.capacity() * 2)).position(reply.position());
+      var type = request.get();
+      var id = request.getInt();
+      switch (type) {
+      case BinaryProtocol.NEW_GAME -> {
+        var seed = request.getLong();
+        if (games.containsKey(id) || games.size() == MAX_GAMES) {
+          BinaryProtocol.writeState(reply, id, BinaryProtocol.REJECTED, null);
+          continue;
+        }
+        var patchwork = new Patchwork(template, seed);
+        games.put(id, patchwork);
+        BinaryProtocol.writeState(reply, id, BinaryProtocol.PLAYING, patchwork);
+      }
+      case BinaryProtocol.MOVE -> {
+        var wireMove = request.getShort() & 0xFFFF;
+        var patchwork = games.get(id);
+        if (patchwork == null) {
+          BinaryProtocol.writeState(reply, id, BinaryProtocol.UNKNOWN_GAME, null);
+          continue;
+        }
+        var move = BinaryProtocol.fromWire(patchwork, wireMove);
+        try {
+          if (move < 0)
+            throw new IllegalArgumentException("move not valid");
+          patchwork.apply(move);
+        } catch (IllegalArgumentException e) {
+          BinaryProtocol.writeState(reply, id, BinaryProtocol.ILLEGAL_MOVE, patchwork);
+          continue;
+        }
+        moves.increment();
+        if (patchwork.isOver()) {
+          games.remove(id);
+          BinaryProtocol.writeState(reply, id, BinaryProtocol.OVER, patchwork);
+        } else
+          BinaryProtocol.writeState(reply, id, BinaryProtocol.PLAYING, patchwork);
+      }
+      case BinaryProtocol.END_GAME -> games.remove(id);
+      default -> throw new IllegalArgumentException("message type invalid");
+      }
+    }
+    reply.putInt(0, reply.position() - 4);
+    return reply;
+  }
+
+  /**
+   * Close the socket of a connection.
+   *
+   * @param socket The socket.
+   */
+  private void disconnect(Socket socket) {
+    if (sockets.remove(socket))
+      active.decrementAndGet();
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing more can be done
+    }
+  }
+
+  /**
+   * Give the port listened, useful when the server was created with the port 0.
+   *
+   * @return The port.
+   */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Give the number of connections open.
+   *
+   * @return The number of connections.
+   */
+  public int activeConnections() {
+    return active.get();
+  }
+
+  /**
+   * Give the number of moves applied since the server was created.
+   *
+   * @return The number of moves.
+   */
+  public long moves() {
+    return moves.sum();
+  }
+
+  /**
+   * Stop accepting connections and close the connections open.
+   *
+   * @throws IOException If the server socket can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      serverSocket.close();
+    } finally {
+      connections.shutdownNow();
+      for (var socket : sockets)
+        disconnect(socket);
+    }
+  }
+}
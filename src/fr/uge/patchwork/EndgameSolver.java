@@ -0,0 +1,341 @@
+package fr.uge.patchwork;
+
+import java.util.Objects;
+
+/**
+ * Exact solver of the end of a {@link Patchwork} game. When few patches are
+ * left and both tokens are close to the end of the time board, the game is
+ * searched until its end with an alpha-beta, the solved positions being kept in
+ * a {@link TranspositionTable} with the bounds of their score. Otherwise the
+ * move is chosen by another search.
+ *
+ * A solve is stopped when its time budget is spent, and the move is then chosen
+ * by the other search, so that a move never takes more than the budget of the
+ * solver and the one of the other search.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class EndgameSolver implements MoveSearch {
+  /**
+   * Depth stored in the transposition table for a position solved until the
+   * end of the game.
+   */
+  private static final int SOLVED = 255;
+  /**
+   * Score greater than any score difference.
+   */
+  private static final int INFINITY = 1_000_000;
+  /**
+   * Number of moves that are not token moves in a solved game : the special
+   * patches placed.
+   */
+  private static final int SPECIAL_PATCHES_PLY = 16;
+  /**
+   * Mask of the number of nodes between two checks of the time.
+   */
+  private static final int TIME_CHECK_MASK = 1023;
+  /**
+   * The search used when the game is too far from its end.
+   */
+  private final MoveSearch fallback;
+  /**
+   * The maximum number of patches left to solve the game.
+   */
+  private final int maxPatches;
+  /**
+   * The maximum number of spaces between each token and the end of the time
+   * board to solve the game.
+   */
+  private final int maxDistance;
+  /**
+   * The time budget of a solve in nanoseconds.
+   */
+  private final long budget;
+  /**
+   * The solved positions.
+   */
+  private final TranspositionTable table;
+  /**
+   * A move generator for each depth, so that the solver does not allocate.
+   */
+  private final MoveGenerator[] generators;
+  /**
+   * The score difference of the last solved position for the player to move.
+   */
+  private int score;
+  /**
+   * The best move of the root of the last solve.
+   */
+  private int rootMove;
+  /**
+   * The number of positions searched by the last solve.
+   */
+  private long nodes;
+  /**
+   * If the last move was solved rather than chosen by the fallback search.
+   */
+  private boolean solved;
+  /**
+   * The time after which the current solve is aborted.
+   */
+  private long deadline;
+  /**
+   * If the time budget has been spent during the last solve.
+   */
+  private boolean aborted;
+
+  /**
+   * EndgameSolver constructor : Create a solver with the given thresholds.
+   *
+   * @param fallback       The search used when the game is too far from its
+   *                       end or when a solve spends its time budget.
+   * @param maxPatches     The maximum number of patches left to solve the game.
+   * @param maxDistance    The maximum number of spaces between each token and
+   *                       the end of the time board to solve the game.
+   * @param timeBudget     The time budget of a solve in milliseconds.
+   * @param tableMegabytes The memory of the transposition table in MB.
+   */
+  public EndgameSolver(MoveSearch fallback, int maxPatches, int maxDistance, long timeBudget,
+      int tableMegabytes) {
+    Objects.requireNonNull(fallback);
+    if (maxPatches < 0)
+      throw new IllegalArgumentException("maxPatches < 0");
+    if (maxDistance < 0)
+      throw new IllegalArgumentException("maxDistance < 0");
+    if (timeBudget <= 0)
+      throw new IllegalArgumentException("timeBudget <= 0");
+    this.fallback = fallback;
+    this.maxPatches = maxPatches;
+    this.maxDistance = maxDistance;
+    budget = timeBudget * 1_000_000;
+    table = new TranspositionTable(tableMegabytes);
+    // A move that is not a special patch moves a token at least one space
+    generators = new MoveGenerator[2 * maxDistance + SPECIAL_PATCHES_PLY + 1];
+    for (var ply = 0; ply < generators.length; ply++)
+      generators[ply] = new MoveGenerator();
+  }
+
+  /**
+   * Check if the game is close enough to its end to be solved.
+   *
+   * @param patchwork The game.
+   * @return true if the game can be solved.
+   */
+  public boolean canSolve(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    var end = patchwork.getTimeBoard().getSize() - 1;
+    return patchwork.getPatchesList().remaining() <= maxPatches
+        && end - patchwork.getPlayer(1).getTokenPosition() <= maxDistance
+        && end - patchwork.getPlayer(2).getTokenPosition() <= maxDistance;
+  }
+
+  /**
+   * Give the optimal move if the game can be solved within the time budget,
+   * otherwise the move of the fallback search.
+   *
+   * @param patchwork The game, not over.
+   * @return The best move encoded by {@link Move#encode()}.
+   */
+  @Override
+  public int bestMove(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    aborted = false;
+    solved = canSolve(patchwork);
+    if (solved) {
+      var result = solve(patchwork);
+      solved = !aborted;
+      if (solved) {
+        score = result;
+        return rootMove;
+      }
+    }
+    return fallback.bestMove(patchwork);
+  }
+
+  /**
+   * Solve the game : search it until its end, or until the time budget is
+   * spent.
+   *
+   * @param patchwork The game, not over and close enough to its end.
+   * @return The final score difference for the player to move when both
+   *         players play optimally, meaningless if the solve has been aborted.
+   */
+  public int solve(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    if (patchwork.isOver())
+      throw new IllegalStateException("game is over");
+    if (!canSolve(patchwork))
+      throw new IllegalArgumentException("game too far from its end");
+    nodes = 0;
+    aborted = false;
+    deadline = System.nanoTime() + budget;
+    return negamax(patchwork, 0, -INFINITY, INFINITY);
+  }
+
+  /**
+   * Search a position until the end of the game.
+   *
+   * @param patchwork The game.
+   * @param ply       The number of moves from the root.
+   * @param alpha     The score the player to move is sure to get.
+   * @param beta      The score the other player is sure to get.
+   * @return The final score difference for the player to move.
+   */
+  private int negamax(Patchwork patchwork, int ply, int alpha, int beta) {
+    if ((++nodes & TIME_CHECK_MASK) == 0 && System.nanoTime() > deadline)
+      aborted = true;
+    if (aborted)
+      return 0;
+    if (patchwork.isOver()) {
+      var player = patchwork.getPlayerTurn();
+      return patchwork.getPlayer(player).score() - patchwork.getPlayer(player % 2 + 1).score();
+    }
+    if (ply == generators.length)
+      throw new IllegalStateException("game too long to be solved");
+    // The other player can not lose points since advancing is always allowed,
+    // so the score difference is bounded by what each player can still gain
+    var player = patchwork.getPlayerTurn();
+    var difference = patchwork.getPlayer(player).score() - patchwork.getPlayer(player % 2 + 1).score();
+    var upper = difference + maxGain(patchwork, player);
+    if (upper <= alpha)
+      return upper;
+    var lower = difference - maxGain(patchwork, player % 2 + 1);
+    if (lower >= beta)
+      return lower;
+
+    var hash = patchwork.getHash();
+    var data = table.probe(hash);
+    var generator = generators[ply];
+    generator.generate(patchwork);
+    if (data != TranspositionTable.NO_ENTRY && TranspositionTable.depth(data) == SOLVED) {
+      var stored = TranspositionTable.score(data);
+      var bound = TranspositionTable.bound(data);
+      // The root always searches its moves so that its best move is known
+      if (ply > 0 && (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER_BOUND && stored >= beta)
+          || (bound == TranspositionTable.UPPER_BOUND && stored <= alpha)))
+        return stored;
+      generator.moveToFront(TranspositionTable.move(data));
+    }
+
+    var originalAlpha = alpha;
+    var best = -INFINITY;
+    var bestMove = generator.move(0);
+    for (var index = 0; index < generator.size(); index++) {
+      var move = generator.move(index);
+      patchwork.apply(move);
+      int value;
+      if (patchwork.getPlayerTurn() == player)
+        value = negamax(patchwork, ply + 1, alpha, beta);
+      else
+        value = -negamax(patchwork, ply + 1, -beta, -alpha);
+      patchwork.undo();
+      // The positions of an aborted solve are not stored
+      if (aborted)
+        return 0;
+      if (value > best) {
+        best = value;
+        bestMove = move;
+        if (ply == 0)
+          rootMove = move;
+      }
+      if (best > alpha)
+        alpha = best;
+      if (alpha >= beta)
+        break;
+    }
+
+    var bound = (best <= originalAlpha) ? TranspositionTable.UPPER_BOUND
+        : (best >= beta) ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+    table.store(hash, best, SOLVED, bound, bestMove);
+    return best;
+  }
+
+  /**
+   * Give a bound of the points a player can still gain before the end of the
+   * game : one button per space advanced, the income of its patches and of all
+   * the patches left on each button space crossed, two points per empty space
+   * filled by a patch worth more than its cost and the 7x7 tile if it is left.
+   *
+   * @param patchwork The game.
+   * @param id        The id of the player.
+   * @return The maximum gain.
+   */
+  private static int maxGain(Patchwork patchwork, int id) {
+    var player = patchwork.getPlayer(id);
+    var quiltBoard = player.getQuiltBoard();
+    var timeBoard = patchwork.getTimeBoard();
+    var patchesList = patchwork.getPatchesList();
+    var catalog = patchesList.getCatalog();
+    var token = player.getTokenPosition();
+    var end = timeBoard.getSize() - 1;
+    var income = quiltBoard.getIncome();
+    var patchGain = 2 * (timeBoard.specialPatchesBetween(token, end) + patchwork.getPendingSpecialPatches());
+    var position = patchesList.nextPosition(0);
+    for (var i = 0; i < patchesList.remaining(); i++) {
+      var patch = patchesList.patchId(position);
+      income += catalog.income(patch);
+      patchGain += Math.max(0, 2 * catalog.area(patch) - catalog.cost(patch));
+      position = patchesList.positionAfter(position);
+    }
+    var gain = (end - token) + income * timeBoard.remainingButtons(token)
+        + Math.min(2 * quiltBoard.numberOfEmptySpace(), patchGain);
+    if (patchwork.getGameMode() != 1 && !patchwork.getPlayer(1).getHas7x7() && !patchwork.getPlayer(2).getHas7x7())
+      gain += 7;
+    return gain;
+  }
+
+  /**
+   * Give the score difference of the last position solved by
+   * {@link #bestMove(Patchwork)}.
+   *
+   * @return The final score difference for the player who had to move.
+   */
+  public int score() {
+    return score;
+  }
+
+  /**
+   * Check if the last solve has been stopped by its time budget, its score being
+   * then meaningless.
+   *
+   * @return true if the last solve has been aborted.
+   */
+  public boolean aborted() {
+    return aborted;
+  }
+
+  /**
+   * Give the number of positions searched by the last solve.
+   *
+   * @return The number of positions.
+   */
+  public long nodes() {
+    return nodes;
+  }
+
+  /**
+   * Give the transposition table of the solved positions, whose statistics
+   * count all the solves since the solver was created.
+   *
+   * @return The transposition table.
+   */
+  public TranspositionTable table() {
+    return table;
+  }
+
+  /**
+   * Close the fallback search.
+   */
+  @Override
+  public void close() {
+    fallback.close();
+  }
+
+  @Override
+  public String toString() {
+    if (solved)
+      return String.format("solved, score %+d, %d nodes, table : %s", score, nodes, table);
+    return aborted ? String.format("solve aborted after %d nodes, %s", nodes, fallback) : fallback.toString();
+  }
+}
@@ -0,0 +1,142 @@
+package fr.uge.patchwork;
+
+import java.io.PrintStream;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+/**
+ * Runnable check of the invariants every search relies on : applying a move
+ * then undoing it gives back the same game, and two games dealt from the same
+ * seed and given the same moves have the same hash. Random games are walked
+ * and the state of the game is compared after each move, the hash and every
+ * field of the players, the patches list and the time board that a move
+ * changes.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class GameCheck {
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+
+  /**
+   * GameCheck constructor : No instance, only static methods.
+   */
+  private GameCheck() {
+  }
+
+  /**
+   * Walk random games and check the invariants after each move, the game of
+   * index i being dealt from the seed seed + i.
+   *
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   * @param games    The number of games.
+   * @param seed     The seed of the first game.
+   * @param progress The stream where the result is reported, or null to report
+   *                 nothing.
+   * @return The number of moves checked.
+   * @throws IllegalStateException If an invariant does not hold, the message
+   *                               giving the seed and the move.
+   */
+  public static long run(int gameMode, int games, long seed, PrintStream progress) {
+    if (gameMode != 1 && gameMode != 2)
+      throw new IllegalArgumentException("gameMode has to be 1 or 2.");
+    if (games < 0)
+      throw new IllegalArgumentException("games < 0");
+    var template = new Patchwork(TIME_BOARD_SIZE, gameMode);
+    template.loadPatches();
+    var checked = 0L;
+    for (var i = 0; i < games; i++)
+      checked += check(template, seed + i);
+    if (progress != null)
+      progress.println(games + " games, " + checked + " moves checked");
+    return checked;
+  }
+
+  /**
+   * Walk a random game, undoing and applying again each move, then undo all
+   * the moves.
+   *
+   * @param template The game whose patches are dealt.
+   * @param seed     The seed of the game and of its moves.
+   * @return The number of moves played.
+   */
+  private static int check(Patchwork template, long seed) {
+    var game = new Patchwork(template, seed);
+    var replay = new Patchwork(template, seed);
+    var random = new SplittableRandom(seed);
+    var start = state(game);
+    var moves = 0;
+    while (!game.isOver()) {
+      var before = state(game);
+      var move = RandomSearch.randomMove(game, random);
+      game.apply(move);
+      var after = state(game);
+      game.undo();
+      expect(before, state(game), seed, moves, "undo does not give back the game");
+      game.apply(move);
+      expect(after, state(game), seed, moves, "applying again gives another game");
+      replay.apply(move);
+      if (replay.getHash() != game.getHash())
+        throw new IllegalStateException("game " + seed + " move " + moves + " : same moves give another hash");
+      moves++;
+    }
+    for (var i = 0; i < moves; i++)
+      game.undo();
+    expect(start, state(game), seed, moves, "undoing all the moves does not give back the game");
+    return moves;
+  }
+
+  /**
+   * Check that two states of a game are the same.
+   *
+   * @param expected The expected state.
+   * @param actual   The state of the game.
+   * @param seed     The seed of the game.
+   * @param move     The index of the move.
+   * @param message  The invariant checked.
+   */
+  private static void expect(String expected, String actual, long seed, int move, String message) {
+    if (!expected.equals(actual))
+      throw new IllegalStateException("game " + seed + " move " + move + " : " + message + "\n  expected " + expected
+          + "\n  actual   " + actual);
+  }
+
+  /**
+   * Describe the state of a game changed by the moves.
+   *
+   * @param game The game.
+   * @return The description of the state.
+   */
+  private static String state(Patchwork game) {
+    Objects.requireNonNull(game);
+    var builder = new StringBuilder();
+    builder.append("hash=").append(Long.toHexString(game.getHash())).append(" turn=").append(game.getPlayerTurn())
+        .append(" pending=").append(game.getPendingSpecialPatches()).append(" firstAtEnd=")
+        .append(game.getFirstPlayerAtEnd());
+    for (var id = 1; id <= 2; id++) {
+      var player = game.getPlayer(id);
+      var quiltBoard = player.getQuiltBoard();
+      builder.append(" | P").append(id).append(" buttons=").append(player.getButtons()).append(" token=")
+          .append(player.getTokenPosition()).append(" 7x7=").append(player.getHas7x7()).append(" income=")
+          .append(quiltBoard.getIncome()).append(" empty=").append(quiltBoard.numberOfEmptySpace())
+          .append(" placed=").append(quiltBoard.getPlacedCount()).append(" spaces=")
+          .append(Long.toHexString(quiltBoard.getLowSpaces())).append('/')
+          .append(Long.toHexString(quiltBoard.getHighSpaces())).append(" hash=")
+          .append(Long.toHexString(player.getHash()));
+    }
+    var patchesList = game.getPatchesList();
+    builder.append(" | patches");
+    var position = patchesList.nextPosition(0);
+    for (var i = 0; i < patchesList.remaining(); i++) {
+      builder.append(' ').append(patchesList.patchId(position));
+      position = patchesList.positionAfter(position);
+    }
+    builder.append(" hash=").append(Long.toHexString(patchesList.getHash()));
+    var timeBoard = game.getTimeBoard();
+    builder.append(" | time board ").append(timeBoard).append(" hash=").append(Long.toHexString(timeBoard.getHash()));
+    return builder.toString();
+  }
+}
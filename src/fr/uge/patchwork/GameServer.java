@@ -0,0 +1,291 @@
+package fr.uge.patchwork;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * TCP server playing games against players connected through the network,
+ * each connection being a game session. The player connected is the player 1
+ * and plays with the protocol of {@link UserInterfaceNetwork}, the player 2
+ * being a {@link UserInterfaceAI}. The first line sent to a player is
+ * {@code GAME seed mode}.
+ *
+ * Each session runs the game loop on its own thread, blocked while the player
+ * thinks. The game targets Java 17, which has no virtual threads : a session
+ * is run by a platform thread with a 256 KB stack. Measured by
+ * {@link ServerCheck} on 9,000 idle sessions, a session uses about 32 KB of
+ * heap, but its thread adds about 100 KB of native memory and counts against
+ * the threads and the files the system allows, so 10,000 sessions need more
+ * than 1 GB : far from the memory of a virtual thread.
+ *
+ * The computer player holds no search while its opponent thinks : it borrows
+ * one from a {@link SearchPool} shared by the sessions for each of its moves.
+ * The patches file is read once : every session is dealt from the patches of
+ * a first game.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class GameServer implements AutoCloseable {
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+  /**
+   * Number of connections waiting to be accepted.
+   */
+  private static final int BACKLOG = 4096;
+  /**
+   * Size in chars of the buffers of a session, larger than any message.
+   */
+  private static final int BUFFER_SIZE = 512;
+  /**
+   * Stack size in bytes of a session thread.
+   */
+  private static final long STACK_SIZE = 256 * 1024;
+  /**
+   * The game whose patches are dealt in every session.
+   */
+  private final Patchwork template;
+  /**
+   * The searches of the computer players, borrowed for each move.
+   */
+  private final SearchPool searches;
+  /**
+   * The socket accepting the connections.
+   */
+  private final ServerSocket serverSocket;
+  /**
+   * The maximum time in milliseconds a player can take to answer, 0 for no
+   * limit.
+   */
+  private final int timeout;
+  /**
+   * The threads of the sessions.
+   */
+  private final ExecutorService sessions;
+  /**
+   * The sockets of the sessions being played, closed with the server.
+   */
+  private final Set<Socket> sockets;
+  /**
+   * The seed of the next session.
+   */
+  private final AtomicLong nextSeed;
+  /**
+   * The number of sessions being played.
+   */
+  private final AtomicInteger active;
+  /**
+   * The number of games played until their end.
+   */
+  private final LongAdder completed;
+  /**
+   * The thread accepting the connections.
+   */
+  private Thread acceptor;
+
+  /**
+   * GameServer constructor : Create a server listening on an address.
+   *
+   * @param address  The address listened, for example the loopback address.
+   * @param port     The port listened, 0 for any free port.
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   * @param opponent The search of the computer player, created from a seed.
+   * @param searches The maximum number of searches of the computer players,
+   *                 shared by the sessions.
+   * @param seed     The seed of the first session, the next sessions having
+   *                 the following seeds. It is also the seed of the first
+   *                 search.
+   * @param timeout  The maximum time in milliseconds a player can take to
+   *                 answer before being disconnected, 0 for no limit.
+   * @throws IOException If the address can not be listened.
+   */
+  public GameServer(InetAddress address, int port, int gameMode, LongFunction<MoveSearch> opponent, int searches,
+      long seed, int timeout) throws IOException {
+    Objects.requireNonNull(address);
+    Objects.requireNonNull(opponent);
+    if (gameMode != 1 && gameMode != 2)
+      throw new IllegalArgumentException("gameMode has to be 1 or 2.");
+    if (timeout < 0)
+      throw new IllegalArgumentException("timeout < 0");
+    template = new Patchwork(TIME_BOARD_SIZE, gameMode);
+    template.loadPatches();
+    this.searches = new SearchPool(opponent, seed, searches);
+    this.timeout = timeout;
+    serverSocket = new ServerSocket(port, BACKLOG, address);
+    sessions = sessionThreads();
+    sockets = ConcurrentHashMap.newKeySet();
+    nextSeed = new AtomicLong(seed);
+    active = new AtomicInteger();
+    completed = new LongAdder();
+  }
+
+  /**
+   * Give an executor starting a thread for each session : daemon platform
+   * threads with a small stack, reused when a session ends.
+   *
+   * @return The executor.
+   */
+  static ExecutorService sessionThreads() {
+    return Executors.newCachedThreadPool(runnable -> {
+      var thread = new Thread(null, runnable, "game-session", STACK_SIZE);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Start accepting connections.
+   */
+  public void start() {
+    if (acceptor != null)
+      throw new IllegalStateException("server already started");
+    acceptor = new Thread(this::accept, "game-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Accept the connections until the server is closed, starting a session for
+   * each of them.
+   */
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // The server socket is closed
+        return;
+      }
+      sockets.add(socket);
+      active.incrementAndGet();
+      var seed = nextSeed.getAndIncrement();
+      try {
+        sessions.execute(() -> session(socket, seed));
+      } catch (RuntimeException e) {
+        // The server is closed
+        disconnect(socket);
+      }
+    }
+  }
+
+  /**
+   * Play the game of a session until its end or the disconnection of the
+   * player.
+   *
+   * @param socket The socket of the player.
+   * @param seed   The seed of the game.
+   */
+  private void session(Socket socket, long seed) {
+    try {
+      socket.setSoTimeout(timeout);
+      socket.setTcpNoDelay(true);
+      var input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+          BUFFER_SIZE);
+      var output = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8),
+          BUFFER_SIZE);
+      var network = new UserInterfaceNetwork(input, output);
+      network.send("GAME " + seed + " " + template.getGameMode());
+      var game = new Patchwork(template, seed);
+      game.play(new UserInterfaceAI(game, 2, network, searches));
+      completed.increment();
+    } catch (IOException | UncheckedIOException e) {
+      // The player is disconnected, too slow or the server is closed
+    } catch (IllegalStateException e) {
+      // The server is closed while the computer player waits for a search
+      if (!Thread.currentThread().isInterrupted())
+        throw e;
+    } finally {
+      disconnect(socket);
+    }
+  }
+
+  /**
+   * Close the socket of a session.
+   *
+   * @param socket The socket.
+   */
+  private void disconnect(Socket socket) {
+    if (sockets.remove(socket))
+      active.decrementAndGet();
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing more can be done
+    }
+  }
+
+  /**
+   * Give the port listened, useful when the server was created with the port 0.
+   *
+   * @return The port.
+   */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Give the number of sessions being played.
+   *
+   * @return The number of sessions.
+   */
+  public int activeSessions() {
+    return active.get();
+  }
+
+  /**
+   * Give the number of games played until their end.
+   *
+   * @return The number of games.
+   */
+  public long completedSessions() {
+    return completed.sum();
+  }
+
+  /**
+   * Give the number of searches created for the computer players, never more
+   * than the maximum given to the constructor.
+   *
+   * @return The number of searches.
+   */
+  public int searches() {
+    return searches.created();
+  }
+
+  /**
+   * Stop accepting connections and disconnect the players of the sessions
+   * being played.
+   *
+   * @throws IOException If the server socket can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      serverSocket.close();
+    } finally {
+      sessions.shutdownNow();
+      for (var socket : sockets)
+        disconnect(socket);
+      searches.close();
+    }
+  }
+}
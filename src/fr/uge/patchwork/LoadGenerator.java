@@ -0,0 +1,206 @@
+package fr.uge.patchwork;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator of a {@link BotServer} : random bots playing many games at
+ * once on each connection, one decision per game being sent in each frame.
+ * Each game is also played locally from the same seed, so that the hash of
+ * every state sent by the server is checked.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class LoadGenerator {
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+  /**
+   * Size in bytes of a {@link BinaryProtocol#NEW_GAME} message.
+   */
+  private static final int NEW_GAME_SIZE = 13;
+  /**
+   * The address of the server.
+   */
+  private final InetAddress address;
+  /**
+   * The port of the server.
+   */
+  private final int port;
+  /**
+   * The game whose patches are dealt in every game, as the server does.
+   */
+  private final Patchwork template;
+  /**
+   * The number of connections.
+   */
+  private final int connections;
+  /**
+   * The number of games played at once on each connection.
+   */
+  private final int games;
+  /**
+   * The number of moves played by the last run.
+   */
+  private final LongAdder moves;
+  /**
+   * The number of games finished by the last run.
+   */
+  private final LongAdder finished;
+
+  /**
+   * LoadGenerator constructor : Create a load generator of a server.
+   *
+   * @param address     The address of the server.
+   * @param port        The port of the server.
+   * @param gameMode    The Game mode of the server : 1 - Basic Game Mode 2 -
+   *                    Complete Game Mode
+   * @param connections The number of connections.
+   * @param games       The number of games played at once on each connection.
+   */
+  public LoadGenerator(InetAddress address, int port, int gameMode, int connections, int games) {
+    Objects.requireNonNull(address);
+    if (gameMode != 1 && gameMode != 2)
+      throw new IllegalArgumentException("gameMode has to be 1 or 2.");
+    if (connections <= 0)
+      throw new IllegalArgumentException("connections <= 0");
+    if (games <= 0 || (long) games * NEW_GAME_SIZE > BinaryProtocol.MAX_FRAME)
+      throw new IllegalArgumentException("games not valid");
+    this.address = address;
+    this.port = port;
+    template = new Patchwork(TIME_BOARD_SIZE, gameMode);
+    template.loadPatches();
+    this.connections = connections;
+    this.games = games;
+    moves = new LongAdder();
+    finished = new LongAdder();
+  }
+
+  /**
+   * Play games on all the connections during a time, the games being dealt
+   * from the seeds seed, seed + 1...
+   *
+   * @param millis   The time in milliseconds.
+   * @param seed     The seed of the first game.
+   * @param progress The stream where the throughput is reported, or null to
+   *                 report nothing.
+   * @return The number of moves per second.
+   */
+  public double run(long millis, long seed, PrintStream progress) {
+    if (millis <= 0)
+      throw new IllegalArgumentException("millis <= 0");
+    moves.reset();
+    finished.reset();
+    var nextSeed = new AtomicLong(seed);
+    var start = System.nanoTime();
+    var end = start + millis * 1_000_000;
+    var tasks = new ArrayList<Callable<Void>>();
+    for (var i = 0; i < connections; i++) {
+      tasks.add(() -> {
+        connection(nextSeed, end);
+        return null;
+      });
+    }
+    var pool = new ForkJoinPool(connections);
+    try {
+      for (var future : pool.invokeAll(tasks))
+        future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("load interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("load failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    var perSecond = moves.sum() / ((System.nanoTime() - start) / 1e9);
+    if (progress != null)
+      progress.printf("%d connections x %d games : %d moves, %d games, %.0f moves/s%n", connections, games,
+          moves.sum(), finished.sum(), perSecond);
+    return perSecond;
+  }
+
+  /**
+   * Play games on a connection until a time, each frame holding a move for
+   * each game.
+   *
+   * @param nextSeed The seed of the next game, shared by the connections.
+   * @param end      The time to stop in nanoseconds.
+   */
+  private void connection(AtomicLong nextSeed, long end) {
+    try (var socket = new Socket(address, port)) {
+      socket.setTcpNoDelay(true);
+      var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      var output = socket.getOutputStream();
+      var mirrors = new Patchwork[games];
+      var search = new RandomSearch(nextSeed.get());
+      var request = ByteBuffer.allocate(4 + games * NEW_GAME_SIZE);
+      var reply = new byte[games * BinaryProtocol.STATE_SIZE];
+      while (System.nanoTime() < end) {
+        request.clear();
+        request.putInt(0);
+        var played = 0;
+        for (var id = 0; id < games; id++) {
+          if (mirrors[id] == null) {
+            var seed = nextSeed.getAndIncrement();
+            mirrors[id] = new Patchwork(template, seed);
+            request.put((byte) BinaryProtocol.NEW_GAME).putInt(id).putLong(seed);
+          } else {
+            var move = search.bestMove(mirrors[id]);
+            request.put((byte) BinaryProtocol.MOVE).putInt(id)
+                .putShort((short) BinaryProtocol.toWire(mirrors[id], move));
+            mirrors[id].apply(move);
+            played++;
+          }
+        }
+        request.putInt(0, request.position() - 4);
+        output.write(request.array(), 0, request.position());
+        if (input.readInt() != reply.length)
+          throw new IllegalStateException("reply of the wrong size");
+        input.readFully(reply);
+        check(ByteBuffer.wrap(reply), mirrors);
+        moves.add(played);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Check the states of a reply frame against the games played locally,
+   * forgetting the games over.
+   *
+   * @param reply   The states of the games, one for each game.
+   * @param mirrors The games played locally.
+   */
+  private void check(ByteBuffer reply, Patchwork[] mirrors) {
+    for (var id = 0; id < mirrors.length; id++) {
+      var start = reply.position();
+      var status = reply.get(start + 4);
+      if (reply.getInt(start) != id || reply.getLong(start + 8) != mirrors[id].getHash()
+          || (status == BinaryProtocol.OVER) != mirrors[id].isOver()
+          || (status != BinaryProtocol.OVER && status != BinaryProtocol.PLAYING))
+        throw new IllegalStateException("state of game " + id + " differs from the server");
+      if (status == BinaryProtocol.OVER) {
+        mirrors[id] = null;
+        finished.increment();
+      }
+      reply.position(start + BinaryProtocol.STATE_SIZE);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package fr.uge.patchwork;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Objects;
+
+/**
+ * Connection between two peers playing the same game in lockstep : the host
+ * chooses the seed and the game mode and sends them once, then each peer only
+ * sends its moves. Each move is sent in 3 bytes with a 4-byte checksum of the
+ * game before the move, so that a peer whose game differs is detected at the
+ * first move that follows, and both peers send {@link #END} with the checksum
+ * of the final game once it is over. The host is the player 1.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class LockstepPeer implements AutoCloseable {
+  /**
+   * First int sent by the host, to recognize a lockstep peer.
+   */
+  private static final int MAGIC = 0x50574C53;
+  /**
+   * Move sent by each peer once the game is over, with the checksum of the
+   * final game, and which no move encoded by {@link Move#encode()} can be.
+   */
+  public static final int END = 0xFFFFFF;
+  /**
+   * The socket connected to the other peer.
+   */
+  private final Socket socket;
+  /**
+   * The bytes sent by the other peer.
+   */
+  private final DataInputStream input;
+  /**
+   * The bytes sent to the other peer.
+   */
+  private final DataOutputStream output;
+  /**
+   * The seed of the game.
+   */
+  private final long seed;
+  /**
+   * The Game mode.
+   */
+  private final int gameMode;
+  /**
+   * The player of this peer (1 or 2).
+   */
+  private final int localPlayer;
+
+  /**
+   * A move sent by a peer.
+   *
+   * @param move     The move encoded by {@link Move#encode()}.
+   * @param checksum The checksum of the game before the move.
+   */
+  public record Input(int move, int checksum) {
+  }
+
+  /**
+   * LockstepPeer constructor : Create a peer connected to the other peer.
+   *
+   * @param socket      The socket connected to the other peer.
+   * @param seed        The seed of the game.
+   * @param gameMode    The Game mode.
+   * @param localPlayer The player of this peer (1 or 2).
+   * @throws IOException If the streams of the socket can not be opened.
+   */
+  private LockstepPeer(Socket socket, long seed, int gameMode, int localPlayer) throws IOException {
+    this.socket = socket;
+    input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    this.seed = seed;
+    this.gameMode = gameMode;
+    this.localPlayer = localPlayer;
+  }
+
+  /**
+   * Wait for the other peer and send it the seed and the game mode. The host is
+   * the player 1.
+   *
+   * @param address  The address listened, for example the loopback address.
+   * @param port     The port listened.
+   * @param seed     The seed of the game.
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   *                 3 - Complete Game Mode with graphics
+   * @return The peer connected.
+   * @throws IOException If the other peer can not be reached.
+   */
+  public static LockstepPeer host(InetAddress address, int port, long seed, int gameMode) throws IOException {
+    Objects.requireNonNull(address);
+    if (gameMode < 1 || gameMode > 3)
+      throw new IllegalArgumentException("gameMode invalid");
+    Socket socket;
+    try (var serverSocket = new ServerSocket(port, 1, address)) {
+      socket = serverSocket.accept();
+    }
+    try {
+      socket.setTcpNoDelay(true);
+      var peer = new LockstepPeer(socket, seed, gameMode, 1);
+      peer.output.writeInt(MAGIC);
+      peer.output.writeLong(seed);
+      peer.output.writeByte(gameMode);
+      peer.output.flush();
+      return peer;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Connect to the host and receive the seed and the game mode. The peer who
+   * joins is the player 2.
+   *
+   * @param address The address of the host.
+   * @param port    The port of the host.
+   * @return The peer connected.
+   * @throws IOException If the host can not be reached or is not a lockstep
+   *                     peer.
+   */
+  public static LockstepPeer join(InetAddress address, int port) throws IOException {
+    Objects.requireNonNull(address);
+    var socket = new Socket(address, port);
+    try {
+      socket.setTcpNoDelay(true);
+      var input = new DataInputStream(socket.getInputStream());
+      if (input.readInt() != MAGIC)
+        throw new IOException("not a lockstep peer");
+      var seed = input.readLong();
+      var gameMode = input.readByte();
+      if (gameMode < 1 || gameMode > 3)
+        throw new IOException("gameMode invalid");
+      return new LockstepPeer(socket, seed, gameMode, 2);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Send a move of the player of this peer.
+   *
+   * @param move     The move encoded by {@link Move#encode()}.
+   * @param checksum The checksum of the game before the move.
+   */
+  public void send(int move, int checksum) {
+    try {
+      output.writeByte(move >>> 16);
+      output.writeShort(move);
+      output.writeInt(checksum);
+      output.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Wait for the next move of the other peer.
+   *
+   * @return The move and the checksum of the game of the other peer before it.
+   */
+  public Input receive() {
+    try {
+      var move = input.readUnsignedByte() << 16 | input.readUnsignedShort();
+      return new Input(move, input.readInt());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Accessor for seed.
+   *
+   * @return The seed of the game.
+   */
+  public long seed() {
+    return seed;
+  }
+
+  /**
+   * Accessor for gameMode.
+   *
+   * @return The Game mode.
+   */
+  public int gameMode() {
+    return gameMode;
+  }
+
+  /**
+   * Accessor for localPlayer.
+   *
+   * @return The player of this peer (1 or 2).
+   */
+  public int localPlayer() {
+    return localPlayer;
+  }
+
+  /**
+   * Close the connection to the other peer.
+   *
+   * @throws IOException If the socket can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+}
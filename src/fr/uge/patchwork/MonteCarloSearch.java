@@ -0,0 +1,529 @@
+package fr.uge.patchwork;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monte Carlo tree search of the best move of the current player of a
+ * {@link Patchwork}, run by several threads sharing the same tree. The threads
+ * are the workers of a {@link ForkJoinPool} created with the search and shut
+ * down by {@link #close()}, and their random generators are seeded from the
+ * seed of the search.
+ *
+ * Each thread plays on its own copy of the game : it goes down the tree with
+ * UCT, plays a random game from the reached node with a cheap default policy,
+ * updates the statistics of the nodes it went through and undoes all its moves.
+ * The statistics are updated with atomic operations instead of a lock, and a
+ * thread adds a virtual loss to the nodes it goes through, so that the other
+ * threads explore other branches until its result is known.
+ *
+ * A node has hundreds of moves, so its children are created one by one, the
+ * number of children of a node growing with the square root of its visits
+ * (progressive widening).
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class MonteCarloSearch implements MoveSearch {
+  /**
+   * Exploration constant of UCT, for results between 0 and 1.
+   */
+  private static final double EXPLORATION = 0.7;
+  /**
+   * Number of children of a node allowed for each square root of its visits.
+   */
+  private static final int WIDENING = 2;
+  /**
+   * Maximum number of moves from the root to a leaf.
+   */
+  private static final int MAX_PLY = 256;
+  /**
+   * Approximate memory of a node in bytes, used to report the memory of the
+   * tree.
+   */
+  private static final int NODE_BYTES = 48;
+  /**
+   * Approximate memory of the children of a node in bytes for each move.
+   */
+  private static final int MOVE_BYTES = 8;
+  /**
+   * The time budget of a move in nanoseconds.
+   */
+  private final long budget;
+  /**
+   * The number of threads of the search.
+   */
+  private final int threads;
+  /**
+   * The pool running the threads, null if the search runs in the calling
+   * thread only.
+   */
+  private final ForkJoinPool pool;
+  /**
+   * The random generator giving the seed of each thread at each move.
+   */
+  private final SplittableRandom seeds;
+  /**
+   * The number of playouts of the last search.
+   */
+  private final LongAdder playouts;
+  /**
+   * The number of nodes of the tree of the last search.
+   */
+  private final LongAdder nodes;
+  /**
+   * The approximate memory of the tree of the last search in bytes.
+   */
+  private final LongAdder memory;
+  /**
+   * The duration of the last search in nanoseconds.
+   */
+  private long duration;
+
+  /**
+   * A node of the tree, the position reached by playing a move.
+   */
+  private static final class Node {
+    /**
+     * Handle used to update visits atomically.
+     */
+    private static final VarHandle VISITS;
+    /**
+     * Handle used to update virtualLosses atomically.
+     */
+    private static final VarHandle VIRTUAL_LOSSES;
+    /**
+     * Handle used to update halfWins atomically.
+     */
+    private static final VarHandle HALF_WINS;
+    /**
+     * Handle used to create the children once.
+     */
+    private static final VarHandle CHILDREN;
+
+    static {
+      var lookup = MethodHandles.lookup();
+      try {
+        VISITS = lookup.findVarHandle(Node.class, "visits", int.class);
+        VIRTUAL_LOSSES = lookup.findVarHandle(Node.class, "virtualLosses", int.class);
+        HALF_WINS = lookup.findVarHandle(Node.class, "halfWins", long.class);
+        CHILDREN = lookup.findVarHandle(Node.class, "children", Children.class);
+      } catch (ReflectiveOperationException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /**
+     * The move played to reach the node, encoded by {@link Move#encode()}.
+     */
+    private final int move;
+    /**
+     * The player who played the move (1 or 2).
+     */
+    private final int player;
+    /**
+     * The number of playouts that went through the node.
+     */
+    private volatile int visits;
+    /**
+     * The number of threads currently going through the node.
+     */
+    private volatile int virtualLosses;
+    /**
+     * The results of the playouts for the player who played the move, 2 for a
+     * win and 1 for a draw.
+     */
+    private volatile long halfWins;
+    /**
+     * The children of the node, null until the node is expanded.
+     */
+    private volatile Children children;
+
+    /**
+     * Node constructor : Create a node never visited.
+     *
+     * @param move   The move played to reach the node.
+     * @param player The player who played the move.
+     */
+    private Node(int move, int player) {
+      this.move = move;
+      this.player = player;
+    }
+
+    /**
+     * Give the UCT value of the node, a virtual loss counting as a lost visit.
+     *
+     * @param logParentVisits The logarithm of the visits of the parent.
+     * @return The value of the node.
+     */
+    private double uct(double logParentVisits) {
+      var count = visits + virtualLosses;
+      if (count == 0)
+        return Double.POSITIVE_INFINITY;
+      return halfWins / (2.0 * count) + EXPLORATION * Math.sqrt(logParentVisits / count);
+    }
+  }
+
+  /**
+   * The moves of an expanded node and the children already created for them.
+   *
+   * @param moves   The legal moves, advancing first and the others shuffled.
+   * @param nodes   The child of each move, null until it is created.
+   * @param created The number of children created, the children being created
+   *                in the order of the moves.
+   */
+  private record Children(int[] moves, AtomicReferenceArray<Node> nodes, AtomicInteger created) {
+  }
+
+  /**
+   * The statistics of the moves of the root tried by a search.
+   *
+   * @param moves    The encoded moves.
+   * @param visits   The number of playouts of each move.
+   * @param halfWins The results of the playouts of each move for the player to
+   *                 move, 2 for a win and 1 for a draw.
+   */
+  record RootStatistics(int[] moves, int[] visits, long[] halfWins) {
+  }
+
+  /**
+   * MonteCarloSearch constructor : Create a search with the given time budget.
+   *
+   * @param timeBudget The time budget of a move in milliseconds.
+   * @param threads    The number of threads searching.
+   * @param seed       The seed of the random generators of the threads.
+   */
+  public MonteCarloSearch(long timeBudget, int threads, long seed) {
+    if (timeBudget <= 0)
+      throw new IllegalArgumentException("timeBudget <= 0");
+    if (threads <= 0)
+      throw new IllegalArgumentException("threads <= 0");
+    budget = timeBudget * 1_000_000;
+    this.threads = threads;
+    pool = (threads == 1) ? null : new ForkJoinPool(threads);
+    seeds = new SplittableRandom(seed);
+    playouts = new LongAdder();
+    nodes = new LongAdder();
+    memory = new LongAdder();
+  }
+
+  /**
+   * MonteCarloSearch constructor : Create a search using all the processors.
+   *
+   * @param timeBudget The time budget of a move in milliseconds.
+   * @param seed       The seed of the random generators of the threads.
+   */
+  public MonteCarloSearch(long timeBudget, long seed) {
+    this(timeBudget, Runtime.getRuntime().availableProcessors(), seed);
+  }
+
+  @Override
+  public int bestMove(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    if (patchwork.isOver())
+      throw new IllegalStateException("game is over");
+    playouts.reset();
+    nodes.reset();
+    memory.reset();
+    var start = System.nanoTime();
+    var deadline = start + budget - budget / 20;
+    var root = new Node(-1, 0);
+    if (pool == null)
+      search(root, new Patchwork(patchwork), seeds.split(), deadline);
+    else {
+      var tasks = new ArrayList<Callable<Void>>(threads);
+      for (var i = 0; i < threads; i++) {
+        var game = new Patchwork(patchwork);
+        var random = seeds.split();
+        tasks.add(() -> {
+          search(root, game, random, deadline);
+          return null;
+        });
+      }
+      // A failed thread fails the search rather than leaving a partial tree
+      try {
+        for (var future : pool.invokeAll(tasks))
+          future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("search interrupted", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("search failed", e.getCause());
+      }
+    }
+    duration = System.nanoTime() - start;
+    return mostVisited(root, patchwork);
+  }
+
+  /**
+   * Run the search in the calling thread only, on a game owned by the caller,
+   * and give the statistics of the moves of the root. Used by
+   * {@link RootParallelSearch} to run independent searches.
+   *
+   * @param game     The game, not over, given back in the same state.
+   * @param seed     The seed of the random generator.
+   * @param deadline The time after which the search stops.
+   * @return The statistics of the moves tried at the root.
+   */
+  RootStatistics searchRoot(Patchwork game, long seed, long deadline) {
+    Objects.requireNonNull(game);
+    playouts.reset();
+    nodes.reset();
+    memory.reset();
+    var start = System.nanoTime();
+    var root = new Node(-1, 0);
+    search(root, game, new SplittableRandom(seed), deadline);
+    duration = System.nanoTime() - start;
+    var children = root.children;
+    var count = (children == null) ? 0 : children.created().get();
+    var moves = new int[count];
+    var visits = new int[count];
+    var halfWins = new long[count];
+    for (var i = 0; i < count; i++) {
+      var child = children.nodes().get(i);
+      moves[i] = child.move;
+      visits[i] = child.visits;
+      halfWins[i] = child.halfWins;
+    }
+    return new RootStatistics(moves, visits, halfWins);
+  }
+
+  /**
+   * Give the move of the most visited child of the root.
+   *
+   * @param root      The root of the tree.
+   * @param patchwork The game, used if the root has not been expanded.
+   * @return The encoded move.
+   */
+  private static int mostVisited(Node root, Patchwork patchwork) {
+    var children = root.children;
+    if (children == null) {
+      var generator = new MoveGenerator();
+      generator.generate(patchwork);
+      return generator.move(0);
+    }
+    var best = children.nodes().get(0);
+    for (var i = 1; i < children.created().get(); i++) {
+      var child = children.nodes().get(i);
+      if (child != null && (best == null || child.visits > best.visits))
+        best = child;
+    }
+    return (best == null) ? children.moves()[0] : best.move;
+  }
+
+  /**
+   * Run playouts until the deadline.
+   *
+   * @param root     The root of the tree.
+   * @param game     The copy of the game of the thread, in the root position.
+   * @param random   The random generator of the thread.
+   * @param deadline The time after which the search stops.
+   */
+  private void search(Node root, Patchwork game, SplittableRandom random, long deadline) {
+    var path = new Node[MAX_PLY + 1];
+    var generator = new MoveGenerator();
+    while (System.nanoTime() < deadline) {
+      var length = descend(root, game, random, generator, path);
+      var winner = playout(game, random);
+      for (var i = 0; i < length; i++) {
+        var node = path[i];
+        Node.VISITS.getAndAdd(node, 1);
+        Node.VIRTUAL_LOSSES.getAndAdd(node, -1);
+        if (winner == 0)
+          Node.HALF_WINS.getAndAdd(node, 1L);
+        else if (winner == node.player)
+          Node.HALF_WINS.getAndAdd(node, 2L);
+      }
+      for (var i = 1; i < length; i++)
+        game.undo();
+      playouts.increment();
+    }
+  }
+
+  /**
+   * Go down the tree from the root with UCT, playing the moves on the game and
+   * adding a virtual loss to the nodes, until a new node or a leaf is reached.
+   *
+   * @param root      The root of the tree.
+   * @param game      The copy of the game of the thread, in the root position.
+   * @param random    The random generator of the thread.
+   * @param generator The move generator of the thread.
+   * @param path      The nodes gone through, from the root.
+   * @return The number of nodes gone through.
+   */
+  private int descend(Node root, Patchwork game, SplittableRandom random, MoveGenerator generator, Node[] path) {
+    var node = root;
+    var length = 0;
+    Node.VIRTUAL_LOSSES.getAndAdd(root, 1);
+    path[length++] = root;
+    while (length <= MAX_PLY && !game.isOver()) {
+      var children = node.children;
+      if (children == null) {
+        if (node != root && node.visits == 0)
+          break;
+        children = expand(node, game, random, generator);
+      }
+      var child = select(node, children, game.getPlayerTurn());
+      if (child == null)
+        break;
+      Node.VIRTUAL_LOSSES.getAndAdd(child, 1);
+      path[length++] = child;
+      game.apply(child.move);
+      if (child.visits == 0)
+        break;
+      node = child;
+    }
+    return length;
+  }
+
+  /**
+   * Create the children of a node, or give the ones created by another thread.
+   *
+   * @param node      The node.
+   * @param game      The game in the position of the node.
+   * @param random    The random generator of the thread.
+   * @param generator The move generator of the thread.
+   * @return The children of the node.
+   */
+  private Children expand(Node node, Patchwork game, SplittableRandom random, MoveGenerator generator) {
+    var size = generator.generate(game);
+    var moves = new int[size];
+    for (var i = 0; i < size; i++)
+      moves[i] = generator.move(i);
+    // Advancing stays first, the order of the other moves decides which ones are
+    // explored first by the progressive widening
+    for (var i = size - 1; i > 1; i--) {
+      var j = 1 + random.nextInt(i);
+      var move = moves[i];
+      moves[i] = moves[j];
+      moves[j] = move;
+    }
+    var children = new Children(moves, new AtomicReferenceArray<>(size), new AtomicInteger());
+    var witness = (Children) Node.CHILDREN.compareAndExchange(node, null, children);
+    if (witness != null)
+      return witness;
+    memory.add((long) size * MOVE_BYTES);
+    return children;
+  }
+
+  /**
+   * Choose the child to go through : a new child if the node has been visited
+   * enough to widen, otherwise the child with the best UCT value.
+   *
+   * @param node     The node.
+   * @param children The children of the node.
+   * @param player   The player to move in the position of the node.
+   * @return The chosen child or null if another thread has not published its new
+   *         child yet and there is no other child.
+   */
+  private Node select(Node node, Children children, int player) {
+    var count = node.visits + node.virtualLosses;
+    var allowed = Math.min(children.moves().length, 1 + WIDENING * (int) Math.sqrt(count));
+    var created = children.created().get();
+    while (created < allowed) {
+      if (children.created().compareAndSet(created, created + 1)) {
+        var child = new Node(children.moves()[created], player);
+        children.nodes().set(created, child);
+        nodes.increment();
+        memory.add(NODE_BYTES);
+        return child;
+      }
+      created = children.created().get();
+    }
+    var logVisits = Math.log(Math.max(1, count));
+    Node best = null;
+    var bestValue = Double.NEGATIVE_INFINITY;
+    for (var i = 0; i < created; i++) {
+      var child = children.nodes().get(i);
+      if (child == null)
+        continue;
+      var value = child.uct(logVisits);
+      if (value > bestValue) {
+        bestValue = value;
+        best = child;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Play the game until the end with the default policy, then undo the moves.
+   *
+   * @param game   The game.
+   * @param random The random generator of the thread.
+   * @return The winner (1 or 2) or 0 for a draw.
+   */
+  private static int playout(Patchwork game, SplittableRandom random) {
+    var moves = 0;
+    while (!game.isOver()) {
+      game.apply(RandomSearch.randomMove(game, random));
+      moves++;
+    }
+    var first = game.getPlayer(1).score();
+    var second = game.getPlayer(2).score();
+    var winner = (first > second) ? 1 : (first < second) ? 2 : game.getFirstPlayerAtEnd();
+    for (var i = 0; i < moves; i++)
+      game.undo();
+    return winner;
+  }
+
+  /**
+   * Give the number of playouts of the last search.
+   *
+   * @return The number of playouts.
+   */
+  public long playouts() {
+    return playouts.sum();
+  }
+
+  /**
+   * Give the number of playouts per second of the last search.
+   *
+   * @return The number of playouts per second.
+   */
+  public double playoutsPerSecond() {
+    return (duration == 0) ? 0 : playouts.sum() * 1e9 / duration;
+  }
+
+  /**
+   * Give the number of nodes of the tree of the last search.
+   *
+   * @return The number of nodes.
+   */
+  public long treeSize() {
+    return nodes.sum();
+  }
+
+  /**
+   * Give the approximate memory used by the tree of the last search.
+   *
+   * @return The memory in bytes.
+   */
+  public long memoryUsed() {
+    return memory.sum();
+  }
+
+  /**
+   * Shut down the pool running the threads of the search.
+   */
+  @Override
+  public void close() {
+    if (pool != null)
+      pool.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d threads, %d playouts, %.0f playouts/s, %d nodes, %.1f MB", threads, playouts.sum(),
+        playoutsPerSecond(), treeSize(), memoryUsed() / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,181 @@
+package fr.uge.patchwork;
+
+/**
+ * Representation of a move of a player, applied and undone with
+ * {@link Patchwork#apply(Move)} and {@link Patchwork#undo()}. A move is also
+ * encoded in an int so that search code can store moves without allocating :
+ * the type on 2 bits, the position on 8 bits, the orientation on 3 bits and the
+ * anchor on 7 bits.
+ *
+ * @param type        {@link #ADVANCE}, {@link #TAKE} or {@link #SPECIAL_PATCH}
+ * @param position    The position of the taken patch in the patches list (0 if
+ *                    no patch is taken)
+ * @param orientation The index of the orientation of the taken patch among its
+ *                    distinct orientations (0 if no patch is taken)
+ * @param anchor      The space (line * 9 + column) of the top left corner of
+ *                    the placed patch or {@link #NO_ANCHOR} if it is thrown
+ *                    away
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public record Move(int type, int position, int orientation, int anchor) {
+  /**
+   * Move the token after the other player and receive one button per space.
+   */
+  public static final int ADVANCE = 0;
+  /**
+   * Take one of the three next patches, pay it and place it.
+   */
+  public static final int TAKE = 1;
+  /**
+   * Place a 1x1 special patch received by crossing it on the time board.
+   */
+  public static final int SPECIAL_PATCH = 2;
+  /**
+   * Anchor of a patch thrown away instead of being placed.
+   */
+  public static final int NO_ANCHOR = 127;
+
+  /**
+   * Move constructor : Create a new move with the given arguments
+   *
+   * @param type        {@link #ADVANCE}, {@link #TAKE} or {@link #SPECIAL_PATCH}
+   * @param position    The position of the taken patch in the patches list
+   * @param orientation The index of the orientation of the taken patch
+   * @param anchor      The space of the top left corner of the placed patch or
+   *                    {@link #NO_ANCHOR}
+   */
+  public Move {
+    if (type != ADVANCE && type != TAKE && type != SPECIAL_PATCH)
+      throw new IllegalArgumentException("type invalid");
+    if (position < 0 || position > 255)
+      throw new IllegalArgumentException("position invalid");
+    if (orientation < 0 || orientation > 7)
+      throw new IllegalArgumentException("orientation invalid");
+    if ((anchor < 0 || anchor >= 81) && anchor != NO_ANCHOR)
+      throw new IllegalArgumentException("anchor invalid");
+  }
+
+  /**
+   * Create the move that advances the token.
+   *
+   * @return The move.
+   */
+  public static Move advance() {
+    return new Move(ADVANCE, 0, 0, NO_ANCHOR);
+  }
+
+  /**
+   * Create the move that takes a patch and places it.
+   *
+   * @param position    The position of the patch in the patches list
+   * @param orientation The index of the orientation of the patch
+   * @param anchor      The space of the top left corner of the placed patch or
+   *                    {@link #NO_ANCHOR}
+   * @return The move.
+   */
+  public static Move take(int position, int orientation, int anchor) {
+    return new Move(TAKE, position, orientation, anchor);
+  }
+
+  /**
+   * Create the move that places a 1x1 special patch.
+   *
+   * @param anchor The space of the special patch or {@link #NO_ANCHOR}
+   * @return The move.
+   */
+  public static Move specialPatch(int anchor) {
+    return new Move(SPECIAL_PATCH, 0, 0, anchor);
+  }
+
+  /**
+   * Encode a move in an int.
+   *
+   * @param type        {@link #ADVANCE}, {@link #TAKE} or {@link #SPECIAL_PATCH}
+   * @param position    The position of the taken patch in the patches list
+   * @param orientation The index of the orientation of the taken patch
+   * @param anchor      The space of the top left corner of the placed patch or
+   *                    {@link #NO_ANCHOR}
+   * @return The encoded move.
+   */
+  public static int encode(int type, int position, int orientation, int anchor) {
+    return type | position << 2 | orientation << 10 | anchor << 13;
+  }
+
+  /**
+   * Encode the move in an int.
+   *
+   * @return The encoded move.
+   */
+  public int encode() {
+    return encode(type, position, orientation, anchor);
+  }
+
+  /**
+   * Decode a move encoded in an int.
+   *
+   * @param move The encoded move.
+   * @return The move.
+   */
+  public static Move decode(int move) {
+    return new Move(type(move), position(move), orientation(move), anchor(move));
+  }
+
+  /**
+   * Give the type of an encoded move.
+   *
+   * @param move The encoded move.
+   * @return The type.
+   */
+  public static int type(int move) {
+    return move & 0x3;
+  }
+
+  /**
+   * Give the position of the taken patch of an encoded move.
+   *
+   * @param move The encoded move.
+   * @return The position.
+   */
+  public static int position(int move) {
+    return (move >>> 2) & 0xFF;
+  }
+
+  /**
+   * Give the orientation of the taken patch of an encoded move.
+   *
+   * @param move The encoded move.
+   * @return The orientation.
+   */
+  public static int orientation(int move) {
+    return (move >>> 10) & 0x7;
+  }
+
+  /**
+   * Give the anchor of the placed patch of an encoded move.
+   *
+   * @param move The encoded move.
+   * @return The anchor.
+   */
+  public static int anchor(int move) {
+    return (move >>> 13) & 0x7F;
+  }
+
+  @Override
+  public String toString() {
+    var builder = new StringBuilder();
+    switch (type) {
+    case ADVANCE -> builder.append("advance");
+    case TAKE -> builder.append("take ").append(position).append(" orientation ").append(orientation);
+    default -> builder.append("special patch");
+    }
+    if (type != ADVANCE) {
+      if (anchor == NO_ANCHOR)
+        builder.append(" thrown away");
+      else
+        builder.append(" at ").append(new Coordinate(anchor / 9, anchor % 9));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,138 @@
+package fr.uge.patchwork;
+
+import java.util.Objects;
+
+/**
+ * Generator of the legal moves of the current player of a {@link Patchwork}.
+ * The moves are encoded by {@link Move#encode(int, int, int, int)} in a buffer
+ * allocated once, so that the generator can be called again and again by a
+ * search without creating garbage.
+ *
+ * While the current player has 1x1 special patches to place, the legal moves
+ * are the placements of the next special patch. Otherwise they are advancing
+ * and taking one of the three next patches in each of its distinct
+ * orientations at each free anchor. A patch that can not be placed anywhere is
+ * thrown away ({@link Move#NO_ANCHOR}).
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class MoveGenerator {
+  /**
+   * The maximum number of legal moves : advancing, and three patches in 8
+   * orientations at 81 anchors.
+   */
+  private static final int MAX_MOVES = 1 + 3 * 8 * 81;
+  /**
+   * The generated moves.
+   */
+  private final int[] moves;
+  /**
+   * The number of generated moves.
+   */
+  private int size;
+
+  /**
+   * MoveGenerator constructor : Create a generator with an empty buffer.
+   */
+  public MoveGenerator() {
+    moves = new int[MAX_MOVES];
+    size = 0;
+  }
+
+  /**
+   * Generate all the legal moves of the current player, replacing the moves
+   * generated before.
+   *
+   * @param patchwork The game.
+   * @return The number of legal moves, 0 if the game is over.
+   */
+  public int generate(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    size = 0;
+    if (patchwork.isOver())
+      return 0;
+    var player = patchwork.getPlayer(patchwork.getPlayerTurn());
+    var patchesList = patchwork.getPatchesList();
+    var table = patchesList.getPlacementTable();
+    if (patchwork.getPendingSpecialPatches() > 0) {
+      addPlacements(Move.SPECIAL_PATCH, 0, 0, table.specialPatchOrientation(), player.getQuiltBoard(), table);
+      if (size == 0)
+        moves[size++] = Move.encode(Move.SPECIAL_PATCH, 0, 0, Move.NO_ANCHOR);
+      return size;
+    }
+    moves[size++] = Move.encode(Move.ADVANCE, 0, 0, Move.NO_ANCHOR);
+    var catalog = patchesList.getCatalog();
+    for (var rank = 0; rank < 3; rank++) {
+      var position = patchesList.nextPosition(rank);
+      if (position < 0)
+        break;
+      var id = patchesList.patchId(position);
+      if (!player.hasEnoughButtons(catalog.cost(id)))
+        continue;
+      var first = size;
+      for (var k = 0; k < catalog.orientationCount(id); k++)
+        addPlacements(Move.TAKE, position, k, catalog.placementOrientation(id, k), player.getQuiltBoard(), table);
+      if (size == first)
+        moves[size++] = Move.encode(Move.TAKE, position, 0, Move.NO_ANCHOR);
+    }
+    return size;
+  }
+
+  /**
+   * Add a move for each free anchor of an orientation on the quiltboard.
+   *
+   * @param type        The type of the moves.
+   * @param position    The position of the taken patch in the patches list.
+   * @param index       The index of the orientation among those of the patch.
+   * @param orientation The orientation index in the placement table.
+   * @param quiltBoard  The quiltboard of the current player.
+   * @param table       The placement table.
+   */
+  private void addPlacements(int type, int position, int index, int orientation, QuiltBoard quiltBoard,
+      PlacementTable table) {
+    for (var anchor = table.nextLegalAnchor(quiltBoard, orientation, 0); anchor >= 0; anchor = table
+        .nextLegalAnchor(quiltBoard, orientation, anchor + 1))
+      moves[size++] = Move.encode(type, position, index, table.anchor(orientation, anchor));
+  }
+
+  /**
+   * Give the number of moves generated by the last call to
+   * {@link #generate(Patchwork)}.
+   *
+   * @return The number of moves.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Put a generated move first so that it is searched before the others, for
+   * example the best move found by a previous search.
+   *
+   * @param move The encoded move.
+   * @return true if the move has been generated.
+   */
+  public boolean moveToFront(int move) {
+    for (var index = 0; index < size; index++) {
+      if (moves[index] == move) {
+        moves[index] = moves[0];
+        moves[0] = move;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Give a generated move.
+   *
+   * @param index The index of the move.
+   * @return The move encoded by {@link Move#encode(int, int, int, int)}.
+   */
+  public int move(int index) {
+    if (index < 0 || index >= size)
+      throw new IllegalArgumentException("index not valid");
+    return moves[index];
+  }
+}
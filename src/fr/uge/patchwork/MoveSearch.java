@@ -0,0 +1,29 @@
+package fr.uge.patchwork;
+
+/**
+ * Interface of the searches used by a computer player to choose its moves. A
+ * search running threads keeps them from one move to the other and stops them
+ * when it is closed.
+ * 
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public sealed interface MoveSearch extends AutoCloseable permits AlphaBetaSearch, MonteCarloSearch,
+    RootParallelSearch, EndgameSolver, RandomSearch, SearchPool {
+  /**
+   * Search the best move of the current player. The game may be changed during
+   * the search but is given back in the same state.
+   * 
+   * @param patchwork The game, not over.
+   * @return The best move encoded by {@link Move#encode()}.
+   */
+  int bestMove(Patchwork patchwork);
+
+  /**
+   * Stop the threads of the search, if it has any. The search can not be used
+   * anymore.
+   */
+  @Override
+  default void close() {
+  }
+}
@@ -0,0 +1,305 @@
+package fr.uge.patchwork;
+
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+
+/**
+ * Runnable cross-check of a {@link PackingSolver} against a brute force
+ * search : on random quilt boards, with a few random patches, the brute force
+ * tries every placement of every patch, or leaves it out, and its answers are
+ * compared with the ones of the solver. Half of the boards have a 7x7 square
+ * filled except for holes the shape of some of the patches, and sometimes one
+ * more space, so that the square can often but not always be completed. The
+ * packings given by the solver are also checked : their patches are among the
+ * given ones, their placements are on empty spaces and do not overlap, and they
+ * cover what they claim.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class PackingCheck {
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+  /**
+   * Maximum number of patches given to the solver, so that the brute force
+   * stays fast.
+   */
+  private static final int MAX_PATCHES = 3;
+  /**
+   * Maximum number of patches placed at random to fill a board.
+   */
+  private static final int MAX_FILL = 40;
+  /**
+   * Number of tries to dig the hole of a patch in a square.
+   */
+  private static final int HOLE_TRIES = 20;
+  /**
+   * The 1x1 patch filling the square of a board.
+   */
+  private static final Patch SINGLE = Patch.createPatch(33, 1, 0, 0, 0, 1, 1, 2);
+
+  /**
+   * PackingCheck constructor : No instance, only static methods.
+   */
+  private PackingCheck() {
+  }
+
+  /**
+   * Compare the solver with the brute force on random boards.
+   *
+   * @param boards   The number of boards.
+   * @param seed     The seed of the boards and of the patches.
+   * @param progress The stream where the result is reported, or null to report
+   *                 nothing.
+   * @throws IllegalStateException If the solver and the brute force disagree,
+   *                               or if a packing of the solver is not valid.
+   */
+  public static void run(int boards, long seed, PrintStream progress) {
+    if (boards < 0)
+      throw new IllegalArgumentException("boards < 0");
+    var template = new Patchwork(TIME_BOARD_SIZE, 2);
+    template.loadPatches();
+    var catalog = template.getPatchesList().getCatalog();
+    var random = new SplittableRandom(seed);
+    var completed = 0;
+    try (var solver = new PackingSolver(catalog)) {
+      for (var board = 0; board < boards; board++) {
+        var patches = new int[1 + random.nextInt(MAX_PATCHES)];
+        for (var i = 0; i < patches.length; i++)
+          patches[i] = random.nextInt(catalog.size());
+        var quiltBoard = (board % 2 == 0) ? randomBoard(catalog, random) : squareBoard(catalog, patches, random);
+        var low = quiltBoard.getLowSpaces();
+        var high = quiltBoard.getHighSpaces();
+        var expected = bruteCoverage(catalog, patches, 0, low, high);
+        var packing = solver.maxCoverage(quiltBoard, patches);
+        checkPacking(catalog, patches, packing, low, high, board);
+        if (packing.coverage() != expected)
+          throw new IllegalStateException("board " + board + " : coverage " + packing.coverage() + " instead of "
+              + expected);
+        var square = solver.complete7x7(quiltBoard, patches);
+        if ((square != null) != bruteComplete7x7(catalog, patches, 0, low, high))
+          throw new IllegalStateException("board " + board + " : 7x7 square " + ((square != null) ? "" : "not ")
+              + "completed by the solver only");
+        if (square != null) {
+          checkPacking(catalog, patches, square, low, high, board);
+          if (!hasFullSquare(low | maskOf(catalog, square, false), high | maskOf(catalog, square, true)))
+            throw new IllegalStateException("board " + board + " : the 7x7 square is not full");
+          completed++;
+        }
+      }
+    }
+    if (progress != null)
+      progress.println(boards + " boards, " + completed + " with a 7x7 square completed, solver and brute force agree");
+  }
+
+  /**
+   * Fill a board with patches placed at random.
+   *
+   * @param catalog The catalog of the patches.
+   * @param random  The random generator.
+   * @return The board.
+   */
+  private static QuiltBoard randomBoard(PatchCatalog catalog, SplittableRandom random) {
+    var quiltBoard = new QuiltBoard();
+    var table = catalog.placementTable();
+    var attempts = random.nextInt(MAX_FILL + 1);
+    for (var i = 0; i < attempts; i++) {
+      var id = random.nextInt(catalog.size());
+      var k = random.nextInt(catalog.orientationCount(id));
+      var orientation = catalog.placementOrientation(id, k);
+      var index = random.nextInt(table.anchorCount(orientation));
+      var low = table.lowMask(orientation, index);
+      var high = table.highMask(orientation, index);
+      if (quiltBoard.isFreeArea(low, high))
+        quiltBoard.placeArea(catalog.patch(id).orientations().get(k), table.anchor(orientation, index), low, high);
+    }
+    return quiltBoard;
+  }
+
+  /**
+   * Fill a 7x7 square of a board except for holes where some of the patches
+   * fit, and sometimes one more space.
+   *
+   * @param catalog The catalog of the patches.
+   * @param patches The ids of the patches.
+   * @param random  The random generator.
+   * @return The board.
+   */
+  private static QuiltBoard squareBoard(PatchCatalog catalog, int[] patches, SplittableRandom random) {
+    var table = catalog.placementTable();
+    var square = random.nextInt(QuiltBoard.SQUARES_LOW.length);
+    var squareLow = QuiltBoard.SQUARES_LOW[square];
+    var squareHigh = QuiltBoard.SQUARES_HIGH[square];
+    var holesLow = 0L;
+    var holesHigh = 0L;
+    for (var id : patches) {
+      if (random.nextInt(4) == 0)
+        continue;
+      for (var tries = 0; tries < HOLE_TRIES; tries++) {
+        var orientation = catalog.placementOrientation(id, random.nextInt(catalog.orientationCount(id)));
+        var index = random.nextInt(table.anchorCount(orientation));
+        var low = table.lowMask(orientation, index);
+        var high = table.highMask(orientation, index);
+        if ((low & holesLow) == 0 && (high & holesHigh) == 0
+            && ((low & squareLow) != 0 || (high & squareHigh) != 0)) {
+          holesLow |= low;
+          holesHigh |= high;
+          break;
+        }
+      }
+    }
+    var extraHole = (random.nextInt(4) == 0) ? random.nextInt(64) : -1;
+    var quiltBoard = new QuiltBoard();
+    for (var space = 0; space < 81; space++) {
+      var low = (space < 64) ? 1L << space : 0;
+      var high = (space < 64) ? 0 : 1L << (space - 64);
+      if (space != extraHole && ((low & squareLow) != 0 || (high & squareHigh) != 0)
+          && (low & holesLow) == 0 && (high & holesHigh) == 0)
+        quiltBoard.placeArea(SINGLE, space, low, high);
+    }
+    return quiltBoard;
+  }
+
+  /**
+   * Give the most spaces the patches from an index can cover, each one being
+   * placed anywhere it fits or left out.
+   *
+   * @param catalog The catalog of the patches.
+   * @param patches The ids of the patches.
+   * @param from    The index of the first patch not decided yet.
+   * @param low     The first 64 filled spaces.
+   * @param high    The last 17 filled spaces.
+   * @return The number of spaces covered.
+   */
+  private static int bruteCoverage(PatchCatalog catalog, int[] patches, int from, long low, long high) {
+    if (from == patches.length)
+      return 0;
+    var best = bruteCoverage(catalog, patches, from + 1, low, high);
+    var table = catalog.placementTable();
+    var id = patches[from];
+    for (var k = 0; k < catalog.orientationCount(id); k++) {
+      var orientation = catalog.placementOrientation(id, k);
+      for (var index = 0; index < table.anchorCount(orientation); index++) {
+        var patchLow = table.lowMask(orientation, index);
+        var patchHigh = table.highMask(orientation, index);
+        if ((patchLow & low) == 0 && (patchHigh & high) == 0)
+          best = Math.max(best, catalog.area(id)
+              + bruteCoverage(catalog, patches, from + 1, low | patchLow, high | patchHigh));
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Check if the patches from an index can be placed, or left out, so that a
+   * 7x7 square is full.
+   *
+   * @param catalog The catalog of the patches.
+   * @param patches The ids of the patches.
+   * @param from    The index of the first patch not decided yet.
+   * @param low     The first 64 filled spaces.
+   * @param high    The last 17 filled spaces.
+   * @return true if a 7x7 square can be full.
+   */
+  private static boolean bruteComplete7x7(PatchCatalog catalog, int[] patches, int from, long low, long high) {
+    if (hasFullSquare(low, high))
+      return true;
+    if (from == patches.length)
+      return false;
+    if (bruteComplete7x7(catalog, patches, from + 1, low, high))
+      return true;
+    var table = catalog.placementTable();
+    var id = patches[from];
+    for (var k = 0; k < catalog.orientationCount(id); k++) {
+      var orientation = catalog.placementOrientation(id, k);
+      for (var index = 0; index < table.anchorCount(orientation); index++) {
+        var patchLow = table.lowMask(orientation, index);
+        var patchHigh = table.highMask(orientation, index);
+        if ((patchLow & low) == 0 && (patchHigh & high) == 0
+            && bruteComplete7x7(catalog, patches, from + 1, low | patchLow, high | patchHigh))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check if one of the 9 possible 7x7 squares is full.
+   *
+   * @param low  The first 64 filled spaces.
+   * @param high The last 17 filled spaces.
+   * @return true if a square is full.
+   */
+  private static boolean hasFullSquare(long low, long high) {
+    for (var square = 0; square < QuiltBoard.SQUARES_LOW.length; square++) {
+      var squareLow = QuiltBoard.SQUARES_LOW[square];
+      var squareHigh = QuiltBoard.SQUARES_HIGH[square];
+      if ((low & squareLow) == squareLow && (high & squareHigh) == squareHigh)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Give the spaces covered by the placements of a packing.
+   *
+   * @param catalog The catalog of the patches.
+   * @param packing The packing.
+   * @param high    true for the last 17 spaces, false for the first 64.
+   * @return The spaces covered.
+   */
+  private static long maskOf(PatchCatalog catalog, PackingSolver.Packing packing, boolean high) {
+    var table = catalog.placementTable();
+    var mask = 0L;
+    for (var placement : packing.placements()) {
+      var index = table.anchorIndex(placement.orientation(), placement.anchor());
+      mask |= high ? table.highMask(placement.orientation(), index) : table.lowMask(placement.orientation(), index);
+    }
+    return mask;
+  }
+
+  /**
+   * Check that a packing only uses the given patches, each one at most as many
+   * times as given, in orientations of these patches, on empty spaces, without
+   * overlapping, and that it covers the spaces it claims.
+   *
+   * @param catalog The catalog of the patches.
+   * @param patches The ids of the patches given to the solver.
+   * @param packing The packing.
+   * @param low     The first 64 filled spaces of the board.
+   * @param high    The last 17 filled spaces of the board.
+   * @param board   The index of the board, for the messages.
+   */
+  private static void checkPacking(PatchCatalog catalog, int[] patches, PackingSolver.Packing packing, long low,
+      long high, int board) {
+    var table = catalog.placementTable();
+    var used = new boolean[patches.length];
+    var covered = 0;
+    for (var placement : packing.placements()) {
+      var slot = -1;
+      for (var i = 0; i < patches.length && slot < 0; i++)
+        if (!used[i] && patches[i] == placement.patch())
+          slot = i;
+      if (slot < 0)
+        throw new IllegalStateException("board " + board + " : patch " + placement.patch() + " not given");
+      used[slot] = true;
+      if (table.pieceOf(placement.orientation()) != table.pieceOf(catalog.placementOrientation(placement.patch(), 0)))
+        throw new IllegalStateException("board " + board + " : orientation of another patch");
+      var index = table.anchorIndex(placement.orientation(), placement.anchor());
+      if (index < 0)
+        throw new IllegalStateException("board " + board + " : anchor not valid");
+      var patchLow = table.lowMask(placement.orientation(), index);
+      var patchHigh = table.highMask(placement.orientation(), index);
+      if ((patchLow & low) != 0 || (patchHigh & high) != 0)
+        throw new IllegalStateException("board " + board + " : placements overlapping");
+      low |= patchLow;
+      high |= patchHigh;
+      covered += Long.bitCount(patchLow) + Long.bitCount(patchHigh);
+    }
+    if (covered != packing.coverage())
+      throw new IllegalStateException("board " + board + " : coverage " + packing.coverage() + " but " + covered
+          + " spaces covered");
+  }
+}
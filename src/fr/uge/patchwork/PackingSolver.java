@@ -0,0 +1,658 @@
+package fr.uge.patchwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Solver of the packing of patches on the empty spaces of a {@link QuiltBoard},
+ * seen as an exact cover problem solved by Knuth's Algorithm X with dancing
+ * links. Each space and each patch is a column of the matrix, and each legal
+ * placement of an orientation of a patch is a row covering its spaces and its
+ * patch, so that a patch is used at most once.
+ *
+ * The first choices of the search are given to the workers of a
+ * {@link ForkJoinPool}, each one searching its own copy of the matrix, and the
+ * workers stop as soon as the answer is known. The pool is shut down by
+ * {@link #close()}.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class PackingSolver implements AutoCloseable {
+  /**
+   * Number of lines and columns of a quilt board.
+   */
+  private static final int GRID_SIZE = 9;
+  /**
+   * Number of spaces of a quilt board.
+   */
+  private static final int SPACES = GRID_SIZE * GRID_SIZE;
+  /**
+   * Number of lines and columns of the square of the bonus tile.
+   */
+  private static final int SQUARE_SIZE = 7;
+  /**
+   * The catalog of the patches to place.
+   */
+  private final PatchCatalog catalog;
+  /**
+   * The pool running the workers.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * A placement of a patch.
+   *
+   * @param patch       The id of the patch in the catalog.
+   * @param orientation The orientation index in the placement table.
+   * @param anchor      The space of the top left corner (line * 9 + column).
+   */
+  public record Placement(int patch, int orientation, int anchor) {
+  }
+
+  /**
+   * A packing of patches on a quilt board.
+   *
+   * @param coverage   The number of empty spaces covered by the patches.
+   * @param placements The placements of the patches, none overlapping.
+   */
+  public record Packing(int coverage, List<Placement> placements) {
+    /**
+     * Packing constructor : Create a packing.
+     *
+     * @param coverage   The number of empty spaces covered by the patches.
+     * @param placements The placements of the patches, none overlapping.
+     */
+    public Packing {
+      if (coverage < 0)
+        throw new IllegalArgumentException("coverage < 0");
+      placements = List.copyOf(placements);
+    }
+  }
+
+  /**
+   * The dancing links of a sparse matrix of 0 and 1 : every 1 is a node linked
+   * to the nodes of its row and of its column, so that a column and its rows
+   * can be removed and put back in constant time for each node.
+   *
+   * The node 0 is the root of the primary columns, the nodes 1 to columns are
+   * the headers of the columns and the other nodes are the 1 of the rows. Only
+   * the primary columns are linked to the root : the secondary columns may stay
+   * uncovered.
+   */
+  private static final class Matrix {
+    /**
+     * The node on the left of each node.
+     */
+    private final int[] left;
+    /**
+     * The node on the right of each node.
+     */
+    private final int[] right;
+    /**
+     * The node above each node.
+     */
+    private final int[] up;
+    /**
+     * The node below each node.
+     */
+    private final int[] down;
+    /**
+     * The column header of each node.
+     */
+    private final int[] column;
+    /**
+     * The row of each node, -1 for the headers.
+     */
+    private final int[] row;
+    /**
+     * The number of rows left in each column.
+     */
+    private final int[] size;
+    /**
+     * If each column has to be covered.
+     */
+    private final boolean[] primary;
+    /**
+     * The placement of each row.
+     */
+    private final Placement[] placements;
+    /**
+     * The number of spaces of the patch of each row.
+     */
+    private final int[] areas;
+    /**
+     * The number of primary columns not covered yet.
+     */
+    private int primaryLeft;
+    /**
+     * The number of spaces of the patches not placed yet.
+     */
+    private int remainingArea;
+
+    /**
+     * Matrix constructor : Create the matrix of the given rows.
+     *
+     * @param primary       If each column has to be covered.
+     * @param rowColumns    The columns (1 to primary.length) of each row.
+     * @param placements    The placement of each row.
+     * @param areas         The number of spaces of the patch of each row.
+     * @param remainingArea The number of spaces of all the patches.
+     */
+    private Matrix(boolean[] primary, List<int[]> rowColumns, List<Placement> placements, List<Integer> areas,
+        int remainingArea) {
+      var columns = primary.length;
+      var nodes = columns + 1;
+      for (var columnsOfRow : rowColumns)
+        nodes += columnsOfRow.length;
+      left = new int[nodes];
+      right = new int[nodes];
+      up = new int[nodes];
+      down = new int[nodes];
+      column = new int[nodes];
+      row = new int[nodes];
+      size = new int[columns + 1];
+      this.primary = new boolean[columns + 1];
+      this.placements = placements.toArray(Placement[]::new);
+      this.areas = areas.stream().mapToInt(Integer::intValue).toArray();
+      this.remainingArea = remainingArea;
+
+      left[0] = 0;
+      right[0] = 0;
+      row[0] = -1;
+      var count = 0;
+      for (var header = 1; header <= columns; header++) {
+        up[header] = header;
+        down[header] = header;
+        column[header] = header;
+        row[header] = -1;
+        this.primary[header] = primary[header - 1];
+        if (primary[header - 1]) {
+          left[header] = left[0];
+          right[header] = 0;
+          right[left[0]] = header;
+          left[0] = header;
+          count++;
+        } else {
+          left[header] = header;
+          right[header] = header;
+        }
+      }
+      primaryLeft = count;
+
+      var node = columns + 1;
+      for (var index = 0; index < rowColumns.size(); index++) {
+        var first = node;
+        for (var header : rowColumns.get(index)) {
+          column[node] = header;
+          row[node] = index;
+          up[node] = up[header];
+          down[node] = header;
+          down[up[header]] = node;
+          up[header] = node;
+          size[header]++;
+          left[node] = (node == first) ? node : node - 1;
+          right[node] = first;
+          right[left[node]] = node;
+          left[first] = node;
+          node++;
+        }
+      }
+    }
+
+    /**
+     * Matrix constructor : Create a copy of a matrix, searched independently.
+     *
+     * @param matrix The matrix to copy.
+     */
+    private Matrix(Matrix matrix) {
+      left = matrix.left.clone();
+      right = matrix.right.clone();
+      up = matrix.up.clone();
+      down = matrix.down.clone();
+      column = matrix.column;
+      row = matrix.row;
+      size = matrix.size.clone();
+      primary = matrix.primary;
+      placements = matrix.placements;
+      areas = matrix.areas;
+      primaryLeft = matrix.primaryLeft;
+      remainingArea = matrix.remainingArea;
+    }
+
+    /**
+     * Remove a column and all the rows crossing it.
+     *
+     * @param header The header of the column.
+     */
+    private void cover(int header) {
+      right[left[header]] = right[header];
+      left[right[header]] = left[header];
+      if (primary[header])
+        primaryLeft--;
+      for (var i = down[header]; i != header; i = down[i]) {
+        for (var j = right[i]; j != i; j = right[j]) {
+          down[up[j]] = down[j];
+          up[down[j]] = up[j];
+          size[column[j]]--;
+        }
+      }
+    }
+
+    /**
+     * Put back a column and all the rows crossing it, in the reverse order of
+     * {@link #cover(int)}.
+     *
+     * @param header The header of the column.
+     */
+    private void uncover(int header) {
+      for (var i = up[header]; i != header; i = up[i]) {
+        for (var j = left[i]; j != i; j = left[j]) {
+          size[column[j]]++;
+          down[up[j]] = j;
+          up[down[j]] = j;
+        }
+      }
+      if (primary[header])
+        primaryLeft++;
+      right[left[header]] = header;
+      left[right[header]] = header;
+    }
+
+    /**
+     * Choose a row whose column has already been covered : cover the other
+     * columns of the row.
+     *
+     * @param node A node of the row, in the covered column.
+     */
+    private void select(int node) {
+      for (var j = right[node]; j != node; j = right[j])
+        cover(column[j]);
+      remainingArea -= areas[row[node]];
+    }
+
+    /**
+     * Undo {@link #select(int)}.
+     *
+     * @param node The node given to select.
+     */
+    private void unselect(int node) {
+      remainingArea += areas[row[node]];
+      for (var j = left[node]; j != node; j = left[j])
+        uncover(column[j]);
+    }
+
+    /**
+     * Give the primary column with the fewest rows left.
+     *
+     * @return The header of the column, or 0 if all the primary columns are
+     *         covered.
+     */
+    private int smallestColumn() {
+      var best = 0;
+      for (var header = right[0]; header != 0; header = right[header]) {
+        if (best == 0 || size[header] < size[best]) {
+          best = header;
+          if (size[best] <= 1)
+            break;
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Give a row of a column.
+     *
+     * @param header The header of the column.
+     * @param index  The index of the row among the rows left in the column.
+     * @return The node of the row in the column.
+     */
+    private int rowNode(int header, int index) {
+      var node = down[header];
+      for (var i = 0; i < index; i++)
+        node = down[node];
+      return node;
+    }
+
+    /**
+     * Give the packing of the chosen rows.
+     *
+     * @param chosen   A node of each chosen row.
+     * @param count    The number of chosen rows.
+     * @param coverage The number of empty spaces covered by the rows.
+     * @return The packing.
+     */
+    private Packing packing(int[] chosen, int count, int coverage) {
+      var result = new ArrayList<Placement>(count);
+      for (var i = 0; i < count; i++)
+        result.add(placements[row[chosen[i]]]);
+      return new Packing(coverage, result);
+    }
+  }
+
+  /**
+   * PackingSolver constructor : Create a solver of the patches of a catalog.
+   *
+   * @param catalog The catalog of the patches to place.
+   * @param workers The number of threads of the search.
+   */
+  public PackingSolver(PatchCatalog catalog, int workers) {
+    Objects.requireNonNull(catalog);
+    if (workers <= 0)
+      throw new IllegalArgumentException("workers <= 0");
+    this.catalog = catalog;
+    pool = new ForkJoinPool(workers);
+  }
+
+  /**
+   * PackingSolver constructor : Create a solver using all the processors.
+   *
+   * @param catalog The catalog of the patches to place.
+   */
+  public PackingSolver(PatchCatalog catalog) {
+    this(catalog, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Check if some of the given patches can be placed on the board so that a 7x7
+   * square is full.
+   *
+   * @param quiltBoard The quilt board, not changed.
+   * @param patches    The ids of the patches in the catalog.
+   * @return true if a 7x7 square can be completed.
+   */
+  public boolean canComplete7x7(QuiltBoard quiltBoard, int... patches) {
+    return complete7x7(quiltBoard, patches) != null;
+  }
+
+  /**
+   * Search placements of some of the given patches that fill a 7x7 square of
+   * the board.
+   *
+   * @param quiltBoard The quilt board, not changed.
+   * @param patches    The ids of the patches in the catalog.
+   * @return The placements completing a square, or null if no square can be
+   *         completed.
+   */
+  public Packing complete7x7(QuiltBoard quiltBoard, int... patches) {
+    checkArguments(quiltBoard, patches);
+    var totalArea = 0;
+    for (var patch : patches)
+      totalArea += catalog.area(patch);
+    var witness = new AtomicReference<Packing>();
+    var tasks = new ArrayList<Callable<Void>>();
+    for (var firstLine = 0; firstLine <= GRID_SIZE - SQUARE_SIZE; firstLine++) {
+      for (var firstColumn = 0; firstColumn <= GRID_SIZE - SQUARE_SIZE; firstColumn++) {
+        var region = new boolean[SPACES];
+        var empty = 0;
+        for (var line = firstLine; line < firstLine + SQUARE_SIZE; line++) {
+          for (var column = firstColumn; column < firstColumn + SQUARE_SIZE; column++) {
+            region[line * GRID_SIZE + column] = isEmpty(quiltBoard, line * GRID_SIZE + column);
+            empty += region[line * GRID_SIZE + column] ? 1 : 0;
+          }
+        }
+        if (empty == 0)
+          return new Packing(0, List.of());
+        if (empty > totalArea)
+          continue;
+        var matrix = matrix(quiltBoard, patches, region, true, totalArea);
+        var header = matrix.smallestColumn();
+        for (var index = 0; index < matrix.size[header]; index++) {
+          var first = index;
+          tasks.add(() -> {
+            var copy = new Matrix(matrix);
+            var chosen = new int[patches.length];
+            copy.cover(header);
+            chosen[0] = copy.rowNode(header, first);
+            copy.select(chosen[0]);
+            exactCover(copy, chosen, 1, witness);
+            return null;
+          });
+        }
+      }
+    }
+    run(tasks);
+    return witness.get();
+  }
+
+  /**
+   * Search the placements of some of the given patches that cover the most
+   * empty spaces of the board. The search is exponential in the number of
+   * patches, it is meant for the few patches a player can still buy.
+   *
+   * @param quiltBoard The quilt board, not changed.
+   * @param patches    The ids of the patches in the catalog.
+   * @return The placements covering the most empty spaces.
+   */
+  public Packing maxCoverage(QuiltBoard quiltBoard, int... patches) {
+    checkArguments(quiltBoard, patches);
+    var totalArea = 0;
+    for (var patch : patches)
+      totalArea += catalog.area(patch);
+    var region = new boolean[SPACES];
+    var empty = quiltBoard.numberOfEmptySpace();
+    for (var space = 0; space < SPACES; space++)
+      region[space] = isEmpty(quiltBoard, space);
+    // The spaces may stay empty, so the patches are the primary columns and a
+    // patch is either placed or left out
+    var matrix = matrix(quiltBoard, patches, region, false, totalArea);
+    var header = matrix.smallestColumn();
+    if (header == 0)
+      return new Packing(0, List.of());
+    var best = new AtomicInteger();
+    var tasks = new ArrayList<Callable<Packing>>();
+    // Each row of the first patch is a task, the last task leaves it out
+    for (var index = 0; index <= matrix.size[header]; index++) {
+      var first = index;
+      var leftOut = index == matrix.size[header];
+      tasks.add(() -> {
+        var copy = new Matrix(matrix);
+        var chosen = new int[patches.length];
+        var result = new AtomicReference<>(new Packing(0, List.of()));
+        copy.cover(header);
+        if (leftOut) {
+          maxCover(copy, chosen, 0, 0, empty, best, result);
+        } else {
+          chosen[0] = copy.rowNode(header, first);
+          copy.select(chosen[0]);
+          maxCover(copy, chosen, 1, copy.areas[copy.row[chosen[0]]], empty, best, result);
+        }
+        return result.get();
+      });
+    }
+    var result = new Packing(0, List.of());
+    for (var packing : run(tasks)) {
+      if (packing.coverage() > result.coverage())
+        result = packing;
+    }
+    return result;
+  }
+
+  /**
+   * Check the arguments of a search.
+   *
+   * @param quiltBoard The quilt board.
+   * @param patches    The ids of the patches in the catalog.
+   */
+  private void checkArguments(QuiltBoard quiltBoard, int[] patches) {
+    Objects.requireNonNull(quiltBoard);
+    Objects.requireNonNull(patches);
+    for (var patch : patches) {
+      if (patch < 0 || patch >= catalog.size())
+        throw new IllegalArgumentException("patch " + patch + " not in the catalog");
+    }
+  }
+
+  /**
+   * Check if a space of the board is empty.
+   *
+   * @param quiltBoard The quilt board.
+   * @param space      The space (line * 9 + column).
+   * @return true if the space is empty.
+   */
+  private static boolean isEmpty(QuiltBoard quiltBoard, int space) {
+    return (space < 64) ? quiltBoard.isFreeArea(1L << space, 0) : quiltBoard.isFreeArea(0, 1L << (space - 64));
+  }
+
+  /**
+   * Build the matrix of the placements of the patches crossing a region : a
+   * column for each space and for each patch.
+   *
+   * @param quiltBoard The quilt board.
+   * @param patches    The ids of the patches in the catalog.
+   * @param region     If each space is empty and in the region.
+   * @param cover      If the spaces of the region are the primary columns, the
+   *                   patches being primary otherwise.
+   * @param totalArea  The number of spaces of all the patches.
+   * @return The matrix.
+   */
+  private Matrix matrix(QuiltBoard quiltBoard, int[] patches, boolean[] region, boolean cover, int totalArea) {
+    var table = catalog.placementTable();
+    var primary = new boolean[SPACES + patches.length];
+    if (cover)
+      System.arraycopy(region, 0, primary, 0, SPACES);
+    else
+      Arrays.fill(primary, SPACES, primary.length, true);
+    var rowColumns = new ArrayList<int[]>();
+    var placements = new ArrayList<Placement>();
+    var areas = new ArrayList<Integer>();
+    for (var index = 0; index < patches.length; index++) {
+      var patch = patches[index];
+      for (var k = 0; k < catalog.orientationCount(patch); k++) {
+        var orientation = catalog.placementOrientation(patch, k);
+        for (var anchor = table.nextLegalAnchor(quiltBoard, orientation, 0); anchor >= 0; anchor = table
+            .nextLegalAnchor(quiltBoard, orientation, anchor + 1)) {
+          var low = table.lowMask(orientation, anchor);
+          var high = table.highMask(orientation, anchor);
+          var columns = new int[Long.bitCount(low) + Long.bitCount(high) + 1];
+          var count = 0;
+          var crossesRegion = false;
+          for (var space = 0; space < SPACES; space++) {
+            var covered = (space < 64) ? (low & (1L << space)) != 0 : (high & (1L << (space - 64))) != 0;
+            if (covered) {
+              columns[count++] = space + 1;
+              crossesRegion |= region[space];
+            }
+          }
+          if (!crossesRegion)
+            continue;
+          columns[count] = SPACES + index + 1;
+          rowColumns.add(columns);
+          placements.add(new Placement(patch, orientation, table.anchor(orientation, anchor)));
+          areas.add(catalog.area(patch));
+        }
+      }
+    }
+    return new Matrix(primary, rowColumns, placements, areas, totalArea);
+  }
+
+  /**
+   * Search rows covering every primary column exactly once, Algorithm X.
+   *
+   * @param matrix  The matrix.
+   * @param chosen  A node of each chosen row.
+   * @param count   The number of chosen rows.
+   * @param witness The first solution found by any worker.
+   * @return true if a solution has been found.
+   */
+  private static boolean exactCover(Matrix matrix, int[] chosen, int count, AtomicReference<Packing> witness) {
+    if (witness.get() != null)
+      return false;
+    var header = matrix.smallestColumn();
+    if (header == 0) {
+      var coverage = 0;
+      for (var i = 0; i < count; i++)
+        coverage += matrix.areas[matrix.row[chosen[i]]];
+      witness.compareAndSet(null, matrix.packing(chosen, count, coverage));
+      return true;
+    }
+    if (matrix.size[header] == 0 || matrix.remainingArea < matrix.primaryLeft)
+      return false;
+    matrix.cover(header);
+    for (var node = matrix.down[header]; node != header; node = matrix.down[node]) {
+      chosen[count] = node;
+      matrix.select(node);
+      var found = exactCover(matrix, chosen, count + 1, witness);
+      matrix.unselect(node);
+      if (found)
+        break;
+    }
+    matrix.uncover(header);
+    return witness.get() != null;
+  }
+
+  /**
+   * Search the rows covering the most spaces, each patch being either placed by
+   * a row or left out.
+   *
+   * @param matrix   The matrix whose primary columns are the patches.
+   * @param chosen   A node of each chosen row.
+   * @param count    The number of chosen rows.
+   * @param coverage The number of spaces covered by the chosen rows.
+   * @param empty    The number of empty spaces of the board.
+   * @param best     The best coverage found by any worker.
+   * @param result   The best packing found by this worker.
+   */
+  private static void maxCover(Matrix matrix, int[] chosen, int count, int coverage, int empty, AtomicInteger best,
+      AtomicReference<Packing> result) {
+    if (coverage > result.get().coverage()) {
+      result.set(matrix.packing(chosen, count, coverage));
+      best.accumulateAndGet(coverage, Math::max);
+    }
+    // Only the patches that still fit somewhere can add spaces, and a better
+    // packing has to cover more spaces than all the workers found
+    var available = 0;
+    for (var header = matrix.right[0]; header != 0; header = matrix.right[header]) {
+      if (matrix.size[header] > 0)
+        available += matrix.areas[matrix.row[matrix.down[header]]];
+    }
+    if (coverage + Math.min(available, empty - coverage) <= best.get())
+      return;
+    var header = matrix.smallestColumn();
+    matrix.cover(header);
+    for (var node = matrix.down[header]; node != header; node = matrix.down[node]) {
+      chosen[count] = node;
+      matrix.select(node);
+      maxCover(matrix, chosen, count + 1, coverage + matrix.areas[matrix.row[node]], empty, best, result);
+      matrix.unselect(node);
+    }
+    maxCover(matrix, chosen, count, coverage, empty, best, result);
+    matrix.uncover(header);
+  }
+
+  /**
+   * Shut down the pool of the solver, which can not search anymore.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * Run the tasks on the workers and wait for all of them.
+   *
+   * @param <T>   The type of the results.
+   * @param tasks The tasks.
+   * @return The results of the tasks.
+   */
+  private <T> List<T> run(List<Callable<T>> tasks) {
+    var results = new ArrayList<T>(tasks.size());
+    try {
+      for (var future : pool.invokeAll(tasks))
+        results.add(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("search interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("search failed", e.getCause());
+    }
+    return results;
+  }
+}
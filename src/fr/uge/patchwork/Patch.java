@@ -16,11 +16,12 @@ import java.util.Objects;
  * @param width  Width of the patch
  * @param height Height of the patch
  * @param image Image of the patch
+ * @param orientations The distinct orientations of the patch
  * 
  * @author BERNIER Valentin
  * @author VILAYVANH Mickael
  */
-public record Patch(int id, boolean[][] shape, int cost, int time, int income, int width, int height, BufferedImage image) {
+public record Patch(int id, boolean[][] shape, int cost, int time, int income, int width, int height, BufferedImage image, PatchOrientations orientations) {
   /**
    * Patch constructor : Create a new patch with the given arguments
    * 
@@ -32,6 +33,7 @@ public record Patch(int id, boolean[][] shape, int cost, int time, int income, i
    * @param width  Width of the patch
    * @param height Height of the patch
    * @param image Image of the patch
+   * @param orientations The distinct orientations of the patch
    */
   public Patch {
     if (id < 0)
@@ -51,6 +53,7 @@ public record Patch(int id, boolean[][] shape, int cost, int time, int income, i
       throw new IllegalArgumentException("width incorect");
     if (height <= 0 || height > 5)
       throw new IllegalArgumentException("height incorect");
+    Objects.requireNonNull(orientations, "orientations is null");
   }
 
   /**
@@ -74,16 +77,44 @@ public record Patch(int id, boolean[][] shape, int cost, int time, int income, i
     int width = Integer.parseInt(values[4]);
     int height = Integer.parseInt(values[5]);
     // Initialize the shape with the 5 next lines
-    boolean[][] shape = new boolean[5][5];
+    int shapeMask = 0;
     for (int i = 1; i < 6; i++) {
       for (int j = 0; j < 5; j++) {
-        shape[i - 1][j] = (shapeText[i].charAt(j) == '1');
+        if (shapeText[i].charAt(j) == '1')
+          shapeMask |= 1 << ((i - 1) * 5 + j);
+      }
+    }
+    return createPatch(id, shapeMask, cost, time, income, width, height, gameMode);
+  }
+
+  /**
+   * Static method that create a patch from its values, for example read from a
+   * compiled catalog.
+   * 
+   * @param id        Id of the patch (useful for graphic display)
+   * @param shapeMask The shape of the patch as a 25-bit integer, the bit line *
+   *                  5 + column being set when the square is a part of the
+   *                  patch
+   * @param cost      The cost of the patch in buttons
+   * @param time      The cost of the patch in time
+   * @param income    The income of the patch in buttons
+   * @param width     Width of the patch
+   * @param height    Height of the patch
+   * @param gameMode  game mode
+   * @return The new created patch
+   */
+  public static Patch createPatch(int id, int shapeMask, int cost, int time, int income, int width, int height,
+      int gameMode) {
+    boolean[][] shape = new boolean[5][5];
+    for (int line = 0; line < 5; line++) {
+      for (int column = 0; column < 5; column++) {
+        shape[line][column] = (shapeMask & (1 << (line * 5 + column))) != 0;
       }
     }
     if (gameMode == 3)
-      return new Patch(id, shape, cost, time, income, width, height, UserInterfaceGraphic.loadImage("patches/" + id));
+      return PatchOrientations.of(id, shape, cost, time, income, width, height, UserInterfaceGraphic.loadImage("patches/" + id));
     else
-      return new Patch(id, shape, cost, time, income, width, height, null);
+      return PatchOrientations.of(id, shape, cost, time, income, width, height, null);
   }
 
   /**
@@ -162,6 +193,23 @@ public record Patch(int id, boolean[][] shape, int cost, int time, int income, i
     return spacesArea;
   }
 
+  /**
+   * Give the shape of the patch as a 25-bit integer, the bit line * 5 + column
+   * being set when the square is a part of the patch.
+   * 
+   * @return The shape of the patch as a 25-bit integer
+   */
+  public int shapeMask() {
+    int mask = 0;
+    for (int line = 0; line < 5; line++) {
+      for (int column = 0; column < 5; column++) {
+        if (shape[line][column])
+          mask |= 1 << (line * 5 + column);
+      }
+    }
+    return mask;
+  }
+
   /**
    * Rotate the patch image 90 degrees clockwise
    * 
@@ -179,11 +227,26 @@ public record Patch(int id, boolean[][] shape, int cost, int time, int income, i
   }
   
   /**
-   * Rotate the patch 90 degrees clockwise
+   * Mirror the patch image horizontally
+   * 
+   * @return The new mirrored patch image
+   */
+  private BufferedImage flipPatchImage() {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    var resImage = new BufferedImage(width, height, image.getType());
+    var graphics = resImage.createGraphics();
+    graphics.drawImage(image, width, 0, -width, height, null);
+    return resImage;
+  }
+
+  /**
+   * Create a copy of the patch rotated 90 degrees clockwise, only used to
+   * compute the orientations of the patch.
    * 
    * @return The new rotated patch
    */
-  public Patch rotate() {
+  Patch rotatedCopy() {
     boolean[][] newShape = new boolean[5][5];
 
     for (int i = 0; i < 5; i++) {
@@ -194,9 +257,50 @@ public record Patch(int id, boolean[][] shape, int cost, int time, int income, i
     }
     
     if (Objects.nonNull(image))
-      return new Patch(id, newShape, cost, time, income, height, width, rotatePatchImage());
+      return new Patch(id, newShape, cost, time, income, height, width, rotatePatchImage(), orientations);
+
+    return new Patch(id, newShape, cost, time, income, height, width, image, orientations);
+  }
 
-    return new Patch(id, newShape, cost, time, income, height, width, image);
+  /**
+   * Create a copy of the patch mirrored horizontally, only used to compute the
+   * orientations of the patch.
+   * 
+   * @return The new mirrored patch
+   */
+  Patch flippedCopy() {
+    boolean[][] newShape = new boolean[5][5];
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        newShape[i][width - 1 - j] = shape[i][j];
+      }
+    }
+
+    if (Objects.nonNull(image))
+      return new Patch(id, newShape, cost, time, income, width, height, flipPatchImage(), orientations);
+
+    return new Patch(id, newShape, cost, time, income, width, height, image, orientations);
+  }
+
+  /**
+   * Rotate the patch 90 degrees clockwise. The rotations are computed once when
+   * the patch is created, so the returned patch is always the same instance.
+   * 
+   * @return The rotated patch
+   */
+  public Patch rotate() {
+    return orientations.rotate(this);
+  }
+
+  /**
+   * Mirror the patch horizontally. The mirrored patches are computed once when
+   * the patch is created, so the returned patch is always the same instance.
+   * 
+   * @return The mirrored patch
+   */
+  public Patch flip() {
+    return orientations.flip(this);
   }
   
   /**
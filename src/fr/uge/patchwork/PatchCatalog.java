@@ -0,0 +1,258 @@
+package fr.uge.patchwork;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable catalog of the patches loaded from a data file. A patch is
+ * referred by a small id (its position in the data file) and its data are
+ * stored in parallel arrays of primitives, so that search code can read them
+ * without going through the patch records.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class PatchCatalog {
+  /**
+   * The patches, kept for the user interfaces.
+   */
+  private final Patch[] patches;
+  /**
+   * The cost in buttons of each patch.
+   */
+  private final int[] costs;
+  /**
+   * The cost in time of each patch.
+   */
+  private final int[] times;
+  /**
+   * The income in buttons of each patch.
+   */
+  private final int[] incomes;
+  /**
+   * The width of each patch as described in the data file.
+   */
+  private final int[] widths;
+  /**
+   * The height of each patch as described in the data file.
+   */
+  private final int[] heights;
+  /**
+   * The number of spaces covered by each patch.
+   */
+  private final int[] areas;
+  /**
+   * The income in buttons of each patch for each space of time it costs.
+   */
+  private final double[] buttonsPerTime;
+  /**
+   * The index in shapes of the first orientation of each patch, the
+   * orientations of the patch id being between orientationStarts[id] and
+   * orientationStarts[id + 1].
+   */
+  private final int[] orientationStarts;
+  /**
+   * The 25-bit shape of every orientation of every patch.
+   */
+  private final int[] shapes;
+  /**
+   * The index in the placement table of every orientation of every patch.
+   */
+  private final int[] placementOrientations;
+  /**
+   * The placements of every orientation of the patches.
+   */
+  private final PlacementTable placementTable;
+
+  /**
+   * PatchCatalog constructor : Create the catalog of the given patches, the id
+   * of a patch being its index in the list.
+   *
+   * @param patches The patches in the order of the data file.
+   */
+  public PatchCatalog(List<Patch> patches) {
+    Objects.requireNonNull(patches);
+    var size = patches.size();
+    this.patches = new Patch[size];
+    costs = new int[size];
+    times = new int[size];
+    incomes = new int[size];
+    widths = new int[size];
+    heights = new int[size];
+    areas = new int[size];
+    buttonsPerTime = new double[size];
+    orientationStarts = new int[size + 1];
+    placementTable = new PlacementTable(patches);
+    var orientationCount = 0;
+    for (var id = 0; id < size; id++) {
+      var patch = Objects.requireNonNull(patches.get(id), "patches contains null");
+      orientationStarts[id] = orientationCount;
+      orientationCount += patch.orientations().size();
+    }
+    orientationStarts[size] = orientationCount;
+    shapes = new int[orientationCount];
+    placementOrientations = new int[orientationCount];
+    for (var id = 0; id < size; id++) {
+      var patch = patches.get(id);
+      this.patches[id] = patch;
+      costs[id] = patch.cost();
+      times[id] = patch.time();
+      incomes[id] = patch.income();
+      widths[id] = patch.width();
+      heights[id] = patch.height();
+      areas[id] = Integer.bitCount(patch.shapeMask());
+      buttonsPerTime[id] = (patch.time() == 0) ? patch.income() : (double) patch.income() / patch.time();
+      for (var k = 0; k < patch.orientations().size(); k++) {
+        var orientation = patch.orientations().get(k);
+        shapes[orientationStarts[id] + k] = orientation.shapeMask();
+        placementOrientations[orientationStarts[id] + k] = placementTable.orientationOf(orientation);
+      }
+    }
+  }
+
+  /**
+   * Give the number of patches in the catalog.
+   *
+   * @return The number of patches.
+   */
+  public int size() {
+    return patches.length;
+  }
+
+  /**
+   * Give the id of a patch of the catalog, in any orientation.
+   *
+   * @param patch The patch.
+   * @return The id of the patch or -1 if it is not in the catalog.
+   */
+  public int idOf(Patch patch) {
+    Objects.requireNonNull(patch);
+    for (var id = 0; id < patches.length; id++) {
+      if (patches[id].orientations() == patch.orientations())
+        return id;
+    }
+    return -1;
+  }
+
+  /**
+   * Give the patch of an id, in the orientation of the data file.
+   *
+   * @param id The id of the patch.
+   * @return The patch.
+   */
+  public Patch patch(int id) {
+    return patches[id];
+  }
+
+  /**
+   * Give the cost in buttons of a patch.
+   *
+   * @param id The id of the patch.
+   * @return The cost in buttons.
+   */
+  public int cost(int id) {
+    return costs[id];
+  }
+
+  /**
+   * Give the cost in time of a patch.
+   *
+   * @param id The id of the patch.
+   * @return The cost in time.
+   */
+  public int time(int id) {
+    return times[id];
+  }
+
+  /**
+   * Give the income in buttons of a patch.
+   *
+   * @param id The id of the patch.
+   * @return The income in buttons.
+   */
+  public int income(int id) {
+    return incomes[id];
+  }
+
+  /**
+   * Give the width of a patch as described in the data file.
+   *
+   * @param id The id of the patch.
+   * @return The width.
+   */
+  public int width(int id) {
+    return widths[id];
+  }
+
+  /**
+   * Give the height of a patch as described in the data file.
+   *
+   * @param id The id of the patch.
+   * @return The height.
+   */
+  public int height(int id) {
+    return heights[id];
+  }
+
+  /**
+   * Give the number of spaces covered by a patch.
+   *
+   * @param id The id of the patch.
+   * @return The area of the patch.
+   */
+  public int area(int id) {
+    return areas[id];
+  }
+
+  /**
+   * Give the income in buttons of a patch for each space of time it costs.
+   *
+   * @param id The id of the patch.
+   * @return The income divided by the time cost.
+   */
+  public double buttonsPerTime(int id) {
+    return buttonsPerTime[id];
+  }
+
+  /**
+   * Give the number of distinct orientations of a patch.
+   *
+   * @param id The id of the patch.
+   * @return The number of orientations (1 to 8).
+   */
+  public int orientationCount(int id) {
+    return orientationStarts[id + 1] - orientationStarts[id];
+  }
+
+  /**
+   * Give the 25-bit shape of an orientation of a patch (bit line * 5 + column).
+   *
+   * @param id          The id of the patch.
+   * @param orientation The index of the orientation, the orientation 0 being
+   *                    the one of the data file.
+   * @return The shape.
+   */
+  public int shape(int id, int orientation) {
+    return shapes[orientationStarts[id] + orientation];
+  }
+
+  /**
+   * Give the index in the placement table of an orientation of a patch.
+   *
+   * @param id          The id of the patch.
+   * @param orientation The index of the orientation.
+   * @return The orientation index in the placement table.
+   */
+  public int placementOrientation(int id, int orientation) {
+    return placementOrientations[orientationStarts[id] + orientation];
+  }
+
+  /**
+   * Give the placements of every orientation of the patches.
+   *
+   * @return The placement table.
+   */
+  public PlacementTable placementTable() {
+    return placementTable;
+  }
+}
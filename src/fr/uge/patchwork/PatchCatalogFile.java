@@ -0,0 +1,141 @@
+package fr.uge.patchwork;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compiled binary format of a patches file, read through a memory-mapped file
+ * without parsing any text. The compiled file of a patches file is next to it
+ * with the extension {@code .bin}, and is used only while it is not older than
+ * the patches file.
+ *
+ * The file is, every number being big-endian : int {@link #MAGIC}, int
+ * {@link #VERSION}, int number of patches, then for each patch in the order of
+ * the patches file int id, byte cost, byte time, byte income, byte width, byte
+ * height and int shape (bit line * 5 + column).
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class PatchCatalogFile {
+  /**
+   * First int of a compiled file.
+   */
+  public static final int MAGIC = 0x50574350;
+  /**
+   * Version of the format.
+   */
+  public static final int VERSION = 1;
+  /**
+   * Size in bytes of the header.
+   */
+  private static final int HEADER_SIZE = 12;
+  /**
+   * Size in bytes of a patch.
+   */
+  private static final int RECORD_SIZE = 13;
+
+  /**
+   * PatchCatalogFile constructor : No instance, only static methods.
+   */
+  private PatchCatalogFile() {
+  }
+
+  /**
+   * Give the path of the compiled file of a patches file.
+   *
+   * @param path The path of the patches file.
+   * @return The path with the extension {@code .bin}.
+   */
+  public static Path compiledPath(Path path) {
+    Objects.requireNonNull(path);
+    var name = path.getFileName().toString();
+    var dot = name.lastIndexOf('.');
+    return path.resolveSibling(((dot < 0) ? name : name.substring(0, dot)) + ".bin");
+  }
+
+  /**
+   * Check if the compiled file of a patches file can be used : it exists and
+   * is not older than the patches file, if the patches file exists.
+   *
+   * @param path The path of the patches file.
+   * @return true if the compiled file can be used.
+   */
+  public static boolean hasCompiled(Path path) {
+    Objects.requireNonNull(path);
+    var compiled = compiledPath(path);
+    try {
+      return Files.isRegularFile(compiled) && (!Files.exists(path)
+          || Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(path)) >= 0);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Compile a patches file.
+   *
+   * @param path   The path of the patches file.
+   * @param output The path of the compiled file.
+   * @throws IOException If the patches file can not be read or the compiled
+   *                     file can not be written.
+   */
+  public static void compile(Path path, Path output) throws IOException {
+    Objects.requireNonNull(path);
+    Objects.requireNonNull(output);
+    var patches = new ArrayList<Patch>();
+    PatchesList.readText(path, 1, patches);
+    var buffer = ByteBuffer.allocate(HEADER_SIZE + patches.size() * RECORD_SIZE).putInt(MAGIC).putInt(VERSION)
+        .putInt(patches.size());
+    for (var patch : patches) {
+      if (patch.cost() > 255 || patch.time() > 255 || patch.income() > 255)
+        throw new IOException("patch " + patch.id() + " can not be compiled");
+      buffer.putInt(patch.id()).put((byte) patch.cost()).put((byte) patch.time()).put((byte) patch.income())
+          .put((byte) patch.width()).put((byte) patch.height()).putInt(patch.shapeMask());
+    }
+    Files.write(output, buffer.array());
+  }
+
+  /**
+   * Read the patches of a compiled file.
+   *
+   * @param path     The path of the compiled file.
+   * @param gameMode game mode
+   * @param patches  The list the patches are added to.
+   * @throws IOException If the file can not be read or is not a valid compiled
+   *                     file.
+   */
+  public static void read(Path path, int gameMode, List<Patch> patches) throws IOException {
+    Objects.requireNonNull(path);
+    Objects.requireNonNull(patches);
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var size = channel.size();
+      if (size < HEADER_SIZE)
+        throw new IOException("compiled file too short");
+      var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+        throw new IOException("not a compiled file of version " + VERSION);
+      var count = buffer.getInt(8);
+      if (count < 0 || size != HEADER_SIZE + (long) count * RECORD_SIZE)
+        throw new IOException("compiled file of the wrong size");
+      for (var i = 0; i < count; i++) {
+        var offset = HEADER_SIZE + i * RECORD_SIZE;
+        try {
+          patches.add(Patch.createPatch(buffer.getInt(offset), buffer.getInt(offset + 9),
+              Byte.toUnsignedInt(buffer.get(offset + 4)), Byte.toUnsignedInt(buffer.get(offset + 5)),
+              Byte.toUnsignedInt(buffer.get(offset + 6)), Byte.toUnsignedInt(buffer.get(offset + 7)),
+              Byte.toUnsignedInt(buffer.get(offset + 8)), gameMode));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("patch " + i + " not valid", e);
+        }
+      }
+    }
+  }
+}
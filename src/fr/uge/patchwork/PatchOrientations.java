@@ -0,0 +1,144 @@
+package fr.uge.patchwork;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * The distinct orientations of a patch : its rotations and the rotations of its
+ * mirror, computed once when the patch is created. Orientations that have the
+ * same shape (a square, a line...) are only stored once, so rotating or
+ * flipping a patch never allocates a new patch or a new image.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class PatchOrientations {
+  /**
+   * The distinct orientations, the first one being the patch as described in
+   * the data file.
+   */
+  private Patch[] patches;
+  /**
+   * For each orientation, the index of the orientation rotated 90 degrees
+   * clockwise.
+   */
+  private int[] rotated;
+  /**
+   * For each orientation, the index of the orientation mirrored horizontally.
+   */
+  private int[] flipped;
+
+  /**
+   * PatchOrientations constructor : Create an empty set, filled by
+   * {@link #of(int, boolean[][], int, int, int, int, int, BufferedImage)}.
+   */
+  private PatchOrientations() {
+  }
+
+  /**
+   * Create a patch and all its distinct orientations.
+   *
+   * @param id     Id of the patch (useful for graphic display)
+   * @param shape  The shape of the patch represented by a 5x5 array of booleans
+   * @param cost   The cost of the patch in buttons
+   * @param time   The cost of the patch in time
+   * @param income The income of the patch in buttons
+   * @param width  Width of the patch
+   * @param height Height of the patch
+   * @param image  Image of the patch
+   * @return The patch in the orientation described by shape
+   */
+  static Patch of(int id, boolean[][] shape, int cost, int time, int income, int width, int height,
+      BufferedImage image) {
+    var orientations = new PatchOrientations();
+    var found = new ArrayList<Patch>();
+    var current = new Patch(id, shape, cost, time, income, width, height, image, orientations);
+    for (var flip = 0; flip < 2; flip++) {
+      for (var rotation = 0; rotation < 4; rotation++) {
+        if (indexOfShape(found, current.shapeMask()) < 0)
+          found.add(current);
+        current = current.rotatedCopy();
+      }
+      current = current.flippedCopy();
+    }
+    orientations.patches = found.toArray(new Patch[0]);
+    orientations.rotated = new int[found.size()];
+    orientations.flipped = new int[found.size()];
+    for (var i = 0; i < found.size(); i++) {
+      var shapeMask = found.get(i).shapeMask();
+      orientations.rotated[i] = indexOfShape(found, PlacementTable.rotateShape(shapeMask));
+      orientations.flipped[i] = indexOfShape(found, PlacementTable.flipShape(shapeMask));
+    }
+    return orientations.patches[0];
+  }
+
+  /**
+   * Search the orientation with the given shape.
+   *
+   * @param patches   The orientations.
+   * @param shapeMask The 25-bit shape to search.
+   * @return The index of the orientation or -1 if not found.
+   */
+  private static int indexOfShape(ArrayList<Patch> patches, int shapeMask) {
+    for (var i = 0; i < patches.size(); i++) {
+      if (patches.get(i).shapeMask() == shapeMask)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Give the index of an orientation.
+   *
+   * @param patch One of the orientations.
+   * @return The index of the orientation.
+   */
+  private int indexOf(Patch patch) {
+    Objects.requireNonNull(patch);
+    for (var i = 0; i < patches.length; i++) {
+      if (patches[i] == patch)
+        return i;
+    }
+    throw new IllegalArgumentException("patch is not one of the orientations");
+  }
+
+  /**
+   * Give the number of distinct orientations.
+   *
+   * @return The number of distinct orientations (1 to 8).
+   */
+  public int size() {
+    return patches.length;
+  }
+
+  /**
+   * Give an orientation.
+   *
+   * @param index The index of the orientation.
+   * @return The patch in this orientation.
+   */
+  public Patch get(int index) {
+    return patches[index];
+  }
+
+  /**
+   * Give the orientation rotated 90 degrees clockwise.
+   *
+   * @param patch One of the orientations.
+   * @return The rotated orientation.
+   */
+  Patch rotate(Patch patch) {
+    return patches[rotated[indexOf(patch)]];
+  }
+
+  /**
+   * Give the orientation mirrored horizontally.
+   *
+   * @param patch One of the orientations.
+   * @return The mirrored orientation.
+   */
+  Patch flip(Patch patch) {
+    return patches[flipped[indexOf(patch)]];
+  }
+}
@@ -9,8 +9,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * Representation of a list of patches
@@ -20,13 +23,60 @@ import java.util.Objects;
  */
 public class PatchesList {
   /**
-   * An ArrayList that represents all the Patches of the game.
+   * An ArrayList that represents all the Patches of the game, a patch keeps its
+   * position even when it is taken.
    */
   private final ArrayList<Patch> patchesList;
   /**
    * An int that represents the position of the neutral token.
    */
   private int neutralTokenPosition;
+  /**
+   * The catalog of the loaded patches, computed once when the patches are
+   * loaded.
+   */
+  private PatchCatalog catalog;
+  /**
+   * The catalog id of the patch at each position.
+   */
+  private int[] patchesIds;
+  /**
+   * If the patch at each position has been taken.
+   */
+  private boolean[] taken;
+  /**
+   * The circular index of the patches not taken yet : the position of the next
+   * patch not taken after each position.
+   */
+  private int[] nextPositions;
+  /**
+   * The circular index of the patches not taken yet : the position of the
+   * previous patch not taken before each position.
+   */
+  private int[] previousPositions;
+  /**
+   * The position of the first patch not taken after the neutral token, -1 if
+   * all the patches have been taken.
+   */
+  private int firstPosition;
+  /**
+   * The number of patches not taken yet.
+   */
+  private int remaining;
+  /**
+   * The taken patches, with the neutral token and the first position before
+   * each take, used to undo the takes in reverse order.
+   */
+  private int[] history;
+  /**
+   * The number of values in history.
+   */
+  private int historySize;
+  /**
+   * The Zobrist hash of the taken patches and of the neutral token, updated
+   * each time a patch is taken or put back.
+   */
+  private long hash;
 
   /**
    * PatchesList constructor : Create an empty patchesList with the
@@ -35,10 +85,37 @@ public class PatchesList {
   public PatchesList() {
     patchesList = new ArrayList<>();
     neutralTokenPosition = 0;
+    catalog = new PatchCatalog(patchesList);
+    history = new int[3 * 8];
+    resetIndex();
+  }
+
+  /**
+   * PatchesList constructor : Create a copy of a patchesList, that can be
+   * changed without changing the original. The patches and the catalog are
+   * immutable and shared.
+   * 
+   * @param patchesList The patchesList to copy.
+   */
+  PatchesList(PatchesList patchesList) {
+    Objects.requireNonNull(patchesList);
+    this.patchesList = new ArrayList<>(patchesList.patchesList);
+    neutralTokenPosition = patchesList.neutralTokenPosition;
+    catalog = patchesList.catalog;
+    patchesIds = patchesList.patchesIds.clone();
+    taken = patchesList.taken.clone();
+    nextPositions = patchesList.nextPositions.clone();
+    previousPositions = patchesList.previousPositions.clone();
+    firstPosition = patchesList.firstPosition;
+    remaining = patchesList.remaining;
+    history = patchesList.history.clone();
+    historySize = patchesList.historySize;
+    hash = patchesList.hash;
   }
 
   /**
-   * Load the patchesList from the UTF8 file located at the Path path.
+   * Load the patchesList from the UTF8 file located at the Path path, or from
+   * its compiled file if it is up to date (see {@link PatchCatalogFile}).
    * 
    * @param path Path of the file to read
    * @param gameMode game mode
@@ -46,6 +123,27 @@ public class PatchesList {
    */
   public void loadPatches(Path path, int gameMode) throws IOException {
     Objects.requireNonNull(path);
+    var patches = new ArrayList<Patch>();
+    if (PatchCatalogFile.hasCompiled(path))
+      PatchCatalogFile.read(PatchCatalogFile.compiledPath(path), gameMode, patches);
+    else
+      readText(path, gameMode, patches);
+    patchesList.addAll(patches);
+    catalog = new PatchCatalog(patchesList);
+    resetIndex();
+  }
+
+  /**
+   * Read the patches of the UTF8 file located at the Path path.
+   * 
+   * @param path     Path of the file to read
+   * @param gameMode game mode
+   * @param patches  The list the patches are added to.
+   * @throws IOException In case of file reading error
+   */
+  static void readText(Path path, int gameMode, List<Patch> patches) throws IOException {
+    Objects.requireNonNull(path);
+    Objects.requireNonNull(patches);
     try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
       // Initializing with the first line of the file
       var builder = new StringBuilder();
@@ -56,7 +154,7 @@ public class PatchesList {
         // A patch description is complete, creation of the patch in the List
         if (nbLine == 5) {
           nbLine = -1;
-          patchesList.add(Patch.createPatch(builder.toString(), gameMode));
+          patches.add(Patch.createPatch(builder.toString(), gameMode));
           builder = new StringBuilder();
         }
         // Next Line
@@ -67,6 +165,107 @@ public class PatchesList {
     }
   }
 
+  /**
+   * Reset the catalog id of the patch at each position and the circular index
+   * so that no patch is taken and the neutral token is at the position 0.
+   */
+  private void resetIndex() {
+    int size = patchesList.size();
+    patchesIds = new int[size];
+    taken = new boolean[size];
+    nextPositions = new int[size];
+    previousPositions = new int[size];
+    for (int i = 0; i < size; i++) {
+      patchesIds[i] = catalog.idOf(patchesList.get(i));
+      nextPositions[i] = (i + 1) % size;
+      previousPositions[i] = (i + size - 1) % size;
+    }
+    neutralTokenPosition = 0;
+    firstPosition = (size == 0) ? -1 : 0;
+    remaining = size;
+    historySize = 0;
+    hash = ZobristKeys.NEUTRAL_TOKEN[0];
+  }
+
+  /**
+   * Accessor for catalog.
+   * 
+   * @return The catalog of the loaded patches.
+   */
+  public PatchCatalog getCatalog() {
+    return catalog;
+  }
+
+  /**
+   * Accessor for the placement table of the catalog.
+   * 
+   * @return The placements of every orientation of the loaded patches.
+   */
+  public PlacementTable getPlacementTable() {
+    return catalog.placementTable();
+  }
+
+  /**
+   * Accessor for hash.
+   * 
+   * @return The Zobrist hash of the taken patches and of the neutral token.
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  /**
+   * Give the catalog id of the patch at the position.
+   * 
+   * @param position The position of the patch.
+   * @return The catalog id of the patch or -1 if it has been taken.
+   */
+  public int patchId(int position) {
+    if (position < 0 || position >= patchesIds.length)
+      throw new IllegalArgumentException("position not valid");
+    return taken[position] ? -1 : patchesIds[position];
+  }
+
+  /**
+   * Give the position of one of the three next patches after the neutral token.
+   * 
+   * @param rank 0 for the first patch after the neutral token, 1 for the second
+   *             and 2 for the third.
+   * @return The position of the patch or -1 if there is not enough patches left.
+   */
+  public int nextPosition(int rank) {
+    if (rank < 0 || rank > 2)
+      throw new IllegalArgumentException("rank not valid");
+    if (rank >= remaining)
+      return -1;
+    int position = firstPosition;
+    for (int i = 0; i < rank; i++)
+      position = nextPositions[position];
+    return position;
+  }
+
+  /**
+   * Give the position of the patch not taken that follows a patch not taken, so
+   * that all the patches left can be walked from {@code nextPosition(0)}.
+   * 
+   * @param position The position of a patch not taken.
+   * @return The position of the following patch not taken, in circle.
+   */
+  public int positionAfter(int position) {
+    if (position < 0 || position >= patchesIds.length || taken[position])
+      throw new IllegalArgumentException("position not valid");
+    return nextPositions[position];
+  }
+
+  /**
+   * Give the number of patches not taken yet.
+   * 
+   * @return The number of patches not taken yet.
+   */
+  public int remaining() {
+    return remaining;
+  }
+
   /**
    * Check if the Patch located at patchPosition is in one of the three next Patch
    * after the neutral token.
@@ -77,22 +276,14 @@ public class PatchesList {
   public boolean isInTheThreeNext(int patchPosition) {
     if (patchPosition < 0 || patchPosition >= patchesList.size())
       throw new IllegalArgumentException("patchPosition not valid");
-    boolean onePatchChecked = false;
-    boolean twoPatchesChecked = false;
-    int size = patchesList.size();
-    // Else, it has to check the three next patches without counting those which
-    // have already been taken
-    for (int i = 0; i < size; i++) {
-      if (Objects.nonNull(patchesList.get((i + neutralTokenPosition) % size))) { // There is a Patch at the i position
-        if (patchPosition == (i + neutralTokenPosition) % size) // Same position -> right place
-          return true;
-        else if (twoPatchesChecked) // 2 + 1 wrong patches -> continue searching
-          return false;
-        else if (onePatchChecked) // 1 + 1 wrong patches -> continue searching
-          twoPatchesChecked = true;
-        else // 0 + 1 wrong patches -> continue searching
-          onePatchChecked = true;
-      }
+    if (taken[patchPosition])
+      return false;
+    // The three next patches are directly following the first one in the index
+    int position = firstPosition;
+    for (int i = 0; i < 3 && i < remaining; i++) {
+      if (position == patchPosition)
+        return true;
+      position = nextPositions[position];
     }
     return false;
   }
@@ -107,7 +298,7 @@ public class PatchesList {
   private String toStringNeutralToken(int pos) {
     if (pos == neutralTokenPosition)
       return " > ";
-    if (Objects.nonNull(patchesList.get(pos)))
+    if (!taken[pos])
       return "   ";
     return "";
   }
@@ -123,7 +314,7 @@ public class PatchesList {
     // For each Patch, add to the builder its data (cost, time, income)
     for (int j = 0; j < patchesList.size(); j++) {
       builder.append(toStringNeutralToken(j));
-      if (Objects.nonNull(patchesList.get(j))) {
+      if (!taken[j]) {
         builder.append(String.format("%-2d", j));
         builder.append("   ");
         if (patchesList.get(j).costMoreThan10())
@@ -146,7 +337,7 @@ public class PatchesList {
     // For each Patch, add to the builder its data (cost, time, income)
     for (int j = 0; j < patchesList.size(); j++) {
       builder.append(toStringNeutralToken(j));
-      if (Objects.nonNull(patchesList.get(j))) {
+      if (!taken[j]) {
         builder.append(patchesList.get(j).toStringData());
       }
     }
@@ -168,7 +359,7 @@ public class PatchesList {
       builder.append("\n");
       for (int j = 0; j < patchesList.size(); j++) {
         builder.append(toStringNeutralToken(j));
-        if (Objects.nonNull(patchesList.get(j))) {
+        if (!taken[j]) {
           builder.append(patchesList.get(j).toStringLine(i, ' '));
         }
       }
@@ -194,7 +385,25 @@ public class PatchesList {
    * Shuffle patchesList.
    */
   public void shufflePatches() {
-    Collections.shuffle(patchesList);
+    shufflePatches(new SplittableRandom());
+  }
+
+  /**
+   * Put the patches back in the order of the data file and shuffle them with
+   * the random generator given in parameter, so that a seeded generator always
+   * gives the same order.
+   * 
+   * @param random The random generator.
+   */
+  public void shufflePatches(RandomGenerator random) {
+    Objects.requireNonNull(random);
+    patchesList.clear();
+    for (var id = 0; id < catalog.size(); id++)
+      patchesList.add(catalog.patch(id));
+    // Fisher-Yates shuffle, Collections.shuffle only accepts a java.util.Random
+    for (var i = patchesList.size() - 1; i > 0; i--)
+      patchesList.set(i, patchesList.set(random.nextInt(i + 1), patchesList.get(i)));
+    resetIndex();
   }
 
   /**
@@ -210,11 +419,48 @@ public class PatchesList {
     if (!isAValidPatch(position, player))
       throw new IllegalArgumentException("position not valid");
 
-    Patch takenPatch = patchesList.get(position);
-    patchesList.set(position, null);
+    if (historySize + 3 > history.length)
+      history = Arrays.copyOf(history, history.length * 2);
+    history[historySize++] = position;
+    history[historySize++] = neutralTokenPosition;
+    history[historySize++] = firstPosition;
+
+    // Removing the patch from the index, its own links are kept for the undo
+    nextPositions[previousPositions[position]] = nextPositions[position];
+    previousPositions[nextPositions[position]] = previousPositions[position];
+    taken[position] = true;
+    remaining--;
+    hash ^= ZobristKeys.TAKEN_PATCHES[position % ZobristKeys.VALUES]
+        ^ ZobristKeys.NEUTRAL_TOKEN[neutralTokenPosition % ZobristKeys.VALUES];
     neutralTokenPosition = (position + 1) % patchesList.size();
+    hash ^= ZobristKeys.NEUTRAL_TOKEN[neutralTokenPosition % ZobristKeys.VALUES];
+    firstPosition = (remaining == 0) ? -1 : nextPositions[position];
 
-    return takenPatch;
+    return patchesList.get(position);
+  }
+
+  /**
+   * Put back the last taken patch at its position and the neutral token where
+   * it was before the take.
+   * 
+   * @return The position of the patch put back.
+   */
+  public int undoTakePatch() {
+    if (historySize == 0)
+      throw new IllegalStateException("no patch taken");
+    firstPosition = history[--historySize];
+    hash ^= ZobristKeys.NEUTRAL_TOKEN[neutralTokenPosition % ZobristKeys.VALUES];
+    neutralTokenPosition = history[--historySize];
+    int position = history[--historySize];
+    hash ^= ZobristKeys.TAKEN_PATCHES[position % ZobristKeys.VALUES]
+        ^ ZobristKeys.NEUTRAL_TOKEN[neutralTokenPosition % ZobristKeys.VALUES];
+
+    // The links of the patch still point to its neighbours
+    nextPositions[previousPositions[position]] = position;
+    previousPositions[nextPositions[position]] = position;
+    taken[position] = false;
+    remaining++;
+    return position;
   }
 
   /**
@@ -227,7 +473,7 @@ public class PatchesList {
    */
   public boolean isAValidPatch(int position, Player player) {
     Objects.requireNonNull(player);
-    return position >= 0 && position < patchesList.size() && Objects.nonNull(patchesList.get(position))
+    return position >= 0 && position < patchesList.size() && !taken[position]
         && isInTheThreeNext(position) && player.hasEnoughButtons(patchesList.get(position).cost());
   }
 
@@ -237,11 +483,7 @@ public class PatchesList {
    * @return true if it is empty, false otherwise.
    */
   public boolean isEmpty() {
-    for (var patch : patchesList) {
-      if (Objects.nonNull(patch))
-        return false;
-    }
-    return true;
+    return remaining == 0;
   }
   
   /**
@@ -266,18 +508,14 @@ public class PatchesList {
     Objects.requireNonNull(graphics);
     displayNeutralToken(graphics);
     int x = 128;
-    int size = patchesList.size();
-    int n = 0;
-    for (int i = 0; i < size; i++) {
-      if (Objects.nonNull(patchesList.get((i + neutralTokenPosition) % size))) {
-        if (n < 10)
-          x += patchesList.get((i + neutralTokenPosition) % size).display(graphics, x, 668) + 32;
-        n++;
-      }
+    int position = firstPosition;
+    for (int n = 0; n < 10 && n < remaining; n++) {
+      x += patchesList.get(position).display(graphics, x, 668) + 32;
+      position = nextPositions[position];
     }
-    if (n > 10) {
+    if (remaining > 10) {
       graphics.setFont(new Font("Arial", Font.BOLD, 64));
-      graphics.drawString("+ " + (n - 10), x, 768);
+      graphics.drawString("+ " + (remaining - 10), x, 768);
     }
   }
   
@@ -293,18 +531,14 @@ public class PatchesList {
       return -1;
     if (y < 668 || y > 828)
       return -2;
-    int cursor = 128,  size = patchesList.size(), n = 0, width;
-    for (int i = 0; i < size; i++) {
-      if (Objects.nonNull(patchesList.get((i + neutralTokenPosition) % size))) {
-        if (n < 10) {
-          width = patchesList.get((i + neutralTokenPosition) % size).width() * 32;
-          if (x >= cursor && x <= cursor + width) {
-            return (i + neutralTokenPosition) % size;
-          }
-          cursor += width + 32;
-        }
-        n++;
+    int cursor = 128, position = firstPosition, width;
+    for (int n = 0; n < 10 && n < remaining; n++) {
+      width = patchesList.get(position).width() * 32;
+      if (x >= cursor && x <= cursor + width) {
+        return position;
       }
+      cursor += width + 32;
+      position = nextPositions[position];
     }
     return -2;
   }
@@ -2,8 +2,10 @@ package fr.uge.patchwork;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Objects;
+import java.util.SplittableRandom;
 
 /**
  * Representation of a Patchwork game
@@ -12,6 +14,31 @@ import java.util.Objects;
  * @author VILAYVANH Mickael
  */
 public class Patchwork {
+  /**
+   * Number of ints saved in the history for each applied move : the move, the
+   * player turn, the buttons, the token position and the 7x7 tile of the player,
+   * the special tile, the special patches to place, the first player at end and
+   * the number of special patches claimed on the time board.
+   */
+  private static final int RECORD_SIZE = 9;
+  /**
+   * Description of the 1x1 special patches.
+   */
+  private static final String SPECIAL_PATCH_DESCRIPTION = "33;0;0;0;1;1/\n10000\n00000\n00000\n00000\n00000\n";
+  /**
+   * Index of the random stream of the seed placing the buttons and the special
+   * patches on the time board.
+   */
+  private static final int TIME_BOARD_STREAM = 0;
+  /**
+   * Index of the random stream of the seed shuffling the patches.
+   */
+  private static final int PATCHES_STREAM = 1;
+  /**
+   * Index of the random stream of the seed giving the key of the deal in the
+   * hash.
+   */
+  private static final int DEAL_STREAM = 2;
   /**
    * The players represented by a number (1 or 2) and an object from the class
    * Player
@@ -45,6 +72,36 @@ public class Patchwork {
    * Used to know if the specialTile has been given or not.
    */
   private boolean specialTileGiven;
+  /**
+   * The 1x1 special patch, created once for all the special patches placed.
+   */
+  private final Patch specialPatch;
+  /**
+   * The number of special patches the current player still has to place before
+   * the end of its turn.
+   */
+  private int pendingSpecialPatches;
+  /**
+   * The state saved before each applied move, RECORD_SIZE ints per move, used to
+   * undo the moves in reverse order. The buffer is only grown, never shrunk, so
+   * a search applying and undoing moves does not allocate.
+   */
+  private int[] history;
+  /**
+   * The number of values in history.
+   */
+  private int historySize;
+  /**
+   * The seed of the game : the time board and the order of the patches only
+   * depend on it.
+   */
+  private final long seed;
+  /**
+   * The key of the deal in the hash of the game, so that two games dealt from
+   * different seeds never have the same hash, and can share a transposition
+   * table.
+   */
+  private final long dealKey;
 
   /**
    * Patchwork constructor : Create a new game of Patchwork
@@ -54,6 +111,20 @@ public class Patchwork {
    *                      Mode
    */
   public Patchwork(int timeBoardSize, int gameMode) {
+    this(timeBoardSize, gameMode, new SplittableRandom().nextLong());
+  }
+
+  /**
+   * Patchwork constructor : Create a new game of Patchwork dealt from a seed, so
+   * that the game is fully determined by its seed and its moves.
+   * 
+   * @param timeBoardSize Number of squares in the time board
+   * @param gameMode      The Game mode : 1 - Basic Game Mode 2 - Complete Game
+   *                      Mode
+   * @param seed          The seed of the time board and of the order of the
+   *                      patches.
+   */
+  public Patchwork(int timeBoardSize, int gameMode, long seed) {
     if (timeBoardSize < 0)
       throw new IllegalArgumentException("timeBoardSize invalid");
     if (!isALegalGameMode(gameMode))
@@ -61,10 +132,15 @@ public class Patchwork {
     players = new HashMap<>();
     players.put(1, new Player(1));
     players.put(2, new Player(2));
-    timeBoard = new TimeBoard(timeBoardSize, gameMode);
+    timeBoard = new TimeBoard(timeBoardSize, gameMode, stream(seed, TIME_BOARD_STREAM));
     patchesList = new PatchesList();
     playerTurn = 1;
     firstPlayerAtEnd = 0;
+    pendingSpecialPatches = 0;
+    history = new int[RECORD_SIZE * 64];
+    historySize = 0;
+    this.seed = seed;
+    dealKey = stream(seed, DEAL_STREAM).nextLong();
     this.gameMode = gameMode;
     patchesData = switch (gameMode) {
     case 1 -> "data/patches/patchesBase.data";
@@ -72,6 +148,78 @@ public class Patchwork {
     case 3 -> "data/patches/patches.data";
     default -> throw new IllegalArgumentException("Unexpected value: " + gameMode);
     };
+    specialPatch = Patch.createPatch(SPECIAL_PATCH_DESCRIPTION, gameMode);
+  }
+
+  /**
+   * Patchwork constructor : Create a copy of a game, that can be changed (for
+   * example by a search thread) without changing the original.
+   * 
+   * @param patchwork The game to copy.
+   */
+  public Patchwork(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    players = new HashMap<>();
+    players.put(1, new Player(patchwork.players.get(1)));
+    players.put(2, new Player(patchwork.players.get(2)));
+    timeBoard = new TimeBoard(patchwork.timeBoard);
+    patchesList = new PatchesList(patchwork.patchesList);
+    playerTurn = patchwork.playerTurn;
+    gameMode = patchwork.gameMode;
+    patchesData = patchwork.patchesData;
+    firstPlayerAtEnd = patchwork.firstPlayerAtEnd;
+    specialTileGiven = patchwork.specialTileGiven;
+    specialPatch = patchwork.specialPatch;
+    pendingSpecialPatches = patchwork.pendingSpecialPatches;
+    history = patchwork.history.clone();
+    historySize = patchwork.historySize;
+    seed = patchwork.seed;
+    dealKey = patchwork.dealKey;
+  }
+
+  /**
+   * Patchwork constructor : Create a new game with the patches already loaded by
+   * another game, without reading the patches file again. The game is dealt
+   * from the seed given in parameter, the same way as a game created with this
+   * seed whose patches are loaded.
+   * 
+   * @param patchwork The game whose patches are dealt, its state is not used.
+   * @param seed      The seed of the time board and of the order of the
+   *                  patches.
+   */
+  public Patchwork(Patchwork patchwork, long seed) {
+    Objects.requireNonNull(patchwork);
+    players = new HashMap<>();
+    players.put(1, new Player(1));
+    players.put(2, new Player(2));
+    timeBoard = new TimeBoard(patchwork.timeBoard.getSize(), patchwork.gameMode, stream(seed, TIME_BOARD_STREAM));
+    patchesList = new PatchesList(patchwork.patchesList);
+    patchesList.shufflePatches(stream(seed, PATCHES_STREAM));
+    playerTurn = 1;
+    firstPlayerAtEnd = 0;
+    pendingSpecialPatches = 0;
+    history = new int[RECORD_SIZE * 64];
+    historySize = 0;
+    this.seed = seed;
+    dealKey = stream(seed, DEAL_STREAM).nextLong();
+    gameMode = patchwork.gameMode;
+    patchesData = patchwork.patchesData;
+    specialPatch = patchwork.specialPatch;
+  }
+
+  /**
+   * Give an independent random stream of a seed. The streams are split from the
+   * same generator, so that each part of the game has its own numbers.
+   * 
+   * @param seed  The seed of the game.
+   * @param index The index of the stream.
+   * @return The random generator of the stream.
+   */
+  private static SplittableRandom stream(long seed, int index) {
+    var random = new SplittableRandom(seed);
+    for (var i = 0; i < index; i++)
+      random.split();
+    return random.split();
   }
 
   /**
@@ -110,13 +258,20 @@ public class Patchwork {
    * @return True if the players are at end or if the patchesList is empty
    */
   private boolean gameIsEnd() {
+    updateFirstPlayerAtEnd();
+    return patchesList.isEmpty() || (players.get(1).isAtEnd(timeBoard) && players.get(2).isAtEnd(timeBoard));
+  }
+
+  /**
+   * Updates firstPlayerAtEnd if no player has finished the game yet.
+   */
+  private void updateFirstPlayerAtEnd() {
     if (firstPlayerAtEnd == 0) {
       if (players.get(1).isAtEnd(timeBoard))
         firstPlayerAtEnd = 1;
       else if (players.get(2).isAtEnd(timeBoard))
         firstPlayerAtEnd = 2;
     }
-    return patchesList.isEmpty() || (players.get(1).isAtEnd(timeBoard) && players.get(2).isAtEnd(timeBoard));
   }
 
   /**
@@ -151,9 +306,10 @@ public class Patchwork {
         ui.placePatchUI(patch, player.getQuiltBoard());
         nb1x1 = player.moveToken(patch.time(), timeBoard);
       }
-      for (int i = 0; i < nb1x1; i++)
-        ui.placePatchUI(Patch.createPatch("33;0;0;0;1;1/\n10000\n00000\n00000\n00000\n00000\n", gameMode),
-            player.getQuiltBoard());
+      // The special patches still to place are kept so that a computer player can
+      // search from this state
+      for (pendingSpecialPatches = nb1x1; pendingSpecialPatches > 0; pendingSpecialPatches--)
+        ui.placePatchUI(specialPatch, player.getQuiltBoard());
       if (gameMode != 1) updateSpecialTile();
       updatePlayerTurn();
     }
@@ -161,13 +317,255 @@ public class Patchwork {
   }
 
   /**
-   * The main game method
+   * Accessor for playerTurn.
    * 
-   * @param ui Object that is used for display and user interactions
+   * @return The player who has to play this turn (1 or 2).
    */
-  public void game(UserInterface ui) {
-    Objects.requireNonNull(ui);
+  public int getPlayerTurn() {
+    return playerTurn;
+  }
+
+  /**
+   * Give a player of the game.
+   * 
+   * @param id The id of the player (1 or 2).
+   * @return The player.
+   */
+  public Player getPlayer(int id) {
+    if (id != 1 && id != 2)
+      throw new IllegalArgumentException("id has to be 1 or 2.");
+    return players.get(id);
+  }
+
+  /**
+   * Accessor for timeBoard.
+   * 
+   * @return The time board of the game.
+   */
+  public TimeBoard getTimeBoard() {
+    return timeBoard;
+  }
+
+  /**
+   * Accessor for patchesList.
+   * 
+   * @return The list of patches of the game.
+   */
+  public PatchesList getPatchesList() {
+    return patchesList;
+  }
 
+  /**
+   * Accessor for gameMode.
+   * 
+   * @return The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode 3 -
+   *         Graphic mode
+   */
+  public int getGameMode() {
+    return gameMode;
+  }
+
+  /**
+   * Accessor for pendingSpecialPatches.
+   * 
+   * @return The number of special patches the current player still has to place
+   *         before the end of its turn.
+   */
+  public int getPendingSpecialPatches() {
+    return pendingSpecialPatches;
+  }
+
+  /**
+   * Accessor for seed.
+   * 
+   * @return The seed of the time board and of the order of the patches.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Accessor for firstPlayerAtEnd.
+   * 
+   * @return The id of the first player who has finished the game, 0 if none.
+   */
+  public int getFirstPlayerAtEnd() {
+    return firstPlayerAtEnd;
+  }
+
+  /**
+   * Give the Zobrist hash of the state of the game. The players, the patches
+   * list and the time board update their own hash when they change, so the hash
+   * is computed in constant time. The hash also depends on the seed of the game,
+   * since two games dealt differently are never in the same state.
+   * 
+   * @return The hash of the game.
+   */
+  public long getHash() {
+    var hash = players.get(1).getHash() ^ players.get(2).getHash() ^ patchesList.getHash() ^ timeBoard.getHash()
+        ^ ZobristKeys.PENDING_SPECIAL_PATCHES[pendingSpecialPatches % ZobristKeys.VALUES]
+        ^ ZobristKeys.FIRST_PLAYER_AT_END[firstPlayerAtEnd] ^ dealKey;
+    return (playerTurn == 2) ? hash ^ ZobristKeys.SECOND_PLAYER_TURN : hash;
+  }
+
+  /**
+   * Check if the game is over : both players are at the end of the time board or
+   * all the patches have been taken.
+   * 
+   * @return true if the game is over.
+   */
+  public boolean isOver() {
+    return pendingSpecialPatches == 0 && (patchesList.isEmpty()
+        || (players.get(1).isAtEnd(timeBoard) && players.get(2).isAtEnd(timeBoard)));
+  }
+
+  /**
+   * Give the placement of a move on the quiltboard of the current player.
+   * 
+   * @param orientation The orientation index in the placement table.
+   * @param anchor      The space of the top left corner or
+   *                    {@link Move#NO_ANCHOR}.
+   * @return The anchor index in the placement table or -1 if the move throws the
+   *         patch away.
+   */
+  private int placementOf(int orientation, int anchor) {
+    if (anchor == Move.NO_ANCHOR)
+      return -1;
+    var table = patchesList.getPlacementTable();
+    var index = table.anchorIndex(orientation, anchor);
+    if (index < 0 || !players.get(playerTurn).getQuiltBoard().isFreeArea(table.lowMask(orientation, index),
+        table.highMask(orientation, index)))
+      throw new IllegalArgumentException("anchor not valid");
+    return index;
+  }
+
+  /**
+   * Save the state changed by a move before applying it.
+   * 
+   * @param move The encoded move.
+   */
+  private void pushRecord(int move) {
+    if (historySize + RECORD_SIZE > history.length)
+      history = Arrays.copyOf(history, history.length * 2);
+    var player = players.get(playerTurn);
+    history[historySize++] = move;
+    history[historySize++] = playerTurn;
+    history[historySize++] = player.getButtons();
+    history[historySize++] = player.getTokenPosition();
+    history[historySize++] = player.getHas7x7() ? 1 : 0;
+    history[historySize++] = specialTileGiven ? 1 : 0;
+    history[historySize++] = pendingSpecialPatches;
+    history[historySize++] = firstPlayerAtEnd;
+    // The special patches claimed are known after the move
+    history[historySize++] = 0;
+  }
+
+  /**
+   * End the turn of the current player once all its special patches are placed.
+   */
+  private void endTurn() {
+    if (pendingSpecialPatches > 0)
+      return;
+    if (gameMode != 1)
+      updateSpecialTile();
+    updatePlayerTurn();
+    updateFirstPlayerAtEnd();
+  }
+
+  /**
+   * Apply a move of the current player. Every change made by the move can be
+   * reverted with {@link #undo()}, so a search can walk the game tree without
+   * copying the game.
+   * 
+   * @param move The move, a special patch being expected while the current
+   *             player has special patches to place.
+   */
+  public void apply(Move move) {
+    Objects.requireNonNull(move);
+    apply(move.encode());
+  }
+
+  /**
+   * Apply a move of the current player encoded by {@link Move#encode()}.
+   * 
+   * @param move The encoded move.
+   */
+  public void apply(int move) {
+    if (isOver())
+      throw new IllegalStateException("game is over");
+    var type = Move.type(move);
+    if ((type == Move.SPECIAL_PATCH) != (pendingSpecialPatches > 0))
+      throw new IllegalArgumentException("move not expected");
+    var player = players.get(playerTurn);
+    var table = patchesList.getPlacementTable();
+    switch (type) {
+    case Move.ADVANCE -> {
+      pushRecord(move);
+      pendingSpecialPatches = player.advanceAndReceiveButtons(players.get(playerTurn % 2 + 1), timeBoard);
+      history[historySize - 1] = pendingSpecialPatches;
+    }
+    case Move.TAKE -> {
+      var position = Move.position(move);
+      if (!patchesList.isAValidPatch(position, player))
+        throw new IllegalArgumentException("position not valid");
+      var id = patchesList.patchId(position);
+      var catalog = patchesList.getCatalog();
+      if (Move.orientation(move) >= catalog.orientationCount(id))
+        throw new IllegalArgumentException("orientation not valid");
+      var orientation = catalog.placementOrientation(id, Move.orientation(move));
+      var index = placementOf(orientation, Move.anchor(move));
+      pushRecord(move);
+      var patch = patchesList.takePatch(position, player);
+      player.payButtons(patch.cost());
+      if (index >= 0)
+        player.getQuiltBoard().placeArea(patch.orientations().get(Move.orientation(move)), Move.anchor(move),
+            table.lowMask(orientation, index), table.highMask(orientation, index));
+      pendingSpecialPatches = player.moveToken(patch.time(), timeBoard);
+      history[historySize - 1] = pendingSpecialPatches;
+    }
+    case Move.SPECIAL_PATCH -> {
+      var orientation = table.specialPatchOrientation();
+      var index = placementOf(orientation, Move.anchor(move));
+      pushRecord(move);
+      if (index >= 0)
+        player.getQuiltBoard().placeArea(specialPatch, Move.anchor(move), table.lowMask(orientation, index),
+            table.highMask(orientation, index));
+      pendingSpecialPatches--;
+    }
+    default -> throw new IllegalArgumentException("type invalid");
+    }
+    endTurn();
+  }
+
+  /**
+   * Undo the last applied move, putting back the players, the quiltboard, the
+   * patches list, the neutral token and the time board as they were before it.
+   */
+  public void undo() {
+    if (historySize == 0)
+      throw new IllegalStateException("no move applied");
+    historySize -= RECORD_SIZE;
+    var move = history[historySize];
+    playerTurn = history[historySize + 1];
+    specialTileGiven = history[historySize + 5] == 1;
+    pendingSpecialPatches = history[historySize + 6];
+    firstPlayerAtEnd = history[historySize + 7];
+    var player = players.get(playerTurn);
+    player.restore(history[historySize + 2], history[historySize + 3], history[historySize + 4] == 1);
+    var type = Move.type(move);
+    if (type != Move.ADVANCE && Move.anchor(move) != Move.NO_ANCHOR)
+      player.getQuiltBoard().undoPlacePatch();
+    if (type == Move.TAKE)
+      patchesList.undoTakePatch();
+    if (type != Move.SPECIAL_PATCH)
+      timeBoard.undoClaimSpecialPatches(history[historySize + 8]);
+  }
+
+  /**
+   * Load the patches of the game mode and shuffle them with the seed of the
+   * game.
+   */
+  public void loadPatches() {
     try {
       patchesList.loadPatches(Path.of(patchesData), gameMode);
     } catch (IOException e1) {
@@ -178,7 +576,30 @@ public class Patchwork {
       }
     }
 
-    patchesList.shufflePatches();
+    patchesList.shufflePatches(stream(seed, PATCHES_STREAM));
+  }
+
+  /**
+   * The main game method
+   * 
+   * @param ui Object that is used for display and user interactions
+   */
+  public void game(UserInterface ui) {
+    Objects.requireNonNull(ui);
+
+    loadPatches();
+
+    play(ui);
+  }
+
+  /**
+   * Play the game with the patches already dealt, for example by
+   * {@link #Patchwork(Patchwork, long)}, and display the scores.
+   * 
+   * @param ui Object that is used for display and user interactions
+   */
+  public void play(UserInterface ui) {
+    Objects.requireNonNull(ui);
 
     gameLoop(ui);
 
@@ -0,0 +1,439 @@
+package fr.uge.patchwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Precomputed placements of the patches on a quilt board. Every distinct
+ * orientation of a patch (the 4 rotations and their mirrored flips) is stored
+ * once as a 25-bit shape (bit line * 5 + column), and every anchor where it fits
+ * in the 9x9 grid is stored as a pair of bitboards ready to be compared with
+ * the ones of a {@link QuiltBoard}.
+ *
+ * The anchor of a placement is the top left corner of the orientation, the same
+ * position that is given to {@link QuiltBoard#placePatch(Patch, Coordinate)}.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class PlacementTable {
+  /**
+   * Number of lines and columns of a quilt board.
+   */
+  private static final int GRID_SIZE = 9;
+  /**
+   * Shape of the 1x1 special patches, always present in the table.
+   */
+  private static final int SPECIAL_PATCH_SHAPE = 1;
+  /**
+   * The distinct orientation shapes, sorted so that an orientation index can be
+   * found from a shape by binary search.
+   */
+  private final int[] shapes;
+  /**
+   * The width of each orientation.
+   */
+  private final int[] widths;
+  /**
+   * The height of each orientation.
+   */
+  private final int[] heights;
+  /**
+   * The piece of each orientation, two orientations are of the same piece if one
+   * can be rotated or flipped into the other.
+   */
+  private final int[] pieces;
+  /**
+   * The orientations of each piece.
+   */
+  private final int[][] pieceOrientations;
+  /**
+   * The anchors of each orientation as a space index (line * 9 + column).
+   */
+  private final int[][] anchors;
+  /**
+   * The first 64 spaces covered by each orientation at each anchor.
+   */
+  private final long[][] lowMasks;
+  /**
+   * The last 17 spaces covered by each orientation at each anchor.
+   */
+  private final long[][] highMasks;
+
+  /**
+   * PlacementTable constructor : Compute the orientations and the placements of
+   * all the given patches.
+   *
+   * @param patches The patches of the game.
+   */
+  public PlacementTable(List<Patch> patches) {
+    Objects.requireNonNull(patches);
+    var pieceShapes = new ArrayList<int[]>();
+    var sortedShapes = new TreeSet<Integer>();
+    var shapePiece = new HashMap<Integer, Integer>();
+    addPiece(SPECIAL_PATCH_SHAPE, pieceShapes, sortedShapes, shapePiece);
+    for (var patch : patches) {
+      if (Objects.nonNull(patch))
+        addPiece(patch.shapeMask(), pieceShapes, sortedShapes, shapePiece);
+    }
+    shapes = sortedShapes.stream().mapToInt(Integer::intValue).toArray();
+    widths = new int[shapes.length];
+    heights = new int[shapes.length];
+    pieces = new int[shapes.length];
+    anchors = new int[shapes.length][];
+    lowMasks = new long[shapes.length][];
+    highMasks = new long[shapes.length][];
+    for (var orientation = 0; orientation < shapes.length; orientation++) {
+      widths[orientation] = shapeWidth(shapes[orientation]);
+      heights[orientation] = shapeHeight(shapes[orientation]);
+      pieces[orientation] = shapePiece.get(shapes[orientation]);
+      computePlacements(orientation);
+    }
+    pieceOrientations = new int[pieceShapes.size()][];
+    for (var piece = 0; piece < pieceOrientations.length; piece++) {
+      pieceOrientations[piece] = Arrays.stream(pieceShapes.get(piece)).map(shape -> Arrays.binarySearch(shapes, shape))
+          .toArray();
+    }
+  }
+
+  /**
+   * Register the piece of the given shape if it is not known yet.
+   *
+   * @param shape        A shape of the piece.
+   * @param pieceShapes  The orientation shapes of each piece.
+   * @param sortedShapes All the shapes already known.
+   * @param shapePiece   The piece of each shape already known.
+   */
+  private static void addPiece(int shape, ArrayList<int[]> pieceShapes, TreeSet<Integer> sortedShapes,
+      HashMap<Integer, Integer> shapePiece) {
+    if (shapePiece.containsKey(shape))
+      return;
+    var orientations = orientationsOf(shape);
+    for (var orientation : orientations) {
+      sortedShapes.add(orientation);
+      shapePiece.put(orientation, pieceShapes.size());
+    }
+    pieceShapes.add(orientations);
+  }
+
+  /**
+   * Compute the distinct orientations of a shape : the 4 rotations of the shape
+   * and the 4 rotations of its mirror.
+   *
+   * @param shape A 25-bit shape.
+   * @return The distinct orientations, the given shape being the first one.
+   */
+  static int[] orientationsOf(int shape) {
+    var result = new int[8];
+    var count = 0;
+    var current = shape;
+    for (var flip = 0; flip < 2; flip++) {
+      for (var rotation = 0; rotation < 4; rotation++) {
+        var known = false;
+        for (var i = 0; i < count; i++)
+          known |= result[i] == current;
+        if (!known)
+          result[count++] = current;
+        current = rotateShape(current);
+      }
+      current = flipShape(current);
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Rotate a 25-bit shape 90 degrees clockwise, the same way as
+   * {@link Patch#rotate()}.
+   *
+   * @param shape A 25-bit shape.
+   * @return The rotated shape.
+   */
+  static int rotateShape(int shape) {
+    var height = shapeHeight(shape);
+    var result = 0;
+    for (var line = 0; line < 5; line++) {
+      for (var column = 0; column < 5; column++) {
+        if ((shape & (1 << (line * 5 + column))) != 0)
+          result |= 1 << (column * 5 + height - 1 - line);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Mirror a 25-bit shape horizontally.
+   *
+   * @param shape A 25-bit shape.
+   * @return The mirrored shape.
+   */
+  static int flipShape(int shape) {
+    var width = shapeWidth(shape);
+    var result = 0;
+    for (var line = 0; line < 5; line++) {
+      for (var column = 0; column < 5; column++) {
+        if ((shape & (1 << (line * 5 + column))) != 0)
+          result |= 1 << (line * 5 + width - 1 - column);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Give the width of a 25-bit shape.
+   *
+   * @param shape A 25-bit shape.
+   * @return The number of columns used by the shape.
+   */
+  static int shapeWidth(int shape) {
+    var width = 0;
+    for (var line = 0; line < 5; line++) {
+      for (var column = 0; column < 5; column++) {
+        if ((shape & (1 << (line * 5 + column))) != 0)
+          width = Math.max(width, column + 1);
+      }
+    }
+    return width;
+  }
+
+  /**
+   * Give the height of a 25-bit shape.
+   *
+   * @param shape A 25-bit shape.
+   * @return The number of lines used by the shape.
+   */
+  static int shapeHeight(int shape) {
+    return (31 - Integer.numberOfLeadingZeros(shape)) / 5 + 1;
+  }
+
+  /**
+   * Compute every anchor of the orientation that stays in the grid and the
+   * spaces it covers.
+   *
+   * @param orientation The orientation index.
+   */
+  private void computePlacements(int orientation) {
+    var shape = shapes[orientation];
+    var maxLine = GRID_SIZE - heights[orientation];
+    var maxColumn = GRID_SIZE - widths[orientation];
+    var count = (maxLine + 1) * (maxColumn + 1);
+    anchors[orientation] = new int[count];
+    lowMasks[orientation] = new long[count];
+    highMasks[orientation] = new long[count];
+    var index = 0;
+    for (var anchorLine = 0; anchorLine <= maxLine; anchorLine++) {
+      for (var anchorColumn = 0; anchorColumn <= maxColumn; anchorColumn++) {
+        var low = 0L;
+        var high = 0L;
+        for (var bit = 0; bit < 25; bit++) {
+          if ((shape & (1 << bit)) == 0)
+            continue;
+          var space = (anchorLine + bit / 5) * GRID_SIZE + anchorColumn + bit % 5;
+          if (space < 64)
+            low |= 1L << space;
+          else
+            high |= 1L << (space - 64);
+        }
+        anchors[orientation][index] = anchorLine * GRID_SIZE + anchorColumn;
+        lowMasks[orientation][index] = low;
+        highMasks[orientation][index] = high;
+        index++;
+      }
+    }
+  }
+
+  /**
+   * Give the number of distinct orientations in the table.
+   *
+   * @return The number of orientations.
+   */
+  public int orientationCount() {
+    return shapes.length;
+  }
+
+  /**
+   * Give the orientation index of a patch as it is currently rotated.
+   *
+   * @param patch The patch.
+   * @return The orientation index or -1 if the shape of the patch is unknown.
+   */
+  public int orientationOf(Patch patch) {
+    Objects.requireNonNull(patch);
+    var index = Arrays.binarySearch(shapes, patch.shapeMask());
+    return index < 0 ? -1 : index;
+  }
+
+  /**
+   * Give the orientation index of the 1x1 special patches.
+   *
+   * @return The orientation index of the 1x1 special patches.
+   */
+  public int specialPatchOrientation() {
+    return Arrays.binarySearch(shapes, SPECIAL_PATCH_SHAPE);
+  }
+
+  /**
+   * Give the piece of an orientation.
+   *
+   * @param orientation The orientation index.
+   * @return The piece index.
+   */
+  public int pieceOf(int orientation) {
+    return pieces[orientation];
+  }
+
+  /**
+   * Give the number of distinct orientations of a piece.
+   *
+   * @param piece The piece index.
+   * @return The number of orientations (1 to 8).
+   */
+  public int orientationCount(int piece) {
+    return pieceOrientations[piece].length;
+  }
+
+  /**
+   * Give an orientation of a piece.
+   *
+   * @param piece The piece index.
+   * @param index The index of the orientation among those of the piece.
+   * @return The orientation index.
+   */
+  public int orientation(int piece, int index) {
+    return pieceOrientations[piece][index];
+  }
+
+  /**
+   * Give the 25-bit shape of an orientation.
+   *
+   * @param orientation The orientation index.
+   * @return The shape (bit line * 5 + column).
+   */
+  public int shape(int orientation) {
+    return shapes[orientation];
+  }
+
+  /**
+   * Give the width of an orientation.
+   *
+   * @param orientation The orientation index.
+   * @return The width.
+   */
+  public int width(int orientation) {
+    return widths[orientation];
+  }
+
+  /**
+   * Give the height of an orientation.
+   *
+   * @param orientation The orientation index.
+   * @return The height.
+   */
+  public int height(int orientation) {
+    return heights[orientation];
+  }
+
+  /**
+   * Give the number of anchors of an orientation inside the grid.
+   *
+   * @param orientation The orientation index.
+   * @return The number of anchors.
+   */
+  public int anchorCount(int orientation) {
+    return anchors[orientation].length;
+  }
+
+  /**
+   * Give an anchor of an orientation.
+   *
+   * @param orientation The orientation index.
+   * @param index       The anchor index.
+   * @return The space of the top left corner (line * 9 + column).
+   */
+  public int anchor(int orientation, int index) {
+    return anchors[orientation][index];
+  }
+
+  /**
+   * Give the index of an anchor of an orientation.
+   *
+   * @param orientation The orientation index.
+   * @param anchor      The space of the top left corner (line * 9 + column).
+   * @return The anchor index or -1 if the orientation goes out of the grid at
+   *         this anchor.
+   */
+  public int anchorIndex(int orientation, int anchor) {
+    if (anchor < 0 || anchor >= GRID_SIZE * GRID_SIZE)
+      return -1;
+    var columns = GRID_SIZE - widths[orientation] + 1;
+    var line = anchor / GRID_SIZE;
+    var column = anchor % GRID_SIZE;
+    if (line > GRID_SIZE - heights[orientation] || column >= columns)
+      return -1;
+    return line * columns + column;
+  }
+
+  /**
+   * Give the first 64 spaces covered by an orientation at an anchor.
+   *
+   * @param orientation The orientation index.
+   * @param index       The anchor index.
+   * @return The bitboard of the covered spaces.
+   */
+  public long lowMask(int orientation, int index) {
+    return lowMasks[orientation][index];
+  }
+
+  /**
+   * Give the last 17 spaces covered by an orientation at an anchor.
+   *
+   * @param orientation The orientation index.
+   * @param index       The anchor index.
+   * @return The bitboard of the covered spaces.
+   */
+  public long highMask(int orientation, int index) {
+    return highMasks[orientation][index];
+  }
+
+  /**
+   * Search the next anchor where the orientation can be placed on the board.
+   *
+   * @param quiltBoard  The quilt board.
+   * @param orientation The orientation index.
+   * @param from        The first anchor index to check.
+   * @return The anchor index or -1 if there is no more legal anchor.
+   */
+  public int nextLegalAnchor(QuiltBoard quiltBoard, int orientation, int from) {
+    Objects.requireNonNull(quiltBoard);
+    var low = lowMasks[orientation];
+    var high = highMasks[orientation];
+    for (var index = from; index < low.length; index++) {
+      if (quiltBoard.isFreeArea(low[index], high[index]))
+        return index;
+    }
+    return -1;
+  }
+
+  /**
+   * Check if the patch can be placed on the board in any orientation.
+   *
+   * @param quiltBoard The quilt board.
+   * @param patch      The patch.
+   * @return true if there is at least one legal placement.
+   */
+  public boolean hasLegalPlacement(QuiltBoard quiltBoard, Patch patch) {
+    Objects.requireNonNull(quiltBoard);
+    var orientation = orientationOf(patch);
+    if (orientation < 0)
+      throw new IllegalArgumentException("patch unknown");
+    var piece = pieces[orientation];
+    for (var index = 0; index < pieceOrientations[piece].length; index++) {
+      if (nextLegalAnchor(quiltBoard, pieceOrientations[piece][index], 0) >= 0)
+        return true;
+    }
+    return false;
+  }
+}
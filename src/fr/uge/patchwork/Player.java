@@ -35,6 +35,11 @@ public class Player {
    * Id of the player
    */
   private int id;
+  /**
+   * The Zobrist hash of the buttons, the token position and the 7x7 tile of the
+   * player, updated each time one of them changes.
+   */
+  private long hash;
 
   /**
    * Player constructor : Create a new player with an empty quilt board, 0
@@ -45,11 +50,70 @@ public class Player {
   public Player(int id) {
     if (id <= 0)
       throw new IllegalArgumentException("id <= 0.");
-    quiltBoard = new QuiltBoard();
+    quiltBoard = new QuiltBoard(id);
     buttons = 5;
     tokenPosition = 0;
     has7x7 = false;
     this.id = id;
+    hash = ZobristKeys.BUTTONS[keyIndex()][buttons] ^ ZobristKeys.TOKENS[keyIndex()][tokenPosition];
+  }
+
+  /**
+   * Player constructor : Create a copy of a player and of its quilt board, that
+   * can be changed without changing the original.
+   * 
+   * @param player The player to copy.
+   */
+  Player(Player player) {
+    Objects.requireNonNull(player);
+    quiltBoard = new QuiltBoard(player.quiltBoard);
+    buttons = player.buttons;
+    tokenPosition = player.tokenPosition;
+    has7x7 = player.has7x7;
+    id = player.id;
+    hash = player.hash;
+  }
+
+  /**
+   * Give the index of the Zobrist keys of the player.
+   * 
+   * @return 0 for the player 1 and 1 for the player 2.
+   */
+  private int keyIndex() {
+    return (id - 1) % 2;
+  }
+
+  /**
+   * Change the number of buttons and update the hash.
+   * 
+   * @param buttons The new number of buttons.
+   */
+  private void setButtons(int buttons) {
+    var keys = ZobristKeys.BUTTONS[keyIndex()];
+    hash ^= keys[this.buttons % ZobristKeys.VALUES] ^ keys[buttons % ZobristKeys.VALUES];
+    this.buttons = buttons;
+  }
+
+  /**
+   * Change the position of the token and update the hash.
+   * 
+   * @param tokenPosition The new position of the token.
+   */
+  private void setTokenPosition(int tokenPosition) {
+    var keys = ZobristKeys.TOKENS[keyIndex()];
+    hash ^= keys[this.tokenPosition % ZobristKeys.VALUES] ^ keys[tokenPosition % ZobristKeys.VALUES];
+    this.tokenPosition = tokenPosition;
+  }
+
+  /**
+   * Change the 7x7 tile and update the hash.
+   * 
+   * @param has7x7 If the player has the 7x7 tile.
+   */
+  private void setHas7x7(boolean has7x7) {
+    if (this.has7x7 != has7x7)
+      hash ^= ZobristKeys.HAS_7X7[keyIndex()];
+    this.has7x7 = has7x7;
   }
 
   /**
@@ -83,16 +147,12 @@ public class Player {
       throw new IllegalArgumentException("position <= tokenPosition");
     Objects.requireNonNull(timeBoard);
 
-    int nb1x1 = 0;
-    while (tokenPosition < position && tokenPosition < timeBoard.getSize() - 1) {
-      tokenPosition++;
-      if (timeBoard.isTokenOnButton(tokenPosition)) {
-        buttons += quiltBoard.getIncome();
-      }
-      if (timeBoard.isTokenOnSpecialPatch(tokenPosition)) {
-        nb1x1++;
-      }
-    }
+    int destination = Math.min(position, timeBoard.getSize() - 1);
+    if (destination <= tokenPosition)
+      return 0;
+    setButtons(buttons + quiltBoard.getIncome() * timeBoard.buttonsBetween(tokenPosition, destination));
+    int nb1x1 = timeBoard.claimSpecialPatches(tokenPosition, destination);
+    setTokenPosition(destination);
     return nb1x1;
   }
 
@@ -137,7 +197,7 @@ public class Player {
       throw new IllegalArgumentException("cost < 0");
     if (cost > buttons)
       throw new IllegalArgumentException("cost > buttons");
-    buttons -= cost;
+    setButtons(buttons - cost);
   }
 
   /**
@@ -155,11 +215,12 @@ public class Player {
 
     int destination = other.tokenPosition + 1;
 
-    buttons += (destination - tokenPosition);
+    var received = destination - tokenPosition;
 
     if (destination == timeBoard.getSize()) {
-      buttons--;
+      received--;
     }
+    setButtons(buttons + received);
     return moveTokenTo(destination, timeBoard);
   }
 
@@ -178,6 +239,31 @@ public class Player {
     return buttons + bonus - 2 * quiltBoard.numberOfEmptySpace();
   }
 
+  /**
+   * Give the score difference the player would make by paying and placing the
+   * patch at the given position, without changing the player or its quiltboard.
+   * The 7x7 tile is counted if the patch completes a 7x7 square while neither
+   * player has the tile.
+   * 
+   * @param patch      The patch to pay and place.
+   * @param coordinate The top left corner of the patch on the quiltboard.
+   * @param opponent   The other player, who may have the 7x7 tile.
+   * 
+   * @return The score difference or Integer.MIN_VALUE if the patch could not be
+   *         payed or placed.
+   */
+  public int scoreDeltaIfPlaced(Patch patch, Coordinate coordinate, Player opponent) {
+    Objects.requireNonNull(patch);
+    Objects.requireNonNull(coordinate);
+    Objects.requireNonNull(opponent);
+    if (!hasEnoughButtons(patch.cost()))
+      return Integer.MIN_VALUE;
+    var delta = quiltBoard.scoreDeltaIfPlaced(patch, coordinate, !has7x7 && !opponent.has7x7);
+    if (delta == Integer.MIN_VALUE)
+      return delta;
+    return delta - patch.cost();
+  }
+
   @Override
   public String toString() {
     var builder = new StringBuilder();
@@ -188,6 +274,52 @@ public class Player {
     return builder.toString();
   }
 
+  /**
+   * Accessor for buttons.
+   * 
+   * @return the number of buttons owned by the player.
+   */
+  public int getButtons() {
+    return buttons;
+  }
+
+  /**
+   * Accessor for tokenPosition.
+   * 
+   * @return the position of the player token on the time board.
+   */
+  public int getTokenPosition() {
+    return tokenPosition;
+  }
+
+  /**
+   * Put back the buttons, the token and the 7x7 tile of the player as they were
+   * before a move, used to undo a move.
+   * 
+   * @param buttons       The number of buttons before the move.
+   * @param tokenPosition The position of the token before the move.
+   * @param has7x7        If the player had the 7x7 tile before the move.
+   */
+  void restore(int buttons, int tokenPosition, boolean has7x7) {
+    if (buttons < 0)
+      throw new IllegalArgumentException("buttons < 0");
+    if (tokenPosition < 0)
+      throw new IllegalArgumentException("tokenPosition < 0");
+    setButtons(buttons);
+    setTokenPosition(tokenPosition);
+    setHas7x7(has7x7);
+  }
+
+  /**
+   * Give the Zobrist hash of the player : its buttons, its token position, its
+   * 7x7 tile and its quiltboard.
+   * 
+   * @return The hash of the player.
+   */
+  public long getHash() {
+    return hash ^ quiltBoard.getHash();
+  }
+
   /**
    * Accessor for quiltBoard.
    * 
@@ -215,7 +347,7 @@ public class Player {
    */
   public boolean updateHas7x7() {
     if (!has7x7)
-      has7x7 = quiltBoard.check7x7Area();
+      setHas7x7(quiltBoard.check7x7Area());
     return has7x7;
   }
 
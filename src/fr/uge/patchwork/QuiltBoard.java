@@ -1,10 +1,6 @@
 package fr.uge.patchwork;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Objects;
-import java.util.stream.Collectors;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
@@ -20,39 +16,232 @@ import java.lang.StringBuilder;
  */
 public class QuiltBoard {
   /**
-   * An LinkedHashMap that represents the grid that each player have in
-   * possession.
+   * Number of lines and columns of the grid.
    */
-  private final LinkedHashMap<Coordinate, Boolean> grid;
+  private static final int SIZE = 9;
   /**
-   * An HashMap that represents the position of the topleft corner of a specific
-   * patch
+   * Value returned by {@code areaMask} when a patch goes out of the grid. It can
+   * not be a real area since a patch covers at most 25 spaces.
    */
-  private final HashMap<Patch, Coordinate> patchesPosition;
+  private static final long OUT_OF_GRID = -1L;
+  /**
+   * Number of spaces in a 7x7 square.
+   */
+  private static final int SQUARE_SPACES = 49;
+  /**
+   * The first 64 spaces of each of the 9 possible 7x7 squares, the square
+   * starting at (line, column) being at index line * 3 + column. Also read by
+   * {@link PackingCheck}, never written after the initialization.
+   */
+  static final long[] SQUARES_LOW = new long[9];
+  /**
+   * The last 17 spaces of each of the 9 possible 7x7 squares. Also read by
+   * {@link PackingCheck}, never written after the initialization.
+   */
+  static final long[] SQUARES_HIGH = new long[9];
 
+  static {
+    for (var firstLine = 0; firstLine < 3; firstLine++) {
+      for (var firstColumn = 0; firstColumn < 3; firstColumn++) {
+        for (var line = firstLine; line < firstLine + 7; line++) {
+          for (var column = firstColumn; column < firstColumn + 7; column++) {
+            var index = line * SIZE + column;
+            if (index < 64)
+              SQUARES_LOW[firstLine * 3 + firstColumn] |= 1L << index;
+            else
+              SQUARES_HIGH[firstLine * 3 + firstColumn] |= 1L << (index - 64);
+          }
+        }
+      }
+    }
+  }
   /**
-   * QuiltBoard constructor: Create an initialized quiltboard.
+   * A bitboard that represents the first 64 spaces of the grid (line * 9 +
+   * column), a bit is set when the space is filled.
+   */
+  private long lowSpaces;
+  /**
+   * A bitboard that represents the last 17 spaces of the grid (line * 9 + column
+   * - 64), a bit is set when the space is filled.
+   */
+  private long highSpaces;
+  /**
+   * The number of empty spaces, updated each time a patch is placed.
+   */
+  private int emptySpaces;
+  /**
+   * The sum of the income of the placed patches, updated each time a patch is
+   * placed.
+   */
+  private int income;
+  /**
+   * The number of filled spaces in each of the 9 possible 7x7 squares, updated
+   * each time a patch is placed.
+   */
+  private final int[] squaresFill;
+  /**
+   * The number of 7x7 squares full of filled spaces.
+   */
+  private int fullSquares;
+  /**
+   * The placed patches, in the order they have been placed. A quiltboard has at
+   * most 81 patches since each patch fills at least one space.
+   */
+  private final Patch[] placedPatches;
+  /**
+   * The space (line * 9 + column) of the topleft corner of each placed patch.
+   */
+  private final int[] placedAnchors;
+  /**
+   * The first 64 spaces filled by each placed patch.
+   */
+  private final long[] placedLowSpaces;
+  /**
+   * The last 17 spaces filled by each placed patch.
+   */
+  private final long[] placedHighSpaces;
+  /**
+   * The number of placed patches.
+   */
+  private int placedCount;
+  /**
+   * The keys of the spaces of the quiltboard, different for each player.
+   */
+  private final long[] spaceKeys;
+  /**
+   * The Zobrist hash of the filled spaces, updated each time a patch is placed
+   * or removed.
+   */
+  private long hash;
+
+  /**
+   * QuiltBoard constructor: Create an initialized quiltboard for the player 1.
    */
   public QuiltBoard() {
-    grid = initGrid();
-    patchesPosition = new HashMap<>();
+    this(1);
   }
 
   /**
-   * Initialize grid by assigning false to the value of each element.
+   * QuiltBoard constructor: Create an initialized quiltboard.
    * 
-   * @return An LinkedHashMap that represents a quiltboard at initialiazation
-   *         state.
-   */
-  private static LinkedHashMap<Coordinate, Boolean> initGrid() {
-    var result = new LinkedHashMap<Coordinate, Boolean>();
-    int i, j;
-    for (i = 0; i < 9; i++) {
-      for (j = 0; j < 9; j++) {
-        result.put(new Coordinate(i, j), false);
-      }
-    }
-    return result;
+   * @param playerId The id of the player owning the quiltboard, used to hash
+   *                 the quiltboard.
+   */
+  public QuiltBoard(int playerId) {
+    if (playerId <= 0)
+      throw new IllegalArgumentException("playerId <= 0.");
+    lowSpaces = 0L;
+    highSpaces = 0L;
+    emptySpaces = SIZE * SIZE;
+    income = 0;
+    squaresFill = new int[SQUARES_LOW.length];
+    fullSquares = 0;
+    placedPatches = new Patch[SIZE * SIZE];
+    placedAnchors = new int[SIZE * SIZE];
+    placedLowSpaces = new long[SIZE * SIZE];
+    placedHighSpaces = new long[SIZE * SIZE];
+    placedCount = 0;
+    spaceKeys = ZobristKeys.SPACES[(playerId - 1) % 2];
+    hash = 0L;
+  }
+
+  /**
+   * QuiltBoard constructor: Create a copy of a quiltboard, that can be changed
+   * without changing the original.
+   * 
+   * @param quiltBoard The quiltboard to copy.
+   */
+  QuiltBoard(QuiltBoard quiltBoard) {
+    Objects.requireNonNull(quiltBoard);
+    lowSpaces = quiltBoard.lowSpaces;
+    highSpaces = quiltBoard.highSpaces;
+    emptySpaces = quiltBoard.emptySpaces;
+    income = quiltBoard.income;
+    squaresFill = quiltBoard.squaresFill.clone();
+    fullSquares = quiltBoard.fullSquares;
+    placedPatches = quiltBoard.placedPatches.clone();
+    placedAnchors = quiltBoard.placedAnchors.clone();
+    placedLowSpaces = quiltBoard.placedLowSpaces.clone();
+    placedHighSpaces = quiltBoard.placedHighSpaces.clone();
+    placedCount = quiltBoard.placedCount;
+    spaceKeys = quiltBoard.spaceKeys;
+    hash = quiltBoard.hash;
+  }
+
+  /**
+   * Accessor for hash.
+   * 
+   * @return The Zobrist hash of the filled spaces.
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  /**
+   * Accessor for lowSpaces.
+   * 
+   * @return The first 64 spaces of the grid, a bit being set when the space is
+   *         filled.
+   */
+  public long getLowSpaces() {
+    return lowSpaces;
+  }
+
+  /**
+   * Accessor for highSpaces.
+   * 
+   * @return The last 17 spaces of the grid, a bit being set when the space is
+   *         filled.
+   */
+  public long getHighSpaces() {
+    return highSpaces;
+  }
+
+  /**
+   * Give the number of placed patches.
+   * 
+   * @return The number of placed patches.
+   */
+  public int getPlacedCount() {
+    return placedCount;
+  }
+
+  /**
+   * Give a placed patch, in the orientation it has been placed.
+   * 
+   * @param index The index of the patch in the order of placement.
+   * @return The placed patch.
+   */
+  public Patch getPlacedPatch(int index) {
+    if (index < 0 || index >= placedCount)
+      throw new IllegalArgumentException("index not valid");
+    return placedPatches[index];
+  }
+
+  /**
+   * Give the space of the top left corner of a placed patch.
+   * 
+   * @param index The index of the patch in the order of placement.
+   * @return The space (line * 9 + column).
+   */
+  public int getPlacedAnchor(int index) {
+    if (index < 0 || index >= placedCount)
+      throw new IllegalArgumentException("index not valid");
+    return placedAnchors[index];
+  }
+
+  /**
+   * Returns true if the space at the given line and column is filled.
+   * 
+   * @param line   Line of the space.
+   * @param column Column of the space.
+   * @return true if the space is filled.
+   */
+  private boolean isFilled(int line, int column) {
+    var index = line * SIZE + column;
+    if (index < 64)
+      return (lowSpaces & (1L << index)) != 0;
+    return (highSpaces & (1L << (index - 64))) != 0;
   }
 
   /**
@@ -61,7 +250,7 @@ public class QuiltBoard {
    * @return An {int} that represents the total income.
    */
   public int getIncome() {
-    return patchesPosition.keySet().stream().mapToInt(Patch::income).sum();
+    return income;
   }
 
   /**
@@ -70,50 +259,105 @@ public class QuiltBoard {
    * @return An int that represents the total of empty space in the board.
    */
   public int numberOfEmptySpace() {
-    return grid.values().stream().filter(value -> value.booleanValue() == false).collect(Collectors.toList()).size();
+    return emptySpaces;
   }
 
   /**
-   * Check if the patch given in parameter is allowed to be placed.
+   * Compute the half of the bitboard covered by the patch once moved by padding.
    * 
-   * @param patch   Patch to be placed.
-   * @param padding A coordinate used as adding element to each space that
-   *                represents the patch.
+   * @param patch       Patch to be placed.
+   * @param padding     A coordinate used as adding element to each space that
+   *                    represents the patch.
+   * @param highSpaces  true to compute the last 17 spaces, false for the first 64.
+   * @return The bitboard of the covered spaces or OUT_OF_GRID if the patch goes
+   *         out of the grid.
    */
-  private ArrayList<Coordinate> getAreaIfValidPlace(Patch patch, Coordinate padding) {
-    Objects.requireNonNull(patch);
-    Objects.requireNonNull(padding);
-
-    var patchArea = patch.locationsOfSpaceArea();
-    for (var area : patchArea) {
-      // reajusting patch shape to the correct area aimed
-      area = area.add(padding);
-      var value = grid.getOrDefault(area, null);
-      // if value is null then out of grid area
-      // if value is true then there is already a space allocated
-      if (value == null || value == true) {
-        return null;
+  private static long areaMask(Patch patch, Coordinate padding, boolean highSpaces) {
+    var shape = patch.shape();
+    var mask = 0L;
+    for (var line = 0; line < 5; line++) {
+      for (var column = 0; column < 5; column++) {
+        if (!shape[line][column])
+          continue;
+        // reajusting patch shape to the correct area aimed
+        var gridLine = line + padding.line();
+        var gridColumn = column + padding.column();
+        if (gridLine < 0 || gridLine >= SIZE || gridColumn < 0 || gridColumn >= SIZE)
+          return OUT_OF_GRID;
+        var index = gridLine * SIZE + gridColumn;
+        if (highSpaces && index >= 64)
+          mask |= 1L << (index - 64);
+        else if (!highSpaces && index < 64)
+          mask |= 1L << index;
       }
     }
-    return patchArea;
+    return mask;
   }
 
   /**
-   * Update the grid as the patch is added to it.
+   * Check if none of the spaces of the area given in parameter is filled.
    * 
-   * @param area    Non-empty area of the patch.
-   * @param padding A coordinate used as adding element to each space that
-   *                represents the patch.
+   * @param low  The first 64 spaces of the area.
+   * @param high The last 17 spaces of the area.
+   * @return true if the area does not overlap a filled space.
+   */
+  public boolean isFreeArea(long low, long high) {
+    return (lowSpaces & low) == 0 && (highSpaces & high) == 0;
+  }
+
+  /**
+   * Check if the area given in parameter is allowed to be filled.
    * 
+   * @param low  The first 64 spaces of the area.
+   * @param high The last 17 spaces of the area.
+   * @return true if the area is in the grid and does not overlap a filled space.
    */
-  private void updateGrid(ArrayList<Coordinate> area, Coordinate padding) {
-    Objects.requireNonNull(area);
-    Objects.requireNonNull(padding);
+  private boolean isValidArea(long low, long high) {
+    // if a mask is OUT_OF_GRID then out of grid area
+    // if a mask overlaps then there is already a space allocated
+    return low != OUT_OF_GRID && high != OUT_OF_GRID && isFreeArea(low, high);
+  }
+
+  /**
+   * Update the grid as the patch is added to it.
+   * 
+   * @param low  The first 64 spaces of the area.
+   * @param high The last 17 spaces of the area.
+   */
+  private void updateGrid(long low, long high) {
+    // Flipping empty area to filled area
+    lowSpaces |= low;
+    highSpaces |= high;
+    hash ^= ZobristKeys.areaKey(spaceKeys, low, high);
+    emptySpaces -= Long.bitCount(low) + Long.bitCount(high);
+    for (var square = 0; square < SQUARES_LOW.length; square++) {
+      var filled = Long.bitCount(low & SQUARES_LOW[square]) + Long.bitCount(high & SQUARES_HIGH[square]);
+      if (filled > 0) {
+        squaresFill[square] += filled;
+        if (squaresFill[square] == SQUARE_SPACES)
+          fullSquares++;
+      }
+    }
+  }
 
-    for (var space : area) {
-      // Flipping empty area to filled area
-      var newSpace = space.add(padding);
-      grid.put(newSpace, true);
+  /**
+   * Update the grid as the patch is removed from it.
+   * 
+   * @param low  The first 64 spaces of the area.
+   * @param high The last 17 spaces of the area.
+   */
+  private void clearGrid(long low, long high) {
+    lowSpaces &= ~low;
+    highSpaces &= ~high;
+    hash ^= ZobristKeys.areaKey(spaceKeys, low, high);
+    emptySpaces += Long.bitCount(low) + Long.bitCount(high);
+    for (var square = 0; square < SQUARES_LOW.length; square++) {
+      var cleared = Long.bitCount(low & SQUARES_LOW[square]) + Long.bitCount(high & SQUARES_HIGH[square]);
+      if (cleared > 0) {
+        if (squaresFill[square] == SQUARE_SPACES)
+          fullSquares--;
+        squaresFill[square] -= cleared;
+      }
     }
   }
 
@@ -132,90 +376,129 @@ public class QuiltBoard {
     Objects.requireNonNull(patch);
     Objects.requireNonNull(padding);
     
-    var spacesArea = getAreaIfValidPlace(patch, padding);
-    if (spacesArea != null) {
-      patchesPosition.putIfAbsent(patch, padding);
-      updateGrid(spacesArea, padding);
+    var low = areaMask(patch, padding, false);
+    var high = areaMask(patch, padding, true);
+    if (isValidArea(low, high)) {
+      placeArea(patch, padding.line() * SIZE + padding.column(), low, high);
       return true;
     }
     return false;
   }
 
   /**
-   * Returns true if the very center of the board is at least a filled space.
+   * Place a patch given in the quiltboard on an area already computed, for
+   * example by a {@link PlacementTable}. The area is not checked.
    * 
-   * @return true if the very center of the board is at least a filled space.
+   * @param patch  Patch to be placed, in the orientation of the area.
+   * @param anchor The space (line * 9 + column) of the top left corner of the
+   *               patch.
+   * @param low    The first 64 spaces of the area.
+   * @param high   The last 17 spaces of the area.
    */
-  private boolean CenterGridFilled() {
-    return grid.get(new Coordinate(4, 4));
+  public void placeArea(Patch patch, int anchor, long low, long high) {
+    Objects.requireNonNull(patch);
+    placedPatches[placedCount] = patch;
+    placedAnchors[placedCount] = anchor;
+    placedLowSpaces[placedCount] = low;
+    placedHighSpaces[placedCount] = high;
+    placedCount++;
+    income += patch.income();
+    updateGrid(low, high);
   }
 
   /**
-   * Returns true if there is enough filled space.
-   * 
-   * @return true if there is enough filled space.
+   * Remove the last placed patch from the quiltboard.
    */
-  private boolean enoughFilledSpace() {
-    return 81 - numberOfEmptySpace() >= 49;
+  public void undoPlacePatch() {
+    if (placedCount == 0)
+      throw new IllegalStateException("no patch placed");
+    placedCount--;
+    income -= placedPatches[placedCount].income();
+    clearGrid(placedLowSpaces[placedCount], placedHighSpaces[placedCount]);
+    placedPatches[placedCount] = null;
   }
 
   /**
-   * Returns true if the quiltboard has the specificities to start a full check
-   * since it is an expensive operation.
+   * Give the score difference the quiltboard would make if the patch were placed
+   * at the given position, without changing the board. Each space filled by the
+   * patch is one less empty space worth -2, and completing the first full 7x7
+   * square of the board is worth the 7 points of the 7x7 tile if it is still
+   * available.
+   * 
+   * @param patch         Patch to be placed.
+   * @param padding       Coordinate refered in the board.
+   * @param tileAvailable true if nobody has the 7x7 tile yet.
    * 
-   * @return true if the quiltboard has the specificities to start a full check
+   * @return The score difference or Integer.MIN_VALUE if the patch could not be
+   *         placed.
    */
-  private boolean needToBeChecked() {
-    return enoughFilledSpace() && CenterGridFilled();
+  public int scoreDeltaIfPlaced(Patch patch, Coordinate padding, boolean tileAvailable) {
+    Objects.requireNonNull(patch);
+    Objects.requireNonNull(padding);
+
+    var low = areaMask(patch, padding, false);
+    var high = areaMask(patch, padding, true);
+    if (!isValidArea(low, high))
+      return Integer.MIN_VALUE;
+    var delta = 2 * (Long.bitCount(low) + Long.bitCount(high));
+    if (tileAvailable && fullSquares == 0 && completes7x7Area(low, high))
+      delta += 7;
+    return delta;
   }
 
   /**
-   * Checks if the current 7x7 square is full of filled spaces.
+   * Checks if the current quiltboard has a 7x7 area.
    * 
-   * @param startingLine   the starting line of the square
-   * @param startingColumn the starting column of the square
+   * @return true if one of the 9 possible 7x7 squares is full of filled spaces.
+   */
+  public boolean check7x7Area() {
+    return fullSquares > 0;
+  }
+
+  /**
+   * Give the number of filled spaces of the most filled 7x7 square.
    * 
-   * @return true if the square is full of true values and false otherwise.
-   */
-  private boolean isACorrectSquare(int startingLine, int startingColumn) {
-    var lineLimit = startingLine + 7;
-    var columnLimit = startingLine + 7;
-    for (var line = startingLine; line < lineLimit; line++) {
-      for (var column = startingColumn; column < columnLimit; column++) {
-        if (grid.get(new Coordinate(line, column)) == false)
-          return false;
-      }
-    }
-    return true;
+   * @return The number of filled spaces, 49 if a 7x7 square is full.
+   */
+  public int best7x7Fill() {
+    var best = 0;
+    for (var fill : squaresFill)
+      best = Math.max(best, fill);
+    return best;
   }
 
   /**
-   * Computes the checking on squares among all 9 possibilities of 7x7.
+   * Checks if filling the area given in parameter would complete a 7x7 square,
+   * without changing the board.
    * 
-   * @return true if a correct 7x7 square is found.
+   * @param low  The first 64 spaces of the area.
+   * @param high The last 17 spaces of the area.
+   * @return true if a 7x7 square which is not full yet would be full.
    */
-  private boolean computeChecking() {
-    for (var firstLine = 0; firstLine < 3; firstLine++) {
-      for (var firstColumn = 0; firstColumn < 3; firstColumn++) {
-        if (isACorrectSquare(firstLine, firstColumn))
-          return true;
-      }
+  public boolean completes7x7Area(long low, long high) {
+    for (var square = 0; square < SQUARES_LOW.length; square++) {
+      if (squaresFill[square] < SQUARE_SPACES && squaresFill[square] + Long.bitCount(low & SQUARES_LOW[square])
+          + Long.bitCount(high & SQUARES_HIGH[square]) == SQUARE_SPACES)
+        return true;
     }
     return false;
   }
 
   /**
-   * Checks if the current quiltboard has a 7x7 area.
+   * Checks if placing the patch at the given position would complete a 7x7
+   * square, without changing the board.
    * 
-   * @return false if no checking is requiered or {@code computeChecking()} return
-   *         value otherwise.
+   * @param patch   Patch to be placed.
+   * @param padding Coordinate refered in the board.
+   * @return true if the patch could be placed and would complete a 7x7 square.
    */
-  public boolean check7x7Area() {
-    // not necessary to check if there isnt enough filled spaces.
-    if (needToBeChecked()) {
-      return computeChecking();
-    }
-    return false;
+  public boolean completes7x7Area(Patch patch, Coordinate padding) {
+    Objects.requireNonNull(patch);
+    Objects.requireNonNull(padding);
+
+    var low = areaMask(patch, padding, false);
+    var high = areaMask(patch, padding, true);
+    return isValidArea(low, high) && completes7x7Area(low, high);
   }
 
   /**
@@ -239,20 +522,17 @@ public class QuiltBoard {
   @Override
   public String toString() {
     var builder = new StringBuilder();
-    int size = 9;
-    int index = 0;
-    builder.append(printIndexOfSize(size));
-    for (var location : grid.entrySet()) {
-      if (location.getKey().isStartOfLine()) {
-        builder.append(index).append(" | ");
-        index++;
-      }
-      if (location.getValue() == true) {
-        builder.append("# ");
-      } else {
-        builder.append(". ");
+    builder.append(printIndexOfSize(SIZE));
+    for (var line = 0; line < SIZE; line++) {
+      builder.append(line).append(" | ");
+      for (var column = 0; column < SIZE; column++) {
+        if (isFilled(line, column)) {
+          builder.append("# ");
+        } else {
+          builder.append(". ");
+        }
       }
-      if (location.getKey().isBorder() && !location.getKey().isLastLine()) {
+      if (line < SIZE - 1) {
         builder.append('\n');
       }
     }
@@ -275,10 +555,8 @@ public class QuiltBoard {
         graphics.draw(new Rectangle2D.Float(1024 + 32 * i, 170 + 32 * j, 32, 32));
       }
     }
-    Coordinate coord;
-    for (var patches: patchesPosition.entrySet()) {
-      coord = patches.getValue();
-      patches.getKey().display(graphics, 1024 + 32 * coord.column(), 170 + 32 * coord.line());
+    for (var i = 0; i < placedCount; i++) {
+      placedPatches[i].display(graphics, 1024 + 32 * (placedAnchors[i] % SIZE), 170 + 32 * (placedAnchors[i] / SIZE));
     }
   }
   
@@ -314,16 +592,16 @@ public class QuiltBoard {
    */
   public void displayMini(Graphics2D graphics, int xToAdd) {
     Objects.requireNonNull(graphics);
-    Coordinate coord;
-    for (var space: grid.entrySet()) {
-      coord = space.getKey();
-      if (space.getValue())
+    for (var line = 0; line < SIZE; line++) {
+      for (var column = 0; column < SIZE; column++) {
+        if (isFilled(line, column))
+          graphics.setColor(Color.BLACK);
+        else
+          graphics.setColor(Color.WHITE);
+        graphics.fill(new Rectangle2D.Float(xToAdd + 200 + 16 * column, 925 + 16 * line, 16, 16));
         graphics.setColor(Color.BLACK);
-      else
-        graphics.setColor(Color.WHITE);
-      graphics.fill(new Rectangle2D.Float(xToAdd + 200 + 16 * coord.column(), 925 + 16 * coord.line(), 16, 16));
-      graphics.setColor(Color.BLACK);
-      graphics.draw(new Rectangle2D.Float(xToAdd + 200 + 16 * coord.column(), 925 + 16 * coord.line(), 16, 16));
+        graphics.draw(new Rectangle2D.Float(xToAdd + 200 + 16 * column, 925 + 16 * line, 16, 16));
+      }
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package fr.uge.patchwork;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+/**
+ * Search playing the default policy of the playouts of a
+ * {@link MonteCarloSearch} : an affordable patch placed at random most of the
+ * time, advancing otherwise. It does not search at all, so it is the fastest
+ * opponent, for example to simulate many games.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class RandomSearch implements MoveSearch {
+  /**
+   * The random generator of the moves.
+   */
+  private final SplittableRandom random;
+
+  /**
+   * RandomSearch constructor : Create a search whose moves depend only on the
+   * seed and on the games played.
+   *
+   * @param seed The seed of the random generator.
+   */
+  public RandomSearch(long seed) {
+    random = new SplittableRandom(seed);
+  }
+
+  @Override
+  public int bestMove(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    if (patchwork.isOver())
+      throw new IllegalStateException("game is over");
+    return randomMove(patchwork, random);
+  }
+
+  @Override
+  public String toString() {
+    return "random";
+  }
+
+  /**
+   * Choose a move with the default policy : a special patch at a random free
+   * space, otherwise one of the affordable patches in a random orientation at a
+   * random free anchor, or advancing if there is none or one time in four.
+   *
+   * @param game   The game, not over.
+   * @param random The random generator.
+   * @return The encoded move.
+   */
+  static int randomMove(Patchwork game, SplittableRandom random) {
+    var player = game.getPlayer(game.getPlayerTurn());
+    var quiltBoard = player.getQuiltBoard();
+    var patchesList = game.getPatchesList();
+    var table = patchesList.getPlacementTable();
+    if (game.getPendingSpecialPatches() > 0) {
+      var anchor = randomAnchor(table, quiltBoard, table.specialPatchOrientation(), random);
+      return Move.encode(Move.SPECIAL_PATCH, 0, 0, anchor);
+    }
+    if (random.nextInt(4) > 0) {
+      var catalog = patchesList.getCatalog();
+      var first = random.nextInt(3);
+      for (var rank = 0; rank < 3; rank++) {
+        var position = patchesList.nextPosition((first + rank) % 3);
+        if (position < 0 || !player.hasEnoughButtons(catalog.cost(patchesList.patchId(position))))
+          continue;
+        var id = patchesList.patchId(position);
+        var count = catalog.orientationCount(id);
+        var orientation = random.nextInt(count);
+        for (var k = 0; k < count; k++) {
+          var index = (orientation + k) % count;
+          var anchor = randomAnchor(table, quiltBoard, catalog.placementOrientation(id, index), random);
+          if (anchor != Move.NO_ANCHOR)
+            return Move.encode(Move.TAKE, position, index, anchor);
+        }
+      }
+    }
+    return Move.encode(Move.ADVANCE, 0, 0, Move.NO_ANCHOR);
+  }
+
+  /**
+   * Give the first free anchor of an orientation after a random one.
+   *
+   * @param table       The placement table.
+   * @param quiltBoard  The quiltboard.
+   * @param orientation The orientation index in the placement table.
+   * @param random      The random generator.
+   * @return The space of the anchor or {@link Move#NO_ANCHOR}.
+   */
+  private static int randomAnchor(PlacementTable table, QuiltBoard quiltBoard, int orientation,
+      SplittableRandom random) {
+    var from = random.nextInt(table.anchorCount(orientation));
+    var index = table.nextLegalAnchor(quiltBoard, orientation, from);
+    if (index < 0)
+      index = table.nextLegalAnchor(quiltBoard, orientation, 0);
+    return (index < 0) ? Move.NO_ANCHOR : table.anchor(orientation, index);
+  }
+}
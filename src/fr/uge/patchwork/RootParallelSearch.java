@@ -0,0 +1,262 @@
+package fr.uge.patchwork;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Monte Carlo tree search of the best move of the current player of a
+ * {@link Patchwork}, parallelized at the root : each worker of a
+ * {@link ForkJoinPool} builds its own tree on its own copy of the game with its
+ * own seed, split from the seed of the search, and the visits and results of
+ * the moves of the roots are merged at the deadline. The workers share nothing
+ * during the search, unlike the threads of a {@link MonteCarloSearch}.
+ *
+ * The pool is either owned by the search and shut down by {@link #close()}, as
+ * the pool of a {@link MonteCarloSearch}, or given to the constructor and
+ * shared by several searches.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class RootParallelSearch implements MoveSearch {
+  /**
+   * The time budget of a move in nanoseconds.
+   */
+  private final long budget;
+  /**
+   * The pool running the workers.
+   */
+  private final ForkJoinPool pool;
+  /**
+   * If the pool has been created by the search and is shut down with it.
+   */
+  private final boolean ownsPool;
+  /**
+   * The single-threaded search of each worker.
+   */
+  private final MonteCarloSearch[] searches;
+  /**
+   * The random generator giving the seed of each worker at each move.
+   */
+  private final SplittableRandom seeds;
+  /**
+   * The duration of the last search in nanoseconds.
+   */
+  private long duration;
+  /**
+   * The merged statistics of the moves of the root of the last search : for
+   * each encoded move, its visits and its half wins.
+   */
+  private final HashMap<Integer, long[]> rootStatistics;
+
+  /**
+   * RootParallelSearch constructor : Create a search with the given time budget
+   * running its workers in a shared pool, which is not shut down by
+   * {@link #close()}.
+   *
+   * @param timeBudget The time budget of a move in milliseconds.
+   * @param workers    The number of independent searches.
+   * @param seed       The seed of the random generators of the workers.
+   * @param pool       The pool running the workers.
+   */
+  public RootParallelSearch(long timeBudget, int workers, long seed, ForkJoinPool pool) {
+    this(timeBudget, workers, seed, Objects.requireNonNull(pool), false);
+  }
+
+  /**
+   * RootParallelSearch constructor : Create a search with the given time budget
+   * and its own pool, shut down by {@link #close()}.
+   *
+   * @param timeBudget The time budget of a move in milliseconds.
+   * @param workers    The number of independent searches.
+   * @param seed       The seed of the random generators of the workers.
+   */
+  public RootParallelSearch(long timeBudget, int workers, long seed) {
+    this(timeBudget, workers, seed, null, true);
+  }
+
+  /**
+   * RootParallelSearch constructor : Create a search with the given time budget.
+   *
+   * @param timeBudget The time budget of a move in milliseconds.
+   * @param workers    The number of independent searches.
+   * @param seed       The seed of the random generators of the workers.
+   * @param pool       The pool running the workers, or null to create one.
+   * @param ownsPool   If the pool is shut down by {@link #close()}.
+   */
+  private RootParallelSearch(long timeBudget, int workers, long seed, ForkJoinPool pool, boolean ownsPool) {
+    if (timeBudget <= 0)
+      throw new IllegalArgumentException("timeBudget <= 0");
+    if (workers <= 0)
+      throw new IllegalArgumentException("workers <= 0");
+    budget = timeBudget * 1_000_000;
+    this.pool = (pool == null) ? new ForkJoinPool(workers) : pool;
+    this.ownsPool = ownsPool;
+    searches = new MonteCarloSearch[workers];
+    for (var i = 0; i < workers; i++)
+      searches[i] = new MonteCarloSearch(timeBudget, 1, i);
+    seeds = new SplittableRandom(seed);
+    rootStatistics = new HashMap<>();
+  }
+
+  /**
+   * RootParallelSearch constructor : Create a search using all the processors.
+   *
+   * @param timeBudget The time budget of a move in milliseconds.
+   * @param seed       The seed of the random generators of the workers.
+   */
+  public RootParallelSearch(long timeBudget, long seed) {
+    this(timeBudget, Runtime.getRuntime().availableProcessors(), seed);
+  }
+
+  @Override
+  public int bestMove(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    if (patchwork.isOver())
+      throw new IllegalStateException("game is over");
+    var start = System.nanoTime();
+    var deadline = start + budget - budget / 20;
+    var tasks = new ArrayList<Callable<MonteCarloSearch.RootStatistics>>();
+    for (var i = 0; i < searches.length; i++) {
+      var search = searches[i];
+      var game = new Patchwork(patchwork);
+      var seed = seeds.nextLong();
+      tasks.add(() -> search.searchRoot(game, seed, deadline));
+    }
+    rootStatistics.clear();
+    try {
+      for (var result : pool.invokeAll(tasks))
+        merge(result.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("search interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("search failed", e.getCause());
+    }
+    duration = System.nanoTime() - start;
+    return mostVisited(patchwork);
+  }
+
+  /**
+   * Add the statistics of the root of a worker to the merged statistics.
+   *
+   * @param statistics The statistics of the worker.
+   */
+  private void merge(MonteCarloSearch.RootStatistics statistics) {
+    for (var i = 0; i < statistics.moves().length; i++) {
+      var merged = rootStatistics.computeIfAbsent(statistics.moves()[i], move -> new long[2]);
+      merged[0] += statistics.visits()[i];
+      merged[1] += statistics.halfWins()[i];
+    }
+  }
+
+  /**
+   * Give the move with the most merged visits, the best results deciding
+   * between moves with as many visits.
+   *
+   * @param patchwork The game, used if no move has been tried.
+   * @return The encoded move.
+   */
+  private int mostVisited(Patchwork patchwork) {
+    var best = -1;
+    long[] bestStatistics = null;
+    for (var entry : rootStatistics.entrySet()) {
+      var statistics = entry.getValue();
+      if (bestStatistics == null || statistics[0] > bestStatistics[0]
+          || (statistics[0] == bestStatistics[0] && statistics[1] > bestStatistics[1])) {
+        best = entry.getKey();
+        bestStatistics = statistics;
+      }
+    }
+    if (best >= 0)
+      return best;
+    var generator = new MoveGenerator();
+    generator.generate(patchwork);
+    return generator.move(0);
+  }
+
+  /**
+   * Give the merged number of playouts of a move of the root in the last
+   * search.
+   *
+   * @param move The encoded move.
+   * @return The number of playouts.
+   */
+  public long visits(int move) {
+    var statistics = rootStatistics.get(move);
+    return (statistics == null) ? 0 : statistics[0];
+  }
+
+  /**
+   * Give the merged results of a move of the root in the last search, for the
+   * player to move.
+   *
+   * @param move The encoded move.
+   * @return The part of the playouts won, a draw counting as half a win.
+   */
+  public double value(int move) {
+    var statistics = rootStatistics.get(move);
+    return (statistics == null || statistics[0] == 0) ? 0 : statistics[1] / (2.0 * statistics[0]);
+  }
+
+  /**
+   * Give the number of playouts per second of the last search, all workers
+   * together.
+   *
+   * @return The number of playouts per second.
+   */
+  public double playoutsPerSecond() {
+    var playouts = 0L;
+    for (var search : searches)
+      playouts += search.playouts();
+    return (duration == 0) ? 0 : playouts * 1e9 / duration;
+  }
+
+  /**
+   * Give the number of nodes of the trees of the last search.
+   *
+   * @return The number of nodes.
+   */
+  public long treeSize() {
+    var size = 0L;
+    for (var search : searches)
+      size += search.treeSize();
+    return size;
+  }
+
+  /**
+   * Give the approximate memory used by the trees of the last search.
+   *
+   * @return The memory in bytes.
+   */
+  public long memoryUsed() {
+    var memory = 0L;
+    for (var search : searches)
+      memory += search.memoryUsed();
+    return memory;
+  }
+
+  /**
+   * Shut down the pool of the search if it has created it. A shared pool is
+   * left running.
+   */
+  @Override
+  public void close() {
+    if (ownsPool)
+      pool.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    var playouts = 0L;
+    for (var search : searches)
+      playouts += search.playouts();
+    return String.format("%d workers, %d playouts, %.0f playouts/s, %d nodes, %.1f MB", searches.length, playouts,
+        playoutsPerSecond(), treeSize(), memoryUsed() / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,145 @@
+package fr.uge.patchwork;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+/**
+ * Bounded pool of searches shared by several games, for example the sessions
+ * of a {@link GameServer}. A search is borrowed only for the time of a move,
+ * so that a game waiting for its other player holds no search and no
+ * transposition table. The searches are created when they are first needed,
+ * at most a given number of them, and a move waits for a free search when they
+ * are all used.
+ *
+ * A search can play moves of games dealt from different seeds, since the hash
+ * of a game depends on its deal.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class SearchPool implements MoveSearch {
+  /**
+   * The factory of the searches, given the seed of each search.
+   */
+  private final LongFunction<MoveSearch> factory;
+  /**
+   * The seed of the first search, the next searches having the following
+   * seeds.
+   */
+  private final long seed;
+  /**
+   * The maximum number of searches.
+   */
+  private final int capacity;
+  /**
+   * The searches created and not borrowed.
+   */
+  private final ArrayBlockingQueue<MoveSearch> idle;
+  /**
+   * The number of searches created.
+   */
+  private final AtomicInteger created;
+  /**
+   * If the pool has been closed, the searches given back being then closed.
+   */
+  private volatile boolean closed;
+
+  /**
+   * SearchPool constructor : Create a pool creating its searches when they are
+   * needed.
+   *
+   * @param factory  The factory of the searches, given the seed of each search.
+   * @param seed     The seed of the first search, the next searches having the
+   *                 following seeds.
+   * @param capacity The maximum number of searches.
+   */
+  public SearchPool(LongFunction<MoveSearch> factory, long seed, int capacity) {
+    Objects.requireNonNull(factory);
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity <= 0");
+    this.factory = factory;
+    this.seed = seed;
+    this.capacity = capacity;
+    idle = new ArrayBlockingQueue<>(capacity);
+    created = new AtomicInteger();
+  }
+
+  /**
+   * Borrow a search, created if there is none free and fewer than the capacity
+   * have been created, otherwise waited for.
+   *
+   * @return The search.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  private MoveSearch borrow() throws InterruptedException {
+    var search = idle.poll();
+    while (search == null) {
+      var count = created.get();
+      if (count == capacity)
+        return idle.take();
+      if (created.compareAndSet(count, count + 1))
+        return factory.apply(seed + count);
+      search = idle.poll();
+    }
+    return search;
+  }
+
+  /**
+   * Search the best move with a borrowed search, given back once the move is
+   * found.
+   *
+   * @param patchwork The game, not over.
+   * @return The best move encoded by {@link Move#encode()}.
+   */
+  @Override
+  public int bestMove(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    MoveSearch search;
+    try {
+      search = borrow();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("search interrupted", e);
+    }
+    try {
+      return search.bestMove(patchwork);
+    } finally {
+      idle.add(search);
+      if (closed)
+        closeIdle();
+    }
+  }
+
+  /**
+   * Give the number of searches created.
+   *
+   * @return The number of searches.
+   */
+  public int created() {
+    return created.get();
+  }
+
+  /**
+   * Close the searches not borrowed.
+   */
+  private void closeIdle() {
+    for (var search = idle.poll(); search != null; search = idle.poll())
+      search.close();
+  }
+
+  /**
+   * Close the searches, a search borrowed being closed when it is given back.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    closeIdle();
+  }
+
+  @Override
+  public String toString() {
+    return created.get() + "/" + capacity + " searches";
+  }
+}
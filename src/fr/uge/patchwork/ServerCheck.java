@@ -0,0 +1,111 @@
+package fr.uge.patchwork;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Runnable check of the cost of idle sessions of a {@link GameServer} : a
+ * server is started on the loopback address, sessions are opened until each
+ * of them waits for its player to take a patch, and the heap and the threads
+ * they use are measured. The client sockets live in the same program, so their
+ * memory is counted with the sessions.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class ServerCheck {
+  /**
+   * The last line sent by the server before waiting for the player.
+   */
+  private static final byte[] TAKE = "TAKE\n".getBytes(StandardCharsets.UTF_8);
+  /**
+   * Number of garbage collections asked before measuring the heap.
+   */
+  private static final int COLLECTIONS = 5;
+
+  /**
+   * ServerCheck constructor : No instance, only static methods.
+   */
+  private ServerCheck() {
+  }
+
+  /**
+   * Open idle sessions on a server and measure their cost.
+   *
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   * @param sessions The number of sessions.
+   * @param progress The stream where the result is reported, or null to report
+   *                 nothing.
+   * @return The heap used by a session in bytes.
+   * @throws IOException           If the server can not be started or a
+   *                               session can not be opened.
+   * @throws IllegalStateException If a session is not played, or if a search
+   *                               is created while no computer player has to
+   *                               move.
+   */
+  public static long run(int gameMode, int sessions, PrintStream progress) throws IOException {
+    if (sessions <= 0)
+      throw new IllegalArgumentException("sessions <= 0");
+    var threads = ManagementFactory.getThreadMXBean();
+    var clients = new ArrayList<Socket>(sessions);
+    try (var server = new GameServer(InetAddress.getLoopbackAddress(), 0, gameMode, RandomSearch::new, 1, 0, 0)) {
+      server.start();
+      var heapBefore = usedHeap();
+      var threadsBefore = threads.getThreadCount();
+      try {
+        for (var i = 0; i < sessions; i++) {
+          var client = new Socket(InetAddress.getLoopbackAddress(), server.port());
+          clients.add(client);
+          waitForTake(client.getInputStream());
+        }
+        var heap = usedHeap() - heapBefore;
+        var sessionThreads = threads.getThreadCount() - threadsBefore;
+        if (server.activeSessions() != sessions)
+          throw new IllegalStateException(server.activeSessions() + " sessions played instead of " + sessions);
+        if (server.searches() != 0)
+          throw new IllegalStateException(server.searches() + " searches created by idle sessions");
+        if (progress != null)
+          progress.printf("%d idle sessions, %d KB of heap and %.2f threads by session, no search created%n",
+              sessions, heap / sessions / 1024, (double) sessionThreads / sessions);
+        return heap / sessions;
+      } finally {
+        for (var client : clients)
+          client.close();
+      }
+    }
+  }
+
+  /**
+   * Read what the server sends until it waits for the player to take a patch.
+   *
+   * @param input The bytes sent by the server.
+   * @throws IOException If the server closes the session before.
+   */
+  private static void waitForTake(InputStream input) throws IOException {
+    var matched = 0;
+    while (matched < TAKE.length) {
+      var read = input.read();
+      if (read == -1)
+        throw new IOException("session closed by the server");
+      matched = (read == TAKE[matched]) ? matched + 1 : (read == TAKE[0]) ? 1 : 0;
+    }
+  }
+
+  /**
+   * Give the heap used after a few garbage collections.
+   *
+   * @return The heap used in bytes.
+   */
+  private static long usedHeap() {
+    var runtime = Runtime.getRuntime();
+    for (var i = 0; i < COLLECTIONS; i++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,304 @@
+package fr.uge.patchwork;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Headless simulator of games between two computer players, without any user
+ * interface. The games are played by the workers of a {@link ForkJoinPool}
+ * created for each run, each game being dealt from its own seed so that any
+ * game can be played again, and the result of each game is written as a CSV
+ * line as soon as it is known.
+ *
+ * The patches file is read once : every game is dealt from the patches of a
+ * first game.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class Simulator {
+  /**
+   * The header of the CSV output.
+   */
+  public static final String CSV_HEADER = "seed,score1,score2,winner,moves,owner7x7,firstPlayerAtEnd";
+  /**
+   * Number of games written by a worker at once.
+   */
+  private static final int FLUSH_GAMES = 256;
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+  /**
+   * The game whose patches are dealt in every game.
+   */
+  private final Patchwork template;
+  /**
+   * The search of the player 1 of a game, created from the seed of the game.
+   */
+  private final LongFunction<MoveSearch> firstPlayer;
+  /**
+   * The search of the player 2 of a game, created from the seed of the game.
+   */
+  private final LongFunction<MoveSearch> secondPlayer;
+  /**
+   * The number of workers.
+   */
+  private final int workers;
+  /**
+   * The number of games played by the last run.
+   */
+  private final LongAdder played;
+  /**
+   * The stream where the statistics of the search of each move are written, or
+   * null to write nothing.
+   */
+  private final PrintStream metrics;
+
+  /**
+   * The result of a game.
+   *
+   * @param seed             The seed of the game.
+   * @param firstScore       The score of the player 1.
+   * @param secondScore      The score of the player 2.
+   * @param moves            The number of moves played, special patches
+   *                         included.
+   * @param owner7x7         The player who got the 7x7 tile (1 or 2), 0 if
+   *                         nobody got it.
+   * @param firstPlayerAtEnd The first player who reached the end of the time
+   *                         board (1 or 2), 0 if nobody did.
+   */
+  public record GameResult(long seed, int firstScore, int secondScore, int moves, int owner7x7,
+      int firstPlayerAtEnd) {
+    /**
+     * Give the winner of the game, the first player at the end of the time board
+     * winning a draw.
+     *
+     * @return The winner (1 or 2) or 0 for a draw nobody can win.
+     */
+    public int winner() {
+      return (firstScore > secondScore) ? 1 : (firstScore < secondScore) ? 2 : firstPlayerAtEnd;
+    }
+
+    /**
+     * Give the CSV line of the result, in the columns of {@link #CSV_HEADER}.
+     *
+     * @return The line, without line separator.
+     */
+    public String toCsv() {
+      return seed + "," + firstScore + "," + secondScore + "," + winner() + "," + moves + "," + owner7x7 + ","
+          + firstPlayerAtEnd;
+    }
+  }
+
+  /**
+   * Simulator constructor : Create a simulator of games between two players.
+   *
+   * @param gameMode     The Game mode : 1 - Basic Game Mode 2 - Complete Game
+   *                     Mode
+   * @param firstPlayer  The search of the player 1, created from the seed of
+   *                     each game.
+   * @param secondPlayer The search of the player 2, created from the seed of
+   *                     each game.
+   * @param workers      The number of threads playing the games.
+   * @param metrics      The stream where the statistics of the search of each
+   *                     move are written, or null to write nothing.
+   */
+  public Simulator(int gameMode, LongFunction<MoveSearch> firstPlayer, LongFunction<MoveSearch> secondPlayer,
+      int workers, PrintStream metrics) {
+    Objects.requireNonNull(firstPlayer);
+    Objects.requireNonNull(secondPlayer);
+    if (gameMode != 1 && gameMode != 2)
+      throw new IllegalArgumentException("gameMode has to be 1 or 2.");
+    if (workers <= 0)
+      throw new IllegalArgumentException("workers <= 0");
+    template = new Patchwork(TIME_BOARD_SIZE, gameMode);
+    template.loadPatches();
+    this.firstPlayer = firstPlayer;
+    this.secondPlayer = secondPlayer;
+    this.workers = workers;
+    played = new LongAdder();
+    this.metrics = metrics;
+  }
+
+  /**
+   * Simulator constructor : Create a simulator of games between two players
+   * writing no statistics of the searches.
+   *
+   * @param gameMode     The Game mode : 1 - Basic Game Mode 2 - Complete Game
+   *                     Mode
+   * @param firstPlayer  The search of the player 1, created from the seed of
+   *                     each game.
+   * @param secondPlayer The search of the player 2, created from the seed of
+   *                     each game.
+   * @param workers      The number of threads playing the games.
+   */
+  public Simulator(int gameMode, LongFunction<MoveSearch> firstPlayer, LongFunction<MoveSearch> secondPlayer,
+      int workers) {
+    this(gameMode, firstPlayer, secondPlayer, workers, null);
+  }
+
+  /**
+   * Play a game until its end.
+   *
+   * @param seed The seed of the game, dealing the patches and the time board
+   *             and creating the searches of the players.
+   * @return The result of the game.
+   */
+  public GameResult play(long seed) {
+    return play(template, seed, firstPlayer.apply(seed), secondPlayer.apply(~seed), metrics);
+  }
+
+  /**
+   * Play a game dealt from the patches of another game until its end, the
+   * searches of the players being closed at the end of the game.
+   *
+   * @param template The game whose patches are dealt.
+   * @param seed     The seed of the game.
+   * @param first    The search of the player 1.
+   * @param second   The search of the player 2.
+   * @param metrics  The stream where the statistics of the search of each move
+   *                 are written, or null to write nothing.
+   * @return The result of the game.
+   */
+  static GameResult play(Patchwork template, long seed, MoveSearch first, MoveSearch second, PrintStream metrics) {
+    var game = new Patchwork(template, seed);
+    var searches = new MoveSearch[] { first, second };
+    var moves = 0;
+    try (first; second) {
+      while (!game.isOver()) {
+        var player = game.getPlayerTurn();
+        var search = searches[player - 1];
+        game.apply(search.bestMove(game));
+        if (metrics != null)
+          metrics.println("game " + seed + " move " + moves + " player " + player + " : " + search);
+        moves++;
+      }
+    }
+    var owner7x7 = game.getPlayer(1).getHas7x7() ? 1 : game.getPlayer(2).getHas7x7() ? 2 : 0;
+    return new GameResult(seed, game.getPlayer(1).score(), game.getPlayer(2).score(), moves, owner7x7,
+        game.getFirstPlayerAtEnd());
+  }
+
+  /**
+   * Play games and write their results, the game of index i having the seed
+   * seed + i. The lines are written in the order the games end, by blocks of
+   * games of each worker.
+   *
+   * @param games    The number of games.
+   * @param seed     The seed of the first game.
+   * @param output   The CSV output, the header being written first.
+   * @param progress The stream where the throughput is reported every second,
+   *                 or null to report nothing.
+   * @throws IOException If the results can not be written.
+   */
+  public void run(long games, long seed, Writer output, PrintStream progress) throws IOException {
+    Objects.requireNonNull(output);
+    if (games < 0)
+      throw new IllegalArgumentException("games < 0");
+    output.write(CSV_HEADER + System.lineSeparator());
+    played.reset();
+    var next = new AtomicLong();
+    var start = System.nanoTime();
+    ScheduledExecutorService reporter = null;
+    if (progress != null) {
+      reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "simulator-progress");
+        thread.setDaemon(true);
+        return thread;
+      });
+      reporter.scheduleAtFixedRate(() -> report(progress, games, start), 1, 1, TimeUnit.SECONDS);
+    }
+    var tasks = new ArrayList<Callable<Void>>();
+    for (var i = 0; i < workers; i++) {
+      tasks.add(() -> {
+        var lines = new StringBuilder();
+        var buffered = 0;
+        for (var index = next.getAndIncrement(); index < games; index = next.getAndIncrement()) {
+          lines.append(play(seed + index).toCsv()).append(System.lineSeparator());
+          played.increment();
+          if (++buffered == FLUSH_GAMES) {
+            write(output, lines);
+            buffered = 0;
+          }
+        }
+        write(output, lines);
+        return null;
+      });
+    }
+    var pool = new ForkJoinPool(workers);
+    try {
+      for (var future : pool.invokeAll(tasks))
+        future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("simulation interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UncheckedIOException cause)
+        throw cause.getCause();
+      throw new IllegalStateException("simulation failed", e.getCause());
+    } finally {
+      pool.shutdown();
+      if (reporter != null)
+        reporter.shutdownNow();
+    }
+    output.flush();
+    if (progress != null) {
+      report(progress, games, start);
+      progress.println();
+    }
+  }
+
+  /**
+   * Write the lines of a worker and empty them.
+   *
+   * @param output The CSV output, shared by the workers.
+   * @param lines  The lines of the worker.
+   */
+  private static void write(Writer output, StringBuilder lines) {
+    synchronized (output) {
+      try {
+        output.append(lines);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    lines.setLength(0);
+  }
+
+  /**
+   * Report the number of games played and the throughput.
+   *
+   * @param progress The stream of the report.
+   * @param games    The number of games to play.
+   * @param start    The time the run started in nanoseconds.
+   */
+  private void report(PrintStream progress, long games, long start) {
+    var count = played.sum();
+    var seconds = (System.nanoTime() - start) / 1e9;
+    var perSecond = (seconds == 0) ? 0 : count / seconds;
+    progress.printf("\r%d/%d games, %.0f games/s, %.0f games/h", count, games, perSecond, perSecond * 3600);
+  }
+
+  /**
+   * Give the number of games played by the last run, updated while it runs.
+   *
+   * @return The number of games.
+   */
+  public long played() {
+    return played.sum();
+  }
+}
@@ -0,0 +1,505 @@
+package fr.uge.patchwork;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TCP channel broadcasting a featured game to spectators. Each move is sent as
+ * a small delta, and a keyframe holding the whole game is sent when a game
+ * starts and every {@link #KEYFRAME_INTERVAL} moves. Every message is encoded
+ * once and the same bytes are queued for all the spectators. A spectator who
+ * joins late receives the last keyframe and the deltas sent since. A spectator
+ * too slow to empty its queue loses its queued messages and receives nothing
+ * until the next keyframe.
+ *
+ * The messages are written by {@link #WRITERS} threads through non-blocking
+ * channels, each thread writing to a part of the spectators, so that a
+ * spectator costs no thread and a slow spectator never blocks the others.
+ *
+ * A message is an int giving the number of bytes that follow, then, every
+ * number being big-endian :
+ * <ul>
+ * <li>a delta : byte {@link #DELTA}, int sequence, byte player, byte move type
+ * ({@link Move#ADVANCE}, {@link Move#TAKE} or {@link Move#SPECIAL_PATCH}),
+ * byte position of the patch taken, byte catalog id of the patch taken (-1 if
+ * there is none), byte orientation, byte anchor, then after the move byte
+ * token position and short buttons of the player, byte special patches to
+ * place, byte player to move and long hash of the game ;</li>
+ * <li>a keyframe : byte {@link #KEYFRAME}, int sequence of the last delta
+ * included, long seed, byte game mode, byte owner of the 7x7 tile (0 if
+ * nobody), the state record of {@link BinaryProtocol#writeState}, byte number
+ * of patches left, then the catalog id of each patch left starting after the
+ * neutral token.</li>
+ * </ul>
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class SpectatorChannel implements AutoCloseable {
+  /**
+   * Type of a delta message.
+   */
+  public static final int DELTA = 1;
+  /**
+   * Type of a keyframe message.
+   */
+  public static final int KEYFRAME = 2;
+  /**
+   * Number of moves between two keyframes.
+   */
+  public static final int KEYFRAME_INTERVAL = 16;
+  /**
+   * Size in bytes of a delta message, its length included.
+   */
+  private static final int DELTA_SIZE = 4 + 24;
+  /**
+   * Number of messages a spectator can have waiting, larger than a keyframe
+   * and the deltas that follow it.
+   */
+  private static final int QUEUE_CAPACITY = 2 * KEYFRAME_INTERVAL;
+  /**
+   * Number of connections waiting to be accepted.
+   */
+  private static final int BACKLOG = 1024;
+  /**
+   * Size in bytes of the socket send buffer of a spectator, small so that a
+   * slow spectator is noticed by its queue rather than hidden by the system.
+   */
+  private static final int SEND_BUFFER_SIZE = 4096;
+  /**
+   * Number of threads writing the messages to the spectators.
+   */
+  public static final int WRITERS = 2;
+
+  /**
+   * A spectator and the messages waiting to be sent to it.
+   */
+  private static final class Spectator {
+    /**
+     * The channel of the spectator, not blocking.
+     */
+    private final SocketChannel channel;
+    /**
+     * The messages waiting to be sent, shared with the other spectators.
+     */
+    private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /**
+     * true when messages have been dropped and the spectator waits for a
+     * keyframe, only used by the thread publishing.
+     */
+    private boolean lagging;
+    /**
+     * The message being written, null if there is none, only used by the
+     * thread writing to the spectator.
+     */
+    private ByteBuffer current;
+    /**
+     * The key of the channel in the selector of the thread writing to the
+     * spectator.
+     */
+    private SelectionKey key;
+
+    /**
+     * Spectator constructor : Create a spectator connected to a channel.
+     *
+     * @param channel The channel of the spectator, not blocking.
+     */
+    private Spectator(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * A thread writing the messages of a part of the spectators : it wakes up
+   * when messages are published or when a channel can be written again, and
+   * writes to each of its spectators as much as its channel accepts.
+   */
+  private final class Writer implements Runnable {
+    /**
+     * The selector of the channels that could not be written entirely.
+     */
+    private final Selector selector;
+    /**
+     * The spectators given to the thread and not registered yet.
+     */
+    private final ConcurrentLinkedQueue<Spectator> joined;
+    /**
+     * The spectators of the thread, only used by the thread.
+     */
+    private final ArrayList<Spectator> owned;
+
+    /**
+     * Writer constructor : Create a writer without spectator.
+     *
+     * @throws IOException If the selector can not be opened.
+     */
+    private Writer() throws IOException {
+      selector = Selector.open();
+      joined = new ConcurrentLinkedQueue<>();
+      owned = new ArrayList<>();
+    }
+
+    /**
+     * Give a spectator to the thread.
+     *
+     * @param spectator The spectator.
+     */
+    private void add(Spectator spectator) {
+      joined.add(spectator);
+      selector.wakeup();
+    }
+
+    /**
+     * Write the messages until the channel is closed.
+     */
+    @Override
+    public void run() {
+      try {
+        while (serverChannel.isOpen()) {
+          selector.select();
+          selector.selectedKeys().clear();
+          for (var spectator = joined.poll(); spectator != null; spectator = joined.poll()) {
+            try {
+              spectator.key = spectator.channel.register(selector, 0, spectator);
+              owned.add(spectator);
+            } catch (IOException e) {
+              disconnect(spectator);
+            }
+          }
+          owned.removeIf(this::write);
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        // The channel is closed
+      } finally {
+        for (var spectator : owned)
+          disconnect(spectator);
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // Nothing more can be done
+        }
+      }
+    }
+
+    /**
+     * Write the messages of a spectator until its queue is empty or its
+     * channel is full, in which case the thread waits for the channel.
+     *
+     * @param spectator The spectator.
+     * @return true if the spectator has been disconnected.
+     */
+    private boolean write(Spectator spectator) {
+      try {
+        while (true) {
+          if (spectator.current == null) {
+            var message = spectator.queue.poll();
+            if (message == null) {
+              spectator.key.interestOps(0);
+              return false;
+            }
+            spectator.current = ByteBuffer.wrap(message);
+          }
+          spectator.channel.write(spectator.current);
+          if (spectator.current.hasRemaining()) {
+            spectator.key.interestOps(SelectionKey.OP_WRITE);
+            return false;
+          }
+          spectator.current = null;
+        }
+      } catch (IOException | CancelledKeyException e) {
+        // The spectator is disconnected or the channel is closed
+        disconnect(spectator);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * The channel accepting the spectators.
+   */
+  private final ServerSocketChannel serverChannel;
+  /**
+   * The threads writing the messages to the spectators.
+   */
+  private final Writer[] writers;
+  /**
+   * The spectators connected.
+   */
+  private final CopyOnWriteArrayList<Spectator> spectators;
+  /**
+   * The last keyframe, null before the first game.
+   */
+  private byte[] keyframe;
+  /**
+   * The deltas sent since the last keyframe.
+   */
+  private final ArrayList<byte[]> deltas;
+  /**
+   * The sequence of the last delta.
+   */
+  private int sequence;
+  /**
+   * The seed of the game being broadcast.
+   */
+  private long seed;
+  /**
+   * The number of times a spectator has been dropped to the next keyframe.
+   */
+  private final LongAdder dropped;
+  /**
+   * The thread accepting the spectators.
+   */
+  private Thread acceptor;
+  /**
+   * The number of spectators accepted, used to share them between the
+   * writers.
+   */
+  private int accepted;
+
+  /**
+   * SpectatorChannel constructor : Create a channel listening on an address.
+   *
+   * @param address The address listened, for example the loopback address.
+   * @param port    The port listened, 0 for any free port.
+   * @throws IOException If the address can not be listened.
+   */
+  public SpectatorChannel(InetAddress address, int port) throws IOException {
+    Objects.requireNonNull(address);
+    serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.bind(new InetSocketAddress(address, port), BACKLOG);
+      writers = new Writer[WRITERS];
+      for (var i = 0; i < WRITERS; i++)
+        writers[i] = new Writer();
+    } catch (IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+    spectators = new CopyOnWriteArrayList<>();
+    deltas = new ArrayList<>();
+    dropped = new LongAdder();
+  }
+
+  /**
+   * Start accepting spectators.
+   */
+  public void start() {
+    if (acceptor != null)
+      throw new IllegalStateException("channel already started");
+    acceptor = new Thread(this::accept, "spectator-channel");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    for (var writer : writers) {
+      var thread = new Thread(writer, "spectator-writer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Accept the spectators until the channel is closed.
+   */
+  private void accept() {
+    while (serverChannel.isOpen()) {
+      SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch (IOException e) {
+        // The server channel is closed
+        return;
+      }
+      try {
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+        channel.configureBlocking(false);
+      } catch (IOException e) {
+        try {
+          channel.close();
+        } catch (IOException closeException) {
+          // Nothing more can be done
+        }
+        continue;
+      }
+      var spectator = new Spectator(channel);
+      synchronized (this) {
+        // The spectator catches up from the last keyframe
+        if (keyframe != null) {
+          spectator.queue.add(keyframe);
+          spectator.queue.addAll(deltas);
+        }
+        spectators.add(spectator);
+        writers[accepted++ % WRITERS].add(spectator);
+      }
+    }
+  }
+
+  /**
+   * Wake up the writers so that they write the messages just queued.
+   */
+  private void wakeUpWriters() {
+    for (var writer : writers)
+      writer.selector.wakeup();
+  }
+
+  /**
+   * Close the channel of a spectator.
+   *
+   * @param spectator The spectator.
+   */
+  private void disconnect(Spectator spectator) {
+    spectators.remove(spectator);
+    try {
+      spectator.channel.close();
+    } catch (IOException e) {
+      // Nothing more can be done
+    }
+  }
+
+  /**
+   * Start broadcasting a game, sending its keyframe.
+   *
+   * @param patchwork The game, whose moves are then played by
+   *                  {@link #apply(Patchwork, int)}.
+   */
+  public synchronized void startGame(Patchwork patchwork) {
+    Objects.requireNonNull(patchwork);
+    seed = patchwork.getSeed();
+    broadcastKeyframe(patchwork);
+  }
+
+  /**
+   * Apply a move to the game being broadcast and send its delta, and a keyframe
+   * every {@link #KEYFRAME_INTERVAL} moves.
+   *
+   * @param patchwork The game being broadcast.
+   * @param move      The move encoded by {@link Move#encode()}.
+   */
+  public synchronized void apply(Patchwork patchwork, int move) {
+    Objects.requireNonNull(patchwork);
+    if (keyframe == null)
+      throw new IllegalStateException("no game started");
+    var player = patchwork.getPlayerTurn();
+    var type = Move.type(move);
+    var position = (type == Move.TAKE) ? Move.position(move) : 0;
+    var id = (type == Move.TAKE) ? patchwork.getPatchesList().patchId(position) : -1;
+    patchwork.apply(move);
+    var mover = patchwork.getPlayer(player);
+    var delta = ByteBuffer.allocate(DELTA_SIZE).putInt(DELTA_SIZE - 4).put((byte) DELTA).putInt(++sequence)
+        .put((byte) player).put((byte) type).put((byte) position).put((byte) id).put((byte) Move.orientation(move))
+        .put((byte) Move.anchor(move)).put((byte) mover.getTokenPosition()).putShort((short) mover.getButtons())
+        .put((byte) patchwork.getPendingSpecialPatches()).put((byte) patchwork.getPlayerTurn())
+        .putLong(patchwork.getHash()).array();
+    if (deltas.size() + 1 == KEYFRAME_INTERVAL) {
+      broadcastKeyframe(patchwork);
+      return;
+    }
+    deltas.add(delta);
+    for (var spectator : spectators) {
+      if (spectator.lagging)
+        continue;
+      if (!spectator.queue.offer(delta)) {
+        // Too slow : the queued messages are dropped until the next keyframe
+        spectator.queue.clear();
+        spectator.lagging = true;
+        dropped.increment();
+      }
+    }
+    wakeUpWriters();
+  }
+
+  /**
+   * Encode the keyframe of a game and send it to every spectator, including
+   * the spectators waiting for a keyframe.
+   *
+   * @param patchwork The game.
+   */
+  private void broadcastKeyframe(Patchwork patchwork) {
+    var patchesList = patchwork.getPatchesList();
+    var remaining = patchesList.remaining();
+    var size = 4 + 15 + BinaryProtocol.STATE_SIZE + 1 + remaining;
+    var buffer = ByteBuffer.allocate(size).putInt(size - 4).put((byte) KEYFRAME).putInt(sequence).putLong(seed)
+        .put((byte) patchwork.getGameMode());
+    var owner7x7 = patchwork.getPlayer(1).getHas7x7() ? 1 : patchwork.getPlayer(2).getHas7x7() ? 2 : 0;
+    buffer.put((byte) owner7x7);
+    BinaryProtocol.writeState(buffer, 0, patchwork.isOver() ? BinaryProtocol.OVER : BinaryProtocol.PLAYING,
+        patchwork);
+    buffer.put((byte) remaining);
+    var position = patchesList.nextPosition(0);
+    for (var i = 0; i < remaining; i++) {
+      buffer.put((byte) patchesList.patchId(position));
+      position = patchesList.positionAfter(position);
+    }
+    keyframe = buffer.array();
+    deltas.clear();
+    for (var spectator : spectators) {
+      // A keyframe replaces what a spectator has not received yet
+      if (!spectator.queue.offer(keyframe)) {
+        spectator.queue.clear();
+        spectator.queue.offer(keyframe);
+        if (!spectator.lagging)
+          dropped.increment();
+      }
+      spectator.lagging = false;
+    }
+    wakeUpWriters();
+  }
+
+  /**
+   * Give the port listened, useful when the channel was created with the port
+   * 0.
+   *
+   * @return The port.
+   */
+  public int port() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Give the number of spectators connected.
+   *
+   * @return The number of spectators.
+   */
+  public int spectators() {
+    return spectators.size();
+  }
+
+  /**
+   * Give the number of times a spectator too slow has been dropped to the next
+   * keyframe.
+   *
+   * @return The number of times.
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stop accepting spectators and disconnect the spectators connected.
+   *
+   * @throws IOException If the server channel can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      serverChannel.close();
+    } finally {
+      wakeUpWriters();
+      for (var spectator : spectators)
+        disconnect(spectator);
+    }
+  }
+}
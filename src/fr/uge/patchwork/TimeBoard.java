@@ -4,13 +4,14 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Rectangle2D;
-import java.util.HashMap;
 import java.util.Objects;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**
- * Representation of the TimeBoard. Choosing HashMap as position collection so
- * that getting or removing an element is faster.
+ * Representation of the TimeBoard. The positions are stored in bitsets and the
+ * buttons are counted in a prefix array, so that the number of buttons or
+ * special patches crossed by a move is computed without walking the board.
  * 
  * @author VILAYVANH Mickael
  * @author BERNIER Valentin
@@ -21,15 +22,29 @@ public class TimeBoard {
    */
   private final int size;
   /**
-   * An HashMap that represents the position of all buttons giving incomes to
+   * A bitset that represents the position of all buttons giving incomes to
    * players.
    */
-  private final HashMap<Integer, Integer> buttonsPosition;
+  private final long[] buttonsPosition;
   /**
-   * An HashMap that represents the position of all special patches being 1x1
-   * patch.
+   * An array that represents the number of buttons giving incomes located
+   * between the start of the board and each position (included).
    */
-  private final HashMap<Integer, Integer> specialPatchesPosition;
+  private final int[] buttonsCount;
+  /**
+   * A bitset that represents the position of all special patches being 1x1
+   * patch that have not been claimed yet.
+   */
+  private final long[] specialPatchesPosition;
+  /**
+   * The positions of the claimed special patches, in the order they have been
+   * claimed.
+   */
+  private final int[] claimedPositions;
+  /**
+   * The number of claimed special patches.
+   */
+  private int claimedCount;
   /**
    * An int that represents the number of special patches and buttons giving
    * incomes
@@ -40,6 +55,11 @@ public class TimeBoard {
    * incomes
    */
   private final int nbSpecialPatches;
+  /**
+   * The Zobrist hash of the special patches not claimed yet, updated each time
+   * one is claimed or put back.
+   */
+  private long hash;
 
   /**
    * TimeBoard constructor: Create a new timeboard of size given in parameter. All
@@ -49,44 +69,128 @@ public class TimeBoard {
    * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
    */
   public TimeBoard(int size, int gameMode) {
+    this(size, gameMode, new SplittableRandom());
+  }
+
+  /**
+   * TimeBoard constructor: Create a new timeboard of size given in parameter. All
+   * special patches and buttons position are placed with the random generator
+   * given in parameter, so that a seeded generator always gives the same board.
+   * 
+   * @param size     The Time Board size
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   * @param random   The random generator placing the buttons and the special
+   *                 patches.
+   */
+  public TimeBoard(int size, int gameMode, RandomGenerator random) {
+    Objects.requireNonNull(random);
     if (size < 0)
       throw new IllegalArgumentException("size invalid");
 
     this.size = size;
     nbIncome = size / 6;
     nbSpecialPatches = (gameMode == 1) ? 0 : (size / 10);
-    this.buttonsPosition = generateRandomPosition(size, nbIncome);
-    this.specialPatchesPosition = generateRandomPosition(size, nbSpecialPatches);
+    this.buttonsPosition = generateRandomPosition(size, nbIncome, random);
+    this.specialPatchesPosition = generateRandomPosition(size, nbSpecialPatches, random);
+    this.claimedPositions = new int[nbSpecialPatches];
+    this.claimedCount = 0;
+    this.hash = 0L;
+    for (var word = 0; word < specialPatchesPosition.length; word++) {
+      for (var bits = specialPatchesPosition[word]; bits != 0; bits &= bits - 1)
+        hash ^= specialPatchKey(word * 64 + Long.numberOfTrailingZeros(bits));
+    }
+    this.buttonsCount = new int[size + 1];
+    for (var i = 1; i <= size; i++)
+      buttonsCount[i] = buttonsCount[i - 1] + (isSet(buttonsPosition, i) ? 1 : 0);
+  }
+
+  /**
+   * TimeBoard constructor: Create a copy of a timeboard, that can be changed
+   * without changing the original. The buttons never change and are shared.
+   * 
+   * @param timeBoard The timeboard to copy.
+   */
+  TimeBoard(TimeBoard timeBoard) {
+    Objects.requireNonNull(timeBoard);
+    size = timeBoard.size;
+    nbIncome = timeBoard.nbIncome;
+    nbSpecialPatches = timeBoard.nbSpecialPatches;
+    buttonsPosition = timeBoard.buttonsPosition;
+    buttonsCount = timeBoard.buttonsCount;
+    specialPatchesPosition = timeBoard.specialPatchesPosition.clone();
+    claimedPositions = timeBoard.claimedPositions.clone();
+    claimedCount = timeBoard.claimedCount;
+    hash = timeBoard.hash;
   }
 
   /**
-   * Generate a map of position. Each position are randomly picked to diversify
-   * the board.
+   * Generate a bitset of position. Each position are randomly picked to
+   * diversify the board.
    * 
-   * @param size Board's size.
-   * @param nb   Quantity to generate
+   * @param size   Board's size.
+   * @param nb     Quantity to generate
+   * @param random The random generator picking the positions.
    * 
-   * @return An HashMap that represents the position.
+   * @return A bitset that represents the position.
    */
-  private static HashMap<Integer, Integer> generateRandomPosition(int size, int nb) {
+  private static long[] generateRandomPosition(int size, int nb, RandomGenerator random) {
     if (size < 0)
       throw new IllegalArgumentException("size invalid");
     if (nb < 0)
       throw new IllegalArgumentException("nb invalid");
 
-    var result = new HashMap<Integer, Integer>();
-    var random = new Random();
+    var result = new long[size / 64 + 1];
     int i;
     for (i = 0; i < nb; i++) {
       // Starting from 1 to size - 1 to not go out of range and
       // not hitting the first space
       var value = random.nextInt(size - 1) + 1;
-      if (result.putIfAbsent(value, value) != null)
+      if (isSet(result, value))
         i--;
+      else
+        result[value / 64] |= 1L << value;
     }
     return result;
   }
 
+  /**
+   * Returns true if the position is in the bitset.
+   * 
+   * @param bitset   The bitset.
+   * @param position The position.
+   * @return true if the position is in the bitset.
+   */
+  private static boolean isSet(long[] bitset, int position) {
+    return (bitset[position / 64] & (1L << position)) != 0;
+  }
+
+  /**
+   * Give the bits of a word of the bitset that are between from (excluded) and
+   * to (included).
+   * 
+   * @param word The index of the word.
+   * @param from The first position, excluded.
+   * @param to   The last position, included.
+   * @return The mask of the word.
+   */
+  private static long rangeMask(int word, int from, int to) {
+    var first = Math.max(from + 1, word * 64) - word * 64;
+    var last = Math.min(to, word * 64 + 63) - word * 64;
+    if (first > last)
+      return 0L;
+    return (-1L >>> (63 - last)) & (-1L << first);
+  }
+
+  /**
+   * Give the Zobrist key of a special patch.
+   * 
+   * @param position The position of the special patch.
+   * @return The key.
+   */
+  private static long specialPatchKey(int position) {
+    return ZobristKeys.SPECIAL_PATCHES[position % ZobristKeys.VALUES];
+  }
+
   /**
    * Returns true if position is between 0 and the size of the board
    * 
@@ -107,7 +211,34 @@ public class TimeBoard {
   public boolean isTokenOnButton(int tokenPosition) {
     if (!isALegalTokenPosition(tokenPosition))
       throw new IllegalArgumentException("tokenPosition is out of timeBoard");
-    return buttonsPosition.containsKey(tokenPosition);
+    return isSet(buttonsPosition, tokenPosition);
+  }
+
+  /**
+   * Give the number of buttons giving incomes crossed by a token moving from a
+   * position to another.
+   * 
+   * @param from The starting position of the token, excluded.
+   * @param to   The destination of the token, included.
+   * @return The number of buttons between from and to.
+   */
+  public int buttonsBetween(int from, int to) {
+    if (!isALegalTokenPosition(from) || !isALegalTokenPosition(to))
+      throw new IllegalArgumentException("position is out of timeBoard");
+    if (to <= from)
+      return 0;
+    return buttonsCount[to] - buttonsCount[from];
+  }
+
+  /**
+   * Give the number of buttons giving incomes that a token located at the
+   * position will still cross before the end of the board.
+   * 
+   * @param tokenPosition the position of a player's token.
+   * @return The number of remaining buttons.
+   */
+  public int remainingButtons(int tokenPosition) {
+    return buttonsBetween(tokenPosition, size - 1);
   }
 
   /**
@@ -120,10 +251,74 @@ public class TimeBoard {
     if (!isALegalTokenPosition(tokenPosition))
       throw new IllegalArgumentException("tokenPosition is out of timeBoard");
     // removing specified position if found
-    var patch = specialPatchesPosition.remove(tokenPosition);
-    if (patch != null)
-      return true;
-    return false;
+    if (!isSet(specialPatchesPosition, tokenPosition))
+      return false;
+    specialPatchesPosition[tokenPosition / 64] &= ~(1L << tokenPosition);
+    claimedPositions[claimedCount++] = tokenPosition;
+    hash ^= specialPatchKey(tokenPosition);
+    return true;
+  }
+
+  /**
+   * Give the number of special patches not claimed yet between two positions.
+   * 
+   * @param from The first position, excluded.
+   * @param to   The last position, included.
+   * @return The number of special patches.
+   */
+  public int specialPatchesBetween(int from, int to) {
+    if (!isALegalTokenPosition(from) || !isALegalTokenPosition(to))
+      throw new IllegalArgumentException("position is out of timeBoard");
+    var count = 0;
+    for (var word = (from + 1) / 64; word <= to / 64 && from < to; word++)
+      count += Long.bitCount(specialPatchesPosition[word] & rangeMask(word, from, to));
+    return count;
+  }
+
+  /**
+   * Claim all the special patches crossed by a token moving from a position to
+   * another. The claimed special patches are removed from the board.
+   * 
+   * @param from The starting position of the token, excluded.
+   * @param to   The destination of the token, included.
+   * @return The number of claimed special patches.
+   */
+  public int claimSpecialPatches(int from, int to) {
+    var count = specialPatchesBetween(from, to);
+    for (var word = (from + 1) / 64; word <= to / 64 && count > 0; word++) {
+      var claimed = specialPatchesPosition[word] & rangeMask(word, from, to);
+      for (; claimed != 0; claimed &= claimed - 1) {
+        var position = word * 64 + Long.numberOfTrailingZeros(claimed);
+        claimedPositions[claimedCount++] = position;
+        hash ^= specialPatchKey(position);
+      }
+      specialPatchesPosition[word] &= ~rangeMask(word, from, to);
+    }
+    return count;
+  }
+
+  /**
+   * Put back on the board the last claimed special patches.
+   * 
+   * @param count The number of special patches to put back.
+   */
+  public void undoClaimSpecialPatches(int count) {
+    if (count < 0 || count > claimedCount)
+      throw new IllegalArgumentException("count invalid");
+    for (var i = 0; i < count; i++) {
+      var position = claimedPositions[--claimedCount];
+      specialPatchesPosition[position / 64] |= 1L << position;
+      hash ^= specialPatchKey(position);
+    }
+  }
+
+  /**
+   * Accessor for hash.
+   * 
+   * @return The Zobrist hash of the special patches not claimed yet.
+   */
+  public long getHash() {
+    return hash;
   }
 
   /**
@@ -141,12 +336,12 @@ public class TimeBoard {
     int i;
     for (i = 0; i < size; i++) {
       builder.append("[");
-      if (buttonsPosition.containsKey(i)) {
+      if (isSet(buttonsPosition, i)) {
         builder.append("B");
       } else {
         builder.append(" ");
       }
-      if (specialPatchesPosition.containsKey(i)) {
+      if (isSet(specialPatchesPosition, i)) {
         builder.append("#");
       } else {
         builder.append(" ");
@@ -261,9 +456,9 @@ public class TimeBoard {
         drawLink(graphics, col, row, borderOffsetX, borderOffsetY, tileSize, layer, limit, direction);
       }
       drawTile(graphics, borderOffsetX + col * (tileSize + 20), borderOffsetY + row * (tileSize + 20), tileSize);
-      if (buttonsPosition.containsKey(i))
+      if (isSet(buttonsPosition, i))
         drawButton(graphics, borderOffsetX + col * (tileSize + 20), borderOffsetY +  row * (tileSize + 20), tileSize);
-      if (specialPatchesPosition.containsKey(i))
+      if (isSet(specialPatchesPosition, i))
         drawSpecialPatch(graphics, borderOffsetX + col * (tileSize + 20), borderOffsetY +  row * (tileSize + 20), tileSize);
       if (row == layer && col < limit) {
         col++;
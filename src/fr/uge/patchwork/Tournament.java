@@ -0,0 +1,573 @@
+package fr.uge.patchwork;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Round-robin tournament between computer players. Every two players play a
+ * match of pairs of games : both games of a pair are dealt from the same seed,
+ * each player being the player 1 of one of them, so that neither the deal nor
+ * the seat favours a player. The pairs are played by the workers of a
+ * {@link ForkJoinPool} created for each run.
+ *
+ * Both games of a pair share their deal, so their results are correlated : a
+ * match is scored by pairs, each pair giving 0, 1/2, 1, 3/2 or 2 points to the
+ * first player (the pentanomial model), and the variance used by the test and
+ * by the confidence intervals is the one of the scores of the pairs. A match
+ * stops when a sequential probability ratio test decides between two
+ * hypotheses on the Elo difference of its players, or after a maximum number of
+ * pairs.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class Tournament {
+  /**
+   * Quantile of the normal distribution of a 95% confidence interval.
+   */
+  private static final double CONFIDENCE_QUANTILE = 1.959964;
+  /**
+   * Number of spaces of the time board.
+   */
+  private static final int TIME_BOARD_SIZE = 54;
+  /**
+   * Number of possible scores of a pair of games : 0, 1/2, 1, 3/2 or 2 points.
+   */
+  private static final int PAIR_SCORES = 5;
+  /**
+   * The game whose patches are dealt in every game.
+   */
+  private final Patchwork template;
+  /**
+   * The players of the tournament.
+   */
+  private final List<Bot> bots;
+  /**
+   * The test stopping the matches.
+   */
+  private final Sprt sprt;
+  /**
+   * The maximum number of pairs of games of a match.
+   */
+  private final int maxPairs;
+  /**
+   * The number of workers.
+   */
+  private final int workers;
+
+  /**
+   * A player of the tournament.
+   *
+   * @param name   The name of the player.
+   * @param search The search of the player, created from the seed of each game.
+   */
+  public record Bot(String name, LongFunction<MoveSearch> search) {
+    /**
+     * Bot constructor : Create a player.
+     *
+     * @param name   The name of the player.
+     * @param search The search of the player, created from the seed of each
+     *               game.
+     */
+    public Bot {
+      Objects.requireNonNull(name);
+      Objects.requireNonNull(search);
+    }
+  }
+
+  /**
+   * Sequential probability ratio test between the hypothesis H0 : the Elo
+   * difference is elo0, and H1 : it is elo1, computed with the normal
+   * approximation of the scores of the pairs of games.
+   *
+   * @param elo0  The Elo difference of H0.
+   * @param elo1  The Elo difference of H1, greater than elo0.
+   * @param alpha The probability to accept H1 when H0 is true.
+   * @param beta  The probability to accept H0 when H1 is true.
+   */
+  public record Sprt(double elo0, double elo1, double alpha, double beta) {
+    /**
+     * Sprt constructor : Create a test.
+     *
+     * @param elo0  The Elo difference of H0.
+     * @param elo1  The Elo difference of H1, greater than elo0.
+     * @param alpha The probability to accept H1 when H0 is true.
+     * @param beta  The probability to accept H0 when H1 is true.
+     */
+    public Sprt {
+      if (elo1 <= elo0)
+        throw new IllegalArgumentException("elo1 <= elo0");
+      if (alpha <= 0 || alpha >= 1 || beta <= 0 || beta >= 1)
+        throw new IllegalArgumentException("alpha and beta have to be between 0 and 1");
+    }
+
+    /**
+     * Give the log-likelihood ratio under which H0 is accepted.
+     *
+     * @return The lower bound.
+     */
+    public double lowerBound() {
+      return Math.log(beta / (1 - alpha));
+    }
+
+    /**
+     * Give the log-likelihood ratio over which H1 is accepted.
+     *
+     * @return The upper bound.
+     */
+    public double upperBound() {
+      return Math.log((1 - beta) / alpha);
+    }
+
+    /**
+     * Give the log-likelihood ratio of H1 against H0 for the given results.
+     *
+     * @param pairs The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+     *              points to the first player.
+     * @return The log-likelihood ratio.
+     */
+    public double llr(int[] pairs) {
+      checkPairs(pairs);
+      var count = pairCount(pairs);
+      if (count == 0)
+        return 0;
+      var score = pairScore(pairs);
+      var variance = regularizedVariance(pairs);
+      var score0 = expectedScore(elo0);
+      var score1 = expectedScore(elo1);
+      return (score1 - score0) * (2 * score - score0 - score1) * count / (2 * variance);
+    }
+
+    /**
+     * Give the decision of the test for the given results.
+     *
+     * @param pairs The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+     *              points to the first player.
+     * @return 1 if H1 is accepted, -1 if H0 is accepted, 0 otherwise.
+     */
+    public int decision(int[] pairs) {
+      var llr = llr(pairs);
+      return (llr >= upperBound()) ? 1 : (llr <= lowerBound()) ? -1 : 0;
+    }
+  }
+
+  /**
+   * The results of a match, seen from its first player.
+   *
+   * @param first    The name of the first player.
+   * @param second   The name of the second player.
+   * @param pairs    The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+   *                 points to the first player.
+   * @param wins     The number of games won by the first player.
+   * @param draws    The number of games drawn.
+   * @param losses   The number of games lost by the first player.
+   * @param llr      The log-likelihood ratio of the test.
+   * @param decision 1 if the test accepted H1, -1 if it accepted H0, 0 if the
+   *                 match stopped at the maximum number of pairs.
+   */
+  public record MatchResult(String first, String second, List<Integer> pairs, int wins, int draws, int losses,
+      double llr, int decision) {
+    /**
+     * MatchResult constructor : Create the results of a match.
+     *
+     * @param first    The name of the first player.
+     * @param second   The name of the second player.
+     * @param pairs    The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+     *                 points to the first player.
+     * @param wins     The number of games won by the first player.
+     * @param draws    The number of games drawn.
+     * @param losses   The number of games lost by the first player.
+     * @param llr      The log-likelihood ratio of the test.
+     * @param decision 1 if the test accepted H1, -1 if it accepted H0, 0 if the
+     *                 match stopped at the maximum number of pairs.
+     */
+    public MatchResult {
+      Objects.requireNonNull(first);
+      Objects.requireNonNull(second);
+      if (pairs.size() != PAIR_SCORES)
+        throw new IllegalArgumentException("pairs has to have " + PAIR_SCORES + " counts");
+      pairs = List.copyOf(pairs);
+    }
+
+    /**
+     * Give the number of games of the match.
+     *
+     * @return The number of games.
+     */
+    public int games() {
+      return wins + draws + losses;
+    }
+
+    /**
+     * Give the score of the first player, a draw counting as half a win.
+     *
+     * @return The part of the points won by the first player.
+     */
+    public double score() {
+      return (games() == 0) ? 0.5 : (wins + draws / 2.0) / games();
+    }
+
+    /**
+     * Give the estimated Elo difference between the first and the second player.
+     *
+     * @return The Elo difference.
+     */
+    public double elo() {
+      return eloOf(score(), games());
+    }
+
+    /**
+     * Give the half width of the 95% confidence interval of the Elo difference,
+     * from the variance of the scores of the pairs.
+     *
+     * @return The margin of the Elo difference.
+     */
+    public double eloMargin() {
+      var counts = pairs.stream().mapToInt(Integer::intValue).toArray();
+      var count = pairCount(counts);
+      if (count == 0)
+        return Double.POSITIVE_INFINITY;
+      var deviation = Math.sqrt(regularizedVariance(counts) / count);
+      var low = eloOf(score() - CONFIDENCE_QUANTILE * deviation, games());
+      var high = eloOf(score() + CONFIDENCE_QUANTILE * deviation, games());
+      return (high - low) / 2;
+    }
+
+    @Override
+    public String toString() {
+      var verdict = switch (decision) {
+      case 1 -> "H1";
+      case -1 -> "H0";
+      default -> "-";
+      };
+      return String.format("%s vs %s : %d games, +%d =%d -%d, pairs %s, Elo %+.1f +/- %.1f, LLR %.2f %s", first,
+          second, games(), wins, draws, losses, pairs, elo(), eloMargin(), llr, verdict);
+    }
+  }
+
+  /**
+   * A match being played, shared by the workers.
+   */
+  private final class Match {
+    /**
+     * The index of the first player in bots.
+     */
+    private final int first;
+    /**
+     * The index of the second player in bots.
+     */
+    private final int second;
+    /**
+     * The index of the next pair of games to play.
+     */
+    private final AtomicInteger nextPair = new AtomicInteger();
+    /**
+     * The number of games won by the first player.
+     */
+    private int wins;
+    /**
+     * The number of games drawn.
+     */
+    private int draws;
+    /**
+     * The number of games lost by the first player.
+     */
+    private int losses;
+    /**
+     * The number of pairs of games giving 0, 1/2, 1, 3/2 and 2 points to the
+     * first player.
+     */
+    private final int[] pairs = new int[PAIR_SCORES];
+    /**
+     * The number of pairs of games counted.
+     */
+    private int playedPairs;
+    /**
+     * The decision of the test, 0 until it is known.
+     */
+    private volatile int decision;
+
+    /**
+     * Match constructor : Create a match not played yet.
+     *
+     * @param first  The index of the first player in bots.
+     * @param second The index of the second player in bots.
+     */
+    private Match(int first, int second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    /**
+     * Check if the match still has pairs of games to play.
+     *
+     * @return true if the match is not over.
+     */
+    private boolean isPlaying() {
+      return decision == 0 && nextPair.get() < maxPairs;
+    }
+
+    /**
+     * Play the next pair of games of the match, if any.
+     *
+     * @param seed     The seed of the first pair of the tournament.
+     * @param progress The stream where the match is reported when it ends, or
+     *                 null.
+     * @return true if a pair has been played.
+     */
+    private boolean playPair(long seed, PrintStream progress) {
+      var pair = nextPair.getAndIncrement();
+      if (decision != 0 || pair >= maxPairs)
+        return false;
+      // The same deal is played twice, each player being once the player 1
+      var gameSeed = seed + pair;
+      var firstBot = bots.get(first).search();
+      var secondBot = bots.get(second).search();
+      var straight = Simulator.play(template, gameSeed, firstBot.apply(gameSeed), secondBot.apply(~gameSeed), null);
+      var swapped = Simulator.play(template, gameSeed, secondBot.apply(gameSeed), firstBot.apply(~gameSeed), null);
+      synchronized (this) {
+        // The pairs finished by the other workers after the decision are not
+        // counted, so the results are the ones of the decision
+        if (decision != 0)
+          return true;
+        pairs[add(straight.winner(), 1) + add(swapped.winner(), 2)]++;
+        playedPairs++;
+        decision = sprt.decision(pairs);
+        if ((decision != 0 || playedPairs == maxPairs) && progress != null)
+          progress.println(result());
+      }
+      return true;
+    }
+
+    /**
+     * Count the result of a game.
+     *
+     * @param winner The winner of the game (1 or 2) or 0 for a draw.
+     * @param seat   The player number of the first player in the game.
+     * @return The half points of the first player : 2 for a win, 1 for a draw
+     *         and 0 for a loss.
+     */
+    private int add(int winner, int seat) {
+      if (winner == 0) {
+        draws++;
+        return 1;
+      }
+      if (winner == seat) {
+        wins++;
+        return 2;
+      }
+      losses++;
+      return 0;
+    }
+
+    /**
+     * Give the results of the match.
+     *
+     * @return The results.
+     */
+    private synchronized MatchResult result() {
+      return new MatchResult(bots.get(first).name(), bots.get(second).name(),
+          Arrays.stream(pairs).boxed().toList(), wins, draws, losses, sprt.llr(pairs), decision);
+    }
+  }
+
+  /**
+   * Tournament constructor : Create a tournament between the given players.
+   *
+   * @param gameMode The Game mode : 1 - Basic Game Mode 2 - Complete Game Mode
+   * @param bots     The players, at least two.
+   * @param sprt     The test stopping the matches.
+   * @param maxPairs The maximum number of pairs of games of a match.
+   * @param workers  The number of threads playing the games.
+   */
+  public Tournament(int gameMode, List<Bot> bots, Sprt sprt, int maxPairs, int workers) {
+    Objects.requireNonNull(sprt);
+    if (gameMode != 1 && gameMode != 2)
+      throw new IllegalArgumentException("gameMode has to be 1 or 2.");
+    if (bots.size() < 2)
+      throw new IllegalArgumentException("a tournament needs two players");
+    if (bots.stream().map(Bot::name).distinct().count() != bots.size())
+      throw new IllegalArgumentException("two players have the same name");
+    if (maxPairs <= 0)
+      throw new IllegalArgumentException("maxPairs <= 0");
+    if (workers <= 0)
+      throw new IllegalArgumentException("workers <= 0");
+    template = new Patchwork(TIME_BOARD_SIZE, gameMode);
+    template.loadPatches();
+    this.bots = List.copyOf(bots);
+    this.sprt = sprt;
+    this.maxPairs = maxPairs;
+    this.workers = workers;
+  }
+
+  /**
+   * Play all the matches, the pair of index i of every match being dealt from
+   * the seed seed + i.
+   *
+   * @param seed     The seed of the first pair of every match.
+   * @param progress The stream where each match is reported when it ends, or
+   *                 null to report nothing.
+   * @return The results of the matches, in the round-robin order.
+   */
+  public List<MatchResult> run(long seed, PrintStream progress) {
+    var matches = new ArrayList<Match>();
+    for (var first = 0; first < bots.size(); first++) {
+      for (var second = first + 1; second < bots.size(); second++)
+        matches.add(new Match(first, second));
+    }
+    // The workers go around the matches so that they all progress together
+    var ticket = new AtomicLong();
+    var tasks = new ArrayList<Callable<Void>>();
+    for (var i = 0; i < workers; i++) {
+      tasks.add(() -> {
+        var idle = 0;
+        while (idle < matches.size()) {
+          var match = matches.get((int) (ticket.getAndIncrement() % matches.size()));
+          if (match.isPlaying() && match.playPair(seed, progress)) {
+            idle = 0;
+          } else {
+            idle++;
+          }
+        }
+        return null;
+      });
+    }
+    var pool = new ForkJoinPool(workers);
+    try {
+      for (var future : pool.invokeAll(tasks))
+        future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("tournament interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("tournament failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    return matches.stream().map(Match::result).toList();
+  }
+
+  /**
+   * Give the Elo rating of each player relative to the average of the players :
+   * the mean of the Elo differences of its matches, which is the least squares
+   * estimate in a full round-robin.
+   *
+   * @param results The results of the matches of a run.
+   * @return The rating of each player, the best first.
+   */
+  public Map<String, Double> ratings(List<MatchResult> results) {
+    Objects.requireNonNull(results);
+    var sums = new LinkedHashMap<String, Double>();
+    for (var bot : bots)
+      sums.put(bot.name(), 0.0);
+    for (var result : results) {
+      sums.merge(result.first(), result.elo(), Double::sum);
+      sums.merge(result.second(), -result.elo(), Double::sum);
+    }
+    var ratings = new LinkedHashMap<String, Double>();
+    sums.entrySet().stream().sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+        .forEach(entry -> ratings.put(entry.getKey(), entry.getValue() / bots.size()));
+    return ratings;
+  }
+
+  /**
+   * Give the expected score of a player having the given Elo difference with
+   * its opponent.
+   *
+   * @param elo The Elo difference.
+   * @return The expected score between 0 and 1.
+   */
+  private static double expectedScore(double elo) {
+    return 1 / (1 + Math.pow(10, -elo / 400));
+  }
+
+  /**
+   * Give the Elo difference of a score, the score being kept away from 0 and 1
+   * by half a game so that the difference stays finite.
+   *
+   * @param score The score between 0 and 1.
+   * @param games The number of games of the score.
+   * @return The Elo difference.
+   */
+  private static double eloOf(double score, int games) {
+    var margin = 0.5 / Math.max(1, games);
+    var bounded = Math.min(1 - margin, Math.max(margin, score));
+    return -400 * Math.log10(1 / bounded - 1);
+  }
+
+  /**
+   * Check the counts of the scores of the pairs.
+   *
+   * @param pairs The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+   *              points.
+   */
+  private static void checkPairs(int[] pairs) {
+    Objects.requireNonNull(pairs);
+    if (pairs.length != PAIR_SCORES)
+      throw new IllegalArgumentException("pairs has to have " + PAIR_SCORES + " counts");
+  }
+
+  /**
+   * Give the number of pairs of games.
+   *
+   * @param pairs The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+   *              points.
+   * @return The number of pairs.
+   */
+  private static int pairCount(int[] pairs) {
+    var count = 0;
+    for (var pair : pairs)
+      count += pair;
+    return count;
+  }
+
+  /**
+   * Give the mean score of a game, computed from the pairs.
+   *
+   * @param pairs The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+   *              points.
+   * @return The score between 0 and 1, 1/2 if there is no pair.
+   */
+  private static double pairScore(int[] pairs) {
+    var count = pairCount(pairs);
+    if (count == 0)
+      return 0.5;
+    var points = 0.0;
+    for (var k = 0; k < PAIR_SCORES; k++)
+      points += pairs[k] * k / 4.0;
+    return points / count;
+  }
+
+  /**
+   * Give the variance of the score of a pair of games, the score of a pair being
+   * its points divided by 2. A pair giving 0 points and a pair giving 2 points
+   * are added, otherwise a player winning all its pairs would give a variance of
+   * 0 and no decision.
+   *
+   * @param pairs The number of pairs of games giving 0, 1/2, 1, 3/2 and 2
+   *              points.
+   * @return The variance of the score of a pair.
+   */
+  private static double regularizedVariance(int[] pairs) {
+    var regularized = pairs.clone();
+    regularized[0]++;
+    regularized[PAIR_SCORES - 1]++;
+    var score = pairScore(regularized);
+    var variance = 0.0;
+    for (var k = 0; k < PAIR_SCORES; k++)
+      variance += regularized[k] * (k / 4.0 - score) * (k / 4.0 - score);
+    return variance / pairCount(regularized);
+  }
+}
@@ -0,0 +1,267 @@
+package fr.uge.patchwork;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size cache of evaluated positions, shared by the threads of a search
+ * over {@link Patchwork} states identified by {@link Patchwork#getHash()}.
+ *
+ * The table is lockless : an entry is two longs, the hash xor the data and the
+ * data, written without synchronization. A probe recomputes the hash from the
+ * two longs, so an entry torn by two threads writing at the same time does not
+ * match any hash and is seen as a miss instead of a wrong result.
+ *
+ * The entries are grouped by buckets of two : the first entry of a bucket is
+ * only replaced by a search at least as deep, the second one is always
+ * replaced.
+ *
+ * The data of an entry packs the encoded best move on 20 bits, the depth on 8
+ * bits, the bound on 2 bits and the score on the 32 high bits.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class TranspositionTable {
+  /**
+   * Data returned by a probe that does not find the hash.
+   */
+  public static final long NO_ENTRY = 0L;
+  /**
+   * Bound of a score that is at least the real score.
+   */
+  public static final int LOWER_BOUND = 1;
+  /**
+   * Bound of a score that is at most the real score.
+   */
+  public static final int UPPER_BOUND = 2;
+  /**
+   * Bound of a score that is the real score.
+   */
+  public static final int EXACT = 3;
+  /**
+   * Number of longs of a bucket : two entries of two longs.
+   */
+  private static final int BUCKET_LONGS = 4;
+  /**
+   * The buckets, the entry of a hash being the hash xor the data followed by
+   * the data.
+   */
+  private final long[] table;
+  /**
+   * Mask giving the bucket index of a hash.
+   */
+  private final int bucketMask;
+  /**
+   * Number of probes.
+   */
+  private final LongAdder probes;
+  /**
+   * Number of probes that found the hash.
+   */
+  private final LongAdder hits;
+  /**
+   * Number of probes that found the bucket of the hash filled with other
+   * positions.
+   */
+  private final LongAdder collisions;
+  /**
+   * Number of entries filled at least once.
+   */
+  private final LongAdder filled;
+
+  /**
+   * TranspositionTable constructor : Create an empty table using at most the
+   * given memory, the number of buckets being a power of 2.
+   *
+   * @param megabytes The memory of the table in MB.
+   */
+  public TranspositionTable(int megabytes) {
+    if (megabytes <= 0)
+      throw new IllegalArgumentException("megabytes <= 0");
+    var buckets = (long) megabytes * 1024 * 1024 / (BUCKET_LONGS * Long.BYTES);
+    var size = Long.highestOneBit(Math.min(buckets, Integer.MAX_VALUE / BUCKET_LONGS));
+    table = new long[(int) size * BUCKET_LONGS];
+    bucketMask = (int) size - 1;
+    probes = new LongAdder();
+    hits = new LongAdder();
+    collisions = new LongAdder();
+    filled = new LongAdder();
+  }
+
+  /**
+   * Pack the data of an entry in a long.
+   *
+   * @param score The score of the position.
+   * @param depth The depth of the search (0 to 255).
+   * @param bound {@link #LOWER_BOUND}, {@link #UPPER_BOUND} or {@link #EXACT}.
+   * @param move  The best move encoded by {@link Move#encode()}.
+   * @return The packed data.
+   */
+  public static long pack(int score, int depth, int bound, int move) {
+    if (depth < 0 || depth > 255)
+      throw new IllegalArgumentException("depth invalid");
+    if (bound != LOWER_BOUND && bound != UPPER_BOUND && bound != EXACT)
+      throw new IllegalArgumentException("bound invalid");
+    if (move < 0 || move >= 1 << 20)
+      throw new IllegalArgumentException("move invalid");
+    return (long) score << 32 | (long) bound << 28 | (long) depth << 20 | move;
+  }
+
+  /**
+   * Give the score of packed data.
+   *
+   * @param data The packed data.
+   * @return The score.
+   */
+  public static int score(long data) {
+    return (int) (data >> 32);
+  }
+
+  /**
+   * Give the depth of packed data.
+   *
+   * @param data The packed data.
+   * @return The depth.
+   */
+  public static int depth(long data) {
+    return (int) (data >>> 20) & 0xFF;
+  }
+
+  /**
+   * Give the bound of packed data.
+   *
+   * @param data The packed data.
+   * @return The bound, 0 for {@link #NO_ENTRY}.
+   */
+  public static int bound(long data) {
+    return (int) (data >>> 28) & 0x3;
+  }
+
+  /**
+   * Give the best move of packed data.
+   *
+   * @param data The packed data.
+   * @return The move encoded by {@link Move#encode()}.
+   */
+  public static int move(long data) {
+    return (int) data & 0xFFFFF;
+  }
+
+  /**
+   * Give the index of the bucket of a hash.
+   *
+   * @param hash The hash of the position.
+   * @return The index of the first long of the bucket.
+   */
+  private int bucketOf(long hash) {
+    return ((int) (hash ^ hash >>> 32) & bucketMask) * BUCKET_LONGS;
+  }
+
+  /**
+   * Search a position in the table.
+   *
+   * @param hash The hash of the position.
+   * @return The packed data of the position or {@link #NO_ENTRY}.
+   */
+  public long probe(long hash) {
+    probes.increment();
+    var bucket = bucketOf(hash);
+    var occupied = false;
+    for (var entry = bucket; entry < bucket + BUCKET_LONGS; entry += 2) {
+      var data = table[entry + 1];
+      if (data == NO_ENTRY)
+        continue;
+      if ((table[entry] ^ data) == hash) {
+        hits.increment();
+        return data;
+      }
+      occupied = true;
+    }
+    if (occupied)
+      collisions.increment();
+    return NO_ENTRY;
+  }
+
+  /**
+   * Store a position in the table. The first entry of the bucket is replaced if
+   * it is empty, if it is the same position or if its search is not deeper,
+   * otherwise the second entry is replaced.
+   *
+   * @param hash  The hash of the position.
+   * @param score The score of the position.
+   * @param depth The depth of the search (0 to 255).
+   * @param bound {@link #LOWER_BOUND}, {@link #UPPER_BOUND} or {@link #EXACT}.
+   * @param move  The best move encoded by {@link Move#encode()}.
+   */
+  public void store(long hash, int score, int depth, int bound, int move) {
+    var data = pack(score, depth, bound, move);
+    var entry = bucketOf(hash);
+    var first = table[entry + 1];
+    if (first != NO_ENTRY && (table[entry] ^ first) != hash && depth(first) > depth)
+      entry += 2;
+    if (table[entry + 1] == NO_ENTRY)
+      filled.increment();
+    table[entry] = hash ^ data;
+    table[entry + 1] = data;
+  }
+
+  /**
+   * Empty the table and reset the statistics. Must not be called while other
+   * threads use the table.
+   */
+  public void clear() {
+    Arrays.fill(table, 0L);
+    probes.reset();
+    hits.reset();
+    collisions.reset();
+    filled.reset();
+  }
+
+  /**
+   * Give the number of entries of the table.
+   *
+   * @return The number of entries.
+   */
+  public int capacity() {
+    return table.length / 2;
+  }
+
+  /**
+   * Give the part of the probes that found the position.
+   *
+   * @return The hit rate between 0 and 1.
+   */
+  public double hitRate() {
+    var count = probes.sum();
+    return (count == 0) ? 0 : (double) hits.sum() / count;
+  }
+
+  /**
+   * Give the part of the probes that did not find the position but found its
+   * bucket filled with other positions.
+   *
+   * @return The collision rate between 0 and 1.
+   */
+  public double collisionRate() {
+    var count = probes.sum();
+    return (count == 0) ? 0 : (double) collisions.sum() / count;
+  }
+
+  /**
+   * Give the part of the entries filled at least once. Two threads filling the
+   * same empty entry at the same time may count it twice, so the ratio is
+   * bounded by 1.
+   *
+   * @return The fill ratio between 0 and 1.
+   */
+  public double fillRatio() {
+    return Math.min(1.0, (double) filled.sum() / capacity());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d entries, hit rate %.2f%%, collision rate %.2f%%, fill ratio %.2f%%", capacity(),
+        100 * hitRate(), 100 * collisionRate(), 100 * fillRatio());
+  }
+}
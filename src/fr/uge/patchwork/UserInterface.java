@@ -9,7 +9,8 @@ import java.util.HashMap;
  * @author BERNIER Valentin
  *
  */
-public sealed interface UserInterface permits UserInterfaceTerminal, UserInterfaceGraphic {
+public sealed interface UserInterface permits UserInterfaceTerminal, UserInterfaceGraphic, UserInterfaceAI,
+    UserInterfaceNetwork, UserInterfaceLockstep {
   /**
    * Take the patch in a position
    * 
@@ -0,0 +1,107 @@
+package fr.uge.patchwork;
+
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * The user interface of a computer player : the moves of one player are chosen
+ * by a {@link MoveSearch}, the other player and the display are given to
+ * another user interface.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class UserInterfaceAI implements UserInterface {
+  /**
+   * The game played by the computer.
+   */
+  private final Patchwork patchwork;
+  /**
+   * The id of the player played by the computer (1 or 2).
+   */
+  private final int playerId;
+  /**
+   * The user interface of the other player, also used for display.
+   */
+  private final UserInterface other;
+  /**
+   * The search choosing the moves.
+   */
+  private final MoveSearch search;
+  /**
+   * The move chosen when taking a patch, used to place it.
+   */
+  private int plannedMove;
+
+  /**
+   * UserInterfaceAI constructor : Create a computer player.
+   *
+   * @param patchwork The game played by the computer.
+   * @param playerId  The id of the player played by the computer (1 or 2).
+   * @param other     The user interface of the other player.
+   * @param search    The search choosing the moves.
+   */
+  public UserInterfaceAI(Patchwork patchwork, int playerId, UserInterface other, MoveSearch search) {
+    Objects.requireNonNull(patchwork);
+    Objects.requireNonNull(other);
+    Objects.requireNonNull(search);
+    if (playerId != 1 && playerId != 2)
+      throw new IllegalArgumentException("playerId has to be 1 or 2.");
+    this.patchwork = patchwork;
+    this.playerId = playerId;
+    this.other = other;
+    this.search = search;
+  }
+
+  /**
+   * Take the patch chosen by the search, or no patch if advancing is better.
+   *
+   * @param patchesList The list of patches
+   * @param player      The player that take the patch
+   *
+   * @return The taken patch
+   */
+  @Override
+  public Patch takePatchUI(PatchesList patchesList, Player player) {
+    Objects.requireNonNull(patchesList);
+    Objects.requireNonNull(player);
+    if (player != patchwork.getPlayer(playerId))
+      return other.takePatchUI(patchesList, player);
+    plannedMove = search.bestMove(patchwork);
+    if (Move.type(plannedMove) == Move.ADVANCE)
+      return null;
+    return patchesList.takePatch(Move.position(plannedMove), player);
+  }
+
+  /**
+   * Place the taken patch where the search has chosen, or a special patch where
+   * a new search chooses.
+   *
+   * @param patch      The taken patch
+   * @param quiltBoard the refering quiltBoard where the patch will be placed
+   */
+  @Override
+  public void placePatchUI(Patch patch, QuiltBoard quiltBoard) {
+    Objects.requireNonNull(patch);
+    Objects.requireNonNull(quiltBoard);
+    if (quiltBoard != patchwork.getPlayer(playerId).getQuiltBoard()) {
+      other.placePatchUI(patch, quiltBoard);
+      return;
+    }
+    var move = (patchwork.getPendingSpecialPatches() > 0) ? search.bestMove(patchwork) : plannedMove;
+    var anchor = Move.anchor(move);
+    if (anchor != Move.NO_ANCHOR)
+      quiltBoard.placePatch(patch.orientations().get(Move.orientation(move)), new Coordinate(anchor / 9, anchor % 9));
+  }
+
+  @Override
+  public void displayGameTurn(HashMap<Integer, Player> players, TimeBoard timeBoard, PatchesList patchesList,
+      int playerTurn) {
+    other.displayGameTurn(players, timeBoard, patchesList, playerTurn);
+  }
+
+  @Override
+  public void displayScore(HashMap<Integer, Player> players, int firstPlayerAtEnd) {
+    other.displayScore(players, firstPlayerAtEnd);
+  }
+}
@@ -0,0 +1,197 @@
+package fr.uge.patchwork;
+
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * The user interface of a game played in lockstep with a remote peer : the
+ * player of this peer plays with a local user interface, also used for
+ * display, and each of its moves is sent to the other peer, while the moves of
+ * the other player are received from it. Both peers run the same game from the
+ * same seed, and the checksum of the game before each move, and of the final
+ * game, is compared with the one of the other peer to detect a divergence.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class UserInterfaceLockstep implements UserInterface {
+  /**
+   * The game played by both peers.
+   */
+  private final Patchwork patchwork;
+  /**
+   * The connection to the other peer.
+   */
+  private final LockstepPeer peer;
+  /**
+   * The user interface of the player of this peer.
+   */
+  private final UserInterface local;
+  /**
+   * The position of the patch taken by the player of this peer, waiting to be
+   * placed.
+   */
+  private int takenPosition;
+  /**
+   * The checksum of the game before the patch was taken by the player of this
+   * peer.
+   */
+  private int takenChecksum;
+  /**
+   * The last move taking a patch received from the other peer, used to place
+   * the patch.
+   */
+  private int remoteMove;
+  /**
+   * The number of moves checked.
+   */
+  private int moves;
+
+  /**
+   * UserInterfaceLockstep constructor : Create the user interface of a game
+   * played in lockstep.
+   *
+   * @param patchwork The game, dealt from the seed of the peer.
+   * @param peer      The connection to the other peer.
+   * @param local     The user interface of the player of this peer.
+   */
+  public UserInterfaceLockstep(Patchwork patchwork, LockstepPeer peer, UserInterface local) {
+    Objects.requireNonNull(patchwork);
+    Objects.requireNonNull(peer);
+    Objects.requireNonNull(local);
+    if (patchwork.getSeed() != peer.seed())
+      throw new IllegalArgumentException("game not dealt from the seed of the peer");
+    this.patchwork = patchwork;
+    this.peer = peer;
+    this.local = local;
+  }
+
+  /**
+   * Give the checksum of the game.
+   *
+   * @return The checksum.
+   */
+  private int checksum() {
+    var hash = patchwork.getHash();
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Receive the next move of the other peer and check that both games are the
+   * same before it.
+   *
+   * @param type The type of move expected.
+   * @return The move encoded by {@link Move#encode()}.
+   */
+  private int receive(int type) {
+    var input = peer.receive();
+    moves++;
+    if (input.checksum() != checksum())
+      throw new IllegalStateException("game diverged from the other peer at move " + moves);
+    if (Move.type(input.move()) != type && !(type == Move.TAKE && Move.type(input.move()) == Move.ADVANCE))
+      throw new IllegalStateException("move not expected from the other peer at move " + moves);
+    return input.move();
+  }
+
+  /**
+   * Take the patch chosen by the local user interface and send the move once
+   * the patch is placed, or receive the move of the other peer.
+   *
+   * @param patchesList The list of patches
+   * @param player      The player that take the patch
+   *
+   * @return The taken patch
+   */
+  @Override
+  public Patch takePatchUI(PatchesList patchesList, Player player) {
+    Objects.requireNonNull(patchesList);
+    Objects.requireNonNull(player);
+    if (player != patchwork.getPlayer(peer.localPlayer())) {
+      remoteMove = receive(Move.TAKE);
+      if (Move.type(remoteMove) == Move.ADVANCE)
+        return null;
+      if (!patchesList.isAValidPatch(Move.position(remoteMove), player))
+        throw new IllegalStateException("patch not valid from the other peer at move " + moves);
+      return patchesList.takePatch(Move.position(remoteMove), player);
+    }
+    var checksum = checksum();
+    var positions = new int[3];
+    for (var rank = 0; rank < positions.length; rank++)
+      positions[rank] = patchesList.nextPosition(rank);
+    var patch = local.takePatchUI(patchesList, player);
+    moves++;
+    if (patch == null) {
+      peer.send(Move.advance().encode(), checksum);
+      return null;
+    }
+    for (var position : positions)
+      if (position >= 0 && patchesList.patchId(position) == -1)
+        takenPosition = position;
+    takenChecksum = checksum;
+    return patch;
+  }
+
+  /**
+   * Place a patch with the local user interface and send the move, or place it
+   * where the other peer has placed it.
+   *
+   * @param patch      The taken patch
+   * @param quiltBoard the refering quiltBoard where the patch will be placed
+   */
+  @Override
+  public void placePatchUI(Patch patch, QuiltBoard quiltBoard) {
+    Objects.requireNonNull(patch);
+    Objects.requireNonNull(quiltBoard);
+    if (quiltBoard != patchwork.getPlayer(peer.localPlayer()).getQuiltBoard()) {
+      var move = (patchwork.getPendingSpecialPatches() > 0) ? receive(Move.SPECIAL_PATCH) : remoteMove;
+      var anchor = Move.anchor(move);
+      if (anchor != Move.NO_ANCHOR && !quiltBoard.placePatch(patch.orientations().get(Move.orientation(move)),
+          new Coordinate(anchor / 9, anchor % 9)))
+        throw new IllegalStateException("placement not valid from the other peer at move " + moves);
+      return;
+    }
+    var special = patchwork.getPendingSpecialPatches() > 0;
+    var checksum = special ? checksum() : takenChecksum;
+    if (special)
+      moves++;
+    var placed = quiltBoard.getPlacedCount();
+    local.placePatchUI(patch, quiltBoard);
+    var orientation = 0;
+    var anchor = Move.NO_ANCHOR;
+    if (quiltBoard.getPlacedCount() > placed) {
+      var shape = quiltBoard.getPlacedPatch(placed).shapeMask();
+      var orientations = patch.orientations();
+      while (orientations.get(orientation).shapeMask() != shape)
+        orientation++;
+      anchor = quiltBoard.getPlacedAnchor(placed);
+    }
+    peer.send(special ? Move.specialPatch(anchor).encode() : Move.take(takenPosition, orientation, anchor).encode(),
+        checksum);
+  }
+
+  @Override
+  public void displayGameTurn(HashMap<Integer, Player> players, TimeBoard timeBoard, PatchesList patchesList,
+      int playerTurn) {
+    local.displayGameTurn(players, timeBoard, patchesList, playerTurn);
+  }
+
+  /**
+   * Exchange the checksum of the final game with the other peer and display
+   * the score with the local user interface once both games are the same.
+   *
+   * @param players          The players
+   * @param firstPlayerAtEnd The first player to have reached the end
+   */
+  @Override
+  public void displayScore(HashMap<Integer, Player> players, int firstPlayerAtEnd) {
+    Objects.requireNonNull(players);
+    var checksum = checksum();
+    peer.send(LockstepPeer.END, checksum);
+    var input = peer.receive();
+    if (input.move() != LockstepPeer.END)
+      throw new IllegalStateException("move not expected from the other peer after the end of the game");
+    if (input.checksum() != checksum)
+      throw new IllegalStateException("game diverged from the other peer at the end of the game");
+    local.displayScore(players, firstPlayerAtEnd);
+  }
+}
@@ -0,0 +1,208 @@
+package fr.uge.patchwork;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * The user interface of a player connected through the network. The game is
+ * played with a line protocol, each line being words separated by a space.
+ *
+ * The server sends :
+ * <ul>
+ * <li>{@code TURN player buttons1 token1 empty1 income1 buttons2 token2 empty2 income2 patch...}
+ * at each turn, each of the three next patches being given as
+ * {@code position:cost:time:income:shape} where shape is the 25-bit shape of
+ * the patch (bit line * 5 + column) ;</li>
+ * <li>{@code TAKE} when the player has to take a patch, answered by
+ * {@code TAKE position} or {@code ADVANCE} ;</li>
+ * <li>{@code PLACE shape...} when the player has to place a patch, with the
+ * shape of each orientation of the patch, answered by
+ * {@code PLACE orientation line column} or {@code DISCARD} ;</li>
+ * <li>{@code ERROR message} when an answer is not valid, the same answer
+ * being expected again ;</li>
+ * <li>{@code SCORE score1 score2 firstPlayerAtEnd} at the end of the game.</li>
+ * </ul>
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+public final class UserInterfaceNetwork implements UserInterface {
+  /**
+   * The lines sent by the player.
+   */
+  private final BufferedReader input;
+  /**
+   * The lines sent to the player.
+   */
+  private final Writer output;
+
+  /**
+   * UserInterfaceNetwork constructor : Create the user interface of a player
+   * reading its answers from input and sending the game to output.
+   *
+   * @param input  The lines sent by the player.
+   * @param output The lines sent to the player, flushed after each message.
+   */
+  public UserInterfaceNetwork(BufferedReader input, Writer output) {
+    Objects.requireNonNull(input);
+    Objects.requireNonNull(output);
+    this.input = input;
+    this.output = output;
+  }
+
+  /**
+   * Send a line to the player.
+   *
+   * @param line The line, without line separator.
+   */
+  void send(String line) {
+    try {
+      output.write(line);
+      output.write('\n');
+      output.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Read the next answer of the player, split in words.
+   *
+   * @return The words of the answer.
+   */
+  private String[] receive() {
+    try {
+      var line = input.readLine();
+      if (line == null)
+        throw new UncheckedIOException(new EOFException("player disconnected"));
+      return line.strip().split(" +");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Read an int of an answer.
+   *
+   * @param word The word of the answer.
+   * @return The int or -1 if the word is not an int.
+   */
+  private static int parseInt(String word) {
+    try {
+      return Integer.parseInt(word);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Take the patch at the position sent by the player.
+   *
+   * @param patchesList The list of patches
+   * @param player      The player that take the patch
+   *
+   * @return The taken patch
+   */
+  @Override
+  public Patch takePatchUI(PatchesList patchesList, Player player) {
+    Objects.requireNonNull(patchesList);
+    Objects.requireNonNull(player);
+    send("TAKE");
+    while (true) {
+      var words = receive();
+      if (words.length == 1 && words[0].equals("ADVANCE"))
+        return null;
+      if (words.length == 2 && words[0].equals("TAKE")) {
+        var position = parseInt(words[1]);
+        if (patchesList.isAValidPatch(position, player))
+          return patchesList.takePatch(position, player);
+      }
+      send("ERROR you can't take this patch");
+    }
+  }
+
+  /**
+   * Place a patch in the orientation and at the coordinate sent by the player,
+   * the coordinate being the place of the topleft corner of the patch's shape.
+   *
+   * @param patch      The taken patch
+   * @param quiltBoard the refering quiltBoard where the patch will be placed
+   */
+  @Override
+  public void placePatchUI(Patch patch, QuiltBoard quiltBoard) {
+    Objects.requireNonNull(patch);
+    Objects.requireNonNull(quiltBoard);
+    var orientations = patch.orientations();
+    var request = new StringBuilder("PLACE");
+    for (var i = 0; i < orientations.size(); i++)
+      request.append(' ').append(orientations.get(i).shapeMask());
+    send(request.toString());
+    while (true) {
+      var words = receive();
+      if (words.length == 1 && words[0].equals("DISCARD"))
+        return;
+      if (words.length == 4 && words[0].equals("PLACE")) {
+        var orientation = parseInt(words[1]);
+        if (orientation >= 0 && orientation < orientations.size() && quiltBoard
+            .placePatch(orientations.get(orientation), new Coordinate(parseInt(words[2]), parseInt(words[3]))))
+          return;
+      }
+      send("ERROR you can't place here");
+    }
+  }
+
+  /**
+   * Send the players and the three next patches to the player.
+   *
+   * @param players     a HashMap that contains all players.
+   * @param timeBoard   a TimeBoard that represents the timeboard.
+   * @param patchesList a PatchesList that represents the patcheslist.
+   * @param playerTurn  indicates which player's turn it is.
+   */
+  @Override
+  public void displayGameTurn(HashMap<Integer, Player> players, TimeBoard timeBoard, PatchesList patchesList,
+      int playerTurn) {
+    Objects.requireNonNull(players);
+    Objects.requireNonNull(timeBoard);
+    Objects.requireNonNull(patchesList);
+    if (playerTurn != 1 && playerTurn != 2)
+      throw new IllegalArgumentException("playerTurn has to be 1 or 2.");
+    var line = new StringBuilder("TURN ").append(playerTurn);
+    for (var id = 1; id <= 2; id++) {
+      var player = players.get(id);
+      var quiltBoard = player.getQuiltBoard();
+      line.append(' ').append(player.getButtons()).append(' ').append(player.getTokenPosition()).append(' ')
+          .append(quiltBoard.numberOfEmptySpace()).append(' ').append(quiltBoard.getIncome());
+    }
+    var catalog = patchesList.getCatalog();
+    for (var rank = 0; rank < 3; rank++) {
+      var position = patchesList.nextPosition(rank);
+      if (position == -1)
+        break;
+      var id = patchesList.patchId(position);
+      line.append(' ').append(position).append(':').append(catalog.cost(id)).append(':').append(catalog.time(id))
+          .append(':').append(catalog.income(id)).append(':').append(catalog.shape(id, 0));
+    }
+    send(line.toString());
+  }
+
+  /**
+   * Send the scores to the player.
+   *
+   * @param players          a HashMap that contains all players.
+   * @param firstPlayerAtEnd the first player who reached the end of the time
+   *                         board.
+   */
+  @Override
+  public void displayScore(HashMap<Integer, Player> players, int firstPlayerAtEnd) {
+    Objects.requireNonNull(players);
+    if (firstPlayerAtEnd < 0 || firstPlayerAtEnd > 2)
+      throw new IllegalArgumentException("firstPlayerAtEnd is wrong.");
+    send("SCORE " + players.get(1).score() + " " + players.get(2).score() + " " + firstPlayerAtEnd);
+  }
+}
@@ -233,4 +233,25 @@ public final class UserInterfaceTerminal implements UserInterface {
       System.out.print("Invalid Game Mode! Try again!\n==> ");
     }
   }
+
+  /**
+   * Choose with a scanner if the player 2 is played by the computer
+   * 
+   * @return true if the player 2 is played by the computer
+   */
+  public boolean chooseComputerOpponent() {
+    int opponent;
+
+    System.out.print("Choose the player 2.\n   1   - Human\n   2   - Computer\n\n==> ");
+
+    while (true) {
+      opponent = readInt().orElse(-1);
+      System.out.println();
+
+      if (opponent == 1 || opponent == 2)
+        return opponent == 2;
+
+      System.out.print("Invalid choice! Try again!\n==> ");
+    }
+  }
 }
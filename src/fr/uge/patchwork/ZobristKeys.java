@@ -0,0 +1,116 @@
+package fr.uge.patchwork;
+
+import java.util.Random;
+
+/**
+ * Random 64-bit keys used to hash the state of a game (Zobrist hashing). Each
+ * part of the state (a filled space, a token position, a taken patch...) has
+ * its own key, and the hash of a state is the xor of the keys of its parts, so
+ * that the objects of the game update their hash when they change instead of
+ * computing it again.
+ *
+ * The keys are generated from a fixed seed, so that two games in the same state
+ * have the same hash, even in different runs.
+ *
+ * @author BERNIER Valentin
+ * @author VILAYVANH Mickael
+ */
+final class ZobristKeys {
+  /**
+   * Number of keys for the values that are not bounded by the rules (positions
+   * on the time board, buttons...), a value being hashed modulo this number.
+   */
+  static final int VALUES = 256;
+  /**
+   * The keys of the filled spaces of the quiltboard of each player (line * 9 +
+   * column).
+   */
+  static final long[][] SPACES = new long[2][81];
+  /**
+   * The keys of the token position of each player.
+   */
+  static final long[][] TOKENS = new long[2][VALUES];
+  /**
+   * The keys of the number of buttons of each player.
+   */
+  static final long[][] BUTTONS = new long[2][VALUES];
+  /**
+   * The keys of the 7x7 tile owned by each player.
+   */
+  static final long[] HAS_7X7 = new long[2];
+  /**
+   * The keys of the taken patches, by position in the patches list.
+   */
+  static final long[] TAKEN_PATCHES = new long[VALUES];
+  /**
+   * The keys of the position of the neutral token.
+   */
+  static final long[] NEUTRAL_TOKEN = new long[VALUES];
+  /**
+   * The keys of the special patches not claimed yet, by position on the time
+   * board.
+   */
+  static final long[] SPECIAL_PATCHES = new long[VALUES];
+  /**
+   * The keys of the number of special patches the current player has to place.
+   */
+  static final long[] PENDING_SPECIAL_PATCHES = new long[VALUES];
+  /**
+   * The keys of the first player who has finished the game (0, 1 or 2).
+   */
+  static final long[] FIRST_PLAYER_AT_END = new long[3];
+  /**
+   * The key of the turn of the player 2.
+   */
+  static final long SECOND_PLAYER_TURN;
+
+  static {
+    var random = new Random(0x5A7C4E0B9D21F36L);
+    for (var player = 0; player < 2; player++) {
+      fill(SPACES[player], random);
+      fill(TOKENS[player], random);
+      fill(BUTTONS[player], random);
+    }
+    fill(HAS_7X7, random);
+    fill(TAKEN_PATCHES, random);
+    fill(NEUTRAL_TOKEN, random);
+    fill(SPECIAL_PATCHES, random);
+    fill(PENDING_SPECIAL_PATCHES, random);
+    fill(FIRST_PLAYER_AT_END, random);
+    SECOND_PLAYER_TURN = random.nextLong();
+  }
+
+  /**
+   * ZobristKeys constructor : Not used, the keys are static.
+   */
+  private ZobristKeys() {
+  }
+
+  /**
+   * Fill an array with random keys.
+   *
+   * @param keys   The array.
+   * @param random The generator of the keys.
+   */
+  private static void fill(long[] keys, Random random) {
+    for (var i = 0; i < keys.length; i++)
+      keys[i] = random.nextLong();
+  }
+
+  /**
+   * Give the xor of the keys of the spaces of an area.
+   *
+   * @param keys The keys of the spaces.
+   * @param low  The first 64 spaces of the area.
+   * @param high The last 17 spaces of the area.
+   * @return The xor of the keys.
+   */
+  static long areaKey(long[] keys, long low, long high) {
+    var key = 0L;
+    for (; low != 0; low &= low - 1)
+      key ^= keys[Long.numberOfTrailingZeros(low)];
+    for (; high != 0; high &= high - 1)
+      key ^= keys[64 + Long.numberOfTrailingZeros(high)];
+    return key;
+  }
+}
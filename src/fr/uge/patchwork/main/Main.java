@@ -1,8 +1,43 @@
 package fr.uge.patchwork.main;
 
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.LongFunction;
+
+import fr.uge.patchwork.AlphaBetaSearch;
+import fr.uge.patchwork.BotServer;
+import fr.uge.patchwork.EndgameSolver;
+import fr.uge.patchwork.GameCheck;
+import fr.uge.patchwork.GameServer;
+import fr.uge.patchwork.LoadGenerator;
+import fr.uge.patchwork.LockstepPeer;
 import fr.uge.patchwork.MenuGraphic;
+import fr.uge.patchwork.MonteCarloSearch;
+import fr.uge.patchwork.MoveSearch;
+import fr.uge.patchwork.PackingCheck;
+import fr.uge.patchwork.PatchCatalogFile;
 import fr.uge.patchwork.Patchwork;
+import fr.uge.patchwork.RandomSearch;
+import fr.uge.patchwork.RootParallelSearch;
+import fr.uge.patchwork.ServerCheck;
+import fr.uge.patchwork.Simulator;
+import fr.uge.patchwork.SpectatorChannel;
+import fr.uge.patchwork.Tournament;
+import fr.uge.patchwork.UserInterfaceAI;
+import fr.uge.patchwork.UserInterfaceGraphic;
+import fr.uge.patchwork.UserInterfaceLockstep;
 import fr.uge.patchwork.UserInterfaceTerminal;
+import fr.umlv.zen5.Application;
 
 /**
  * A class that represents the main of Patchwork game.
@@ -11,6 +46,40 @@ import fr.uge.patchwork.UserInterfaceTerminal;
  * @author BERNIER Valentin
  */
 public class Main {
+  /**
+   * The usage of the modes without user interface.
+   */
+  private static final String USAGE = """
+      usage: simulate [--games N] [--threads N] [--seed N] [--mode 1|2] [--output FILE]
+                      [--player1 BOT] [--player2 BOT] [--metrics FILE]
+             tournament --bots BOT,BOT[,BOT...] [--pairs N] [--threads N] [--seed N] [--mode 1|2]
+                        [--elo0 ELO] [--elo1 ELO] [--alpha P] [--beta P]
+             server [--address HOST] [--port N] [--mode 1|2] [--opponent BOT] [--searches N] [--seed N]
+                    [--timeout MS]
+             botserver [--address HOST] [--port N] [--mode 1|2]
+             loadtest [--address HOST] [--port N] [--mode 1|2] [--connections N] [--games N] [--seconds N]
+                      [--seed N]
+             featured [--address HOST] [--port N] [--mode 1|2] [--player1 BOT] [--player2 BOT] [--delay MS]
+                      [--seed N]
+             lockstep --host PORT [--address HOST] [--seed N] [--mode 1|2|3] [--ui graphic|terminal|BOT]
+             lockstep --join HOST:PORT [--ui graphic|terminal|BOT]
+             compile [--input FILE] [--output FILE]
+             check [--games N] [--boards N] [--seed N] [--mode 1|2]
+             servercheck [--sessions N] [--mode 1|2]
+        BOT is random, alphabeta:MILLISECONDS, montecarlo:MILLISECONDS[:THREADS] (one tree shared by the
+        threads) or rootparallel:MILLISECONDS[:THREADS] (one tree for each thread), each game having its
+        own THREADS threads for each of these players, all the processors if there is no THREADS
+        the results of simulate are written to the standard output if there is no FILE, and the statistics
+        of the search of each move to the metrics FILE
+        loadtest starts its own bot server on the loopback address if there is no port
+        lockstep plays against a remote peer, the graphic user interface needing the mode 3, and the
+        host listens on the loopback address unless another address is given
+        compile compiles the patches files of the game if there is no input FILE
+        server runs at most --searches searches of the opponent at once, all the processors by default
+        check walks random games checking that undo gives back each state and that the hashes are
+        reproducible, then compares the packing solver with a brute force on random quilt boards
+        servercheck opens idle sessions on a game server on the loopback address and measures their
+        heap and threads""";
 
   /**
    * Main class contructor.
@@ -21,9 +90,42 @@ public class Main {
   /**
    * It is the main of the Patchwork game.
    * 
-   * @param args arguments given in command line.
+   * @param args arguments given in command line, "simulate" or "tournament"
+   *             and their options to play games between computer players
+   *             without user interface, "server" and its options to play
+   *             against players connected through the network, "botserver"
+   *             and its options to referee games of bot clients,
+   *             "loadtest" and its options to measure a bot server,
+   *             "featured" and its options to broadcast games to spectators,
+   *             "lockstep" and its options to play against a remote peer,
+   *             "compile" and its options to compile patches files,
+   *             "check" and its options to check the moves and their undo,
+   *             or "servercheck" and its options to measure idle sessions.
    */
   public static void main(String[] args) {
+    if (args.length > 0) {
+      try {
+        var options = options(args);
+        switch (args[0]) {
+        case "simulate" -> simulate(options);
+        case "tournament" -> tournament(options);
+        case "server" -> server(options);
+        case "botserver" -> botServer(options);
+        case "loadtest" -> loadTest(options);
+        case "featured" -> featured(options);
+        case "lockstep" -> lockstep(options);
+        case "compile" -> compile(options);
+        case "check" -> check(options);
+        case "servercheck" -> serverCheck(options);
+        default -> throw new IllegalArgumentException("unknown mode " + args[0]);
+        }
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        System.err.println(USAGE);
+        System.exit(1);
+      }
+      return;
+    }
     var uiTerminal = new UserInterfaceTerminal();
     uiTerminal.diplayTitle();
     int gameMode = uiTerminal.chooseGameMode();
@@ -35,11 +137,372 @@ public class Main {
     else if (gameMode == 1 || gameMode == 2) {
       var patchwork = new Patchwork(54, gameMode);
       // Launch the game with specified parameters.
-      patchwork.game(uiTerminal);
+      if (uiTerminal.chooseComputerOpponent()) {
+        // The end of the game is solved when 12 patches are left and both tokens
+        // are 5 spaces from the end, a solve spending at most 200 ms of the second
+        // of a move before the alpha-beta plays
+        var search = new EndgameSolver(new AlphaBetaSearch(800, 64), 12, 5, 200, 64);
+        patchwork.game(new UserInterfaceAI(patchwork, 2, uiTerminal, search));
+      }
+      else
+        patchwork.game(uiTerminal);
     }
     
     else if (gameMode == 3) {
       MenuGraphic.menu();
     }
   }
+
+  /**
+   * Read the options given after the mode, each option being followed by its
+   * value.
+   * 
+   * @param args The arguments given in command line.
+   * @return The value of each option.
+   */
+  private static HashMap<String, String> options(String[] args) {
+    if (args.length % 2 == 0)
+      throw new IllegalArgumentException("option without value");
+    var options = new HashMap<String, String>();
+    for (var i = 1; i < args.length; i += 2)
+      options.put(args[i], args[i + 1]);
+    return options;
+  }
+
+  /**
+   * Play games between computer players without user interface, the results
+   * being written as CSV.
+   * 
+   * @param options The options of the simulator.
+   */
+  private static void simulate(HashMap<String, String> options) {
+    var games = Long.parseLong(options.getOrDefault("--games", "1000"));
+    var threads = threads(options);
+    var seed = Long.parseLong(options.getOrDefault("--seed", "0"));
+    var gameMode = Integer.parseInt(options.getOrDefault("--mode", "2"));
+    var file = options.get("--output");
+    var metricsFile = options.get("--metrics");
+    try (var output = (file == null)
+        ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+        : Files.newBufferedWriter(Path.of(file), StandardCharsets.UTF_8);
+        var metrics = (metricsFile == null) ? null
+            : new PrintStream(Files.newOutputStream(Path.of(metricsFile)), false, StandardCharsets.UTF_8)) {
+      var simulator = new Simulator(gameMode, bot(options.getOrDefault("--player1", "random")),
+          bot(options.getOrDefault("--player2", "random")), threads, metrics);
+      simulator.run(games, seed, output, System.err);
+    } catch (IOException e) {
+      System.err.println("results not written : " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Play a round-robin tournament between computer players and print the
+   * results of the matches and the ratings of the players.
+   * 
+   * @param options The options of the tournament.
+   */
+  private static void tournament(HashMap<String, String> options) {
+    var descriptions = options.get("--bots");
+    if (descriptions == null)
+      throw new IllegalArgumentException("no players");
+    var bots = new ArrayList<Tournament.Bot>();
+    for (var description : descriptions.split(","))
+      bots.add(new Tournament.Bot(description, bot(description)));
+    var sprt = new Tournament.Sprt(Double.parseDouble(options.getOrDefault("--elo0", "0")),
+        Double.parseDouble(options.getOrDefault("--elo1", "50")),
+        Double.parseDouble(options.getOrDefault("--alpha", "0.05")),
+        Double.parseDouble(options.getOrDefault("--beta", "0.05")));
+    var tournament = new Tournament(Integer.parseInt(options.getOrDefault("--mode", "2")), bots, sprt,
+        Integer.parseInt(options.getOrDefault("--pairs", "1000")), threads(options));
+    var results = tournament.run(Long.parseLong(options.getOrDefault("--seed", "0")), System.err);
+    for (var result : results)
+      System.out.println(result);
+    for (var rating : tournament.ratings(results).entrySet())
+      System.out.printf("%s : %+.1f Elo%n", rating.getKey(), rating.getValue());
+  }
+
+  /**
+   * Play games against players connected through the network until the
+   * program is stopped, the number of sessions being printed every 10 seconds.
+   * 
+   * @param options The options of the server.
+   */
+  private static void server(HashMap<String, String> options) {
+    try (var server = new GameServer(InetAddress.getByName(options.getOrDefault("--address", "localhost")),
+        Integer.parseInt(options.getOrDefault("--port", "7777")), Integer.parseInt(options.getOrDefault("--mode", "2")),
+        bot(options.getOrDefault("--opponent", "alphabeta:100")),
+        Integer.parseInt(
+            options.getOrDefault("--searches", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+        Long.parseLong(options.getOrDefault("--seed", "0")),
+        Integer.parseInt(options.getOrDefault("--timeout", "300000")))) {
+      server.start();
+      System.err.println("listening on port " + server.port());
+      while (true) {
+        Thread.sleep(10_000);
+        System.err.println(server.activeSessions() + " sessions, " + server.completedSessions() + " games played, "
+            + server.searches() + " searches");
+      }
+    } catch (IOException e) {
+      System.err.println("server stopped : " + e.getMessage());
+      System.exit(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Referee games of bot clients until the program is stopped, the number of
+   * moves played being printed every 10 seconds.
+   * 
+   * @param options The options of the server.
+   */
+  private static void botServer(HashMap<String, String> options) {
+    try (var server = new BotServer(InetAddress.getByName(options.getOrDefault("--address", "localhost")),
+        Integer.parseInt(options.getOrDefault("--port", "7778")),
+        Integer.parseInt(options.getOrDefault("--mode", "2")))) {
+      server.start();
+      System.err.println("listening on port " + server.port());
+      while (true) {
+        Thread.sleep(10_000);
+        System.err.println(server.activeConnections() + " connections, " + server.moves() + " moves played");
+      }
+    } catch (IOException e) {
+      System.err.println("server stopped : " + e.getMessage());
+      System.exit(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Measure the number of moves per second of a bot server, started on the
+   * loopback address if no port is given.
+   * 
+   * @param options The options of the load test.
+   */
+  private static void loadTest(HashMap<String, String> options) {
+    var gameMode = Integer.parseInt(options.getOrDefault("--mode", "2"));
+    var connections = Integer.parseInt(options.getOrDefault("--connections", "4"));
+    var games = Integer.parseInt(options.getOrDefault("--games", "256"));
+    var millis = 1000 * Long.parseLong(options.getOrDefault("--seconds", "10"));
+    var seed = Long.parseLong(options.getOrDefault("--seed", "0"));
+    try {
+      if (options.containsKey("--port")) {
+        new LoadGenerator(InetAddress.getByName(options.getOrDefault("--address", "localhost")),
+            Integer.parseInt(options.get("--port")), gameMode, connections, games).run(millis, seed, System.out);
+        return;
+      }
+      try (var server = new BotServer(InetAddress.getLoopbackAddress(), 0, gameMode)) {
+        server.start();
+        new LoadGenerator(InetAddress.getLoopbackAddress(), server.port(), gameMode, connections, games).run(millis,
+            seed, System.out);
+      }
+    } catch (IOException e) {
+      System.err.println("load test stopped : " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Broadcast games between computer players to spectators until the program
+   * is stopped, a move being played after each delay.
+   * 
+   * @param options The options of the featured games.
+   */
+  private static void featured(HashMap<String, String> options) {
+    var gameMode = Integer.parseInt(options.getOrDefault("--mode", "2"));
+    var first = bot(options.getOrDefault("--player1", "alphabeta:100"));
+    var second = bot(options.getOrDefault("--player2", "montecarlo:100"));
+    var delay = Long.parseLong(options.getOrDefault("--delay", "500"));
+    var seed = Long.parseLong(options.getOrDefault("--seed", "0"));
+    try (var channel = new SpectatorChannel(InetAddress.getByName(options.getOrDefault("--address", "localhost")),
+        Integer.parseInt(options.getOrDefault("--port", "7779")))) {
+      channel.start();
+      System.err.println("listening on port " + channel.port());
+      var template = new Patchwork(54, gameMode);
+      template.loadPatches();
+      for (;; seed++) {
+        var game = new Patchwork(template, seed);
+        try (var firstSearch = first.apply(seed); var secondSearch = second.apply(~seed)) {
+          var searches = new MoveSearch[] { firstSearch, secondSearch };
+          channel.startGame(game);
+          while (!game.isOver()) {
+            Thread.sleep(delay);
+            channel.apply(game, searches[game.getPlayerTurn() - 1].bestMove(game));
+          }
+        }
+        System.err.println("game " + seed + " : " + game.getPlayer(1).score() + " - " + game.getPlayer(2).score()
+            + ", " + channel.spectators() + " spectators");
+      }
+    } catch (IOException e) {
+      System.err.println("channel stopped : " + e.getMessage());
+      System.exit(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Play a game against a remote peer, each peer running the game and sending
+   * only its moves.
+   * 
+   * @param options The options of the peer.
+   */
+  private static void lockstep(HashMap<String, String> options) {
+    var ui = options.getOrDefault("--ui", "graphic");
+    try (var peer = connect(options, ui.equals("graphic") ? "3" : "2")) {
+      var patchwork = new Patchwork(54, peer.gameMode(), peer.seed());
+      if (ui.equals("graphic")) {
+        Application.run(Color.BLACK, context -> {
+          patchwork.game(new UserInterfaceLockstep(patchwork, peer, new UserInterfaceGraphic(context)));
+          context.exit(0);
+        });
+        return;
+      }
+      if (ui.equals("terminal")) {
+        patchwork.game(new UserInterfaceLockstep(patchwork, peer, new UserInterfaceTerminal()));
+        return;
+      }
+      try (var search = bot(ui).apply(peer.seed())) {
+        patchwork.game(new UserInterfaceLockstep(patchwork, peer,
+            new UserInterfaceAI(patchwork, peer.localPlayer(), new UserInterfaceTerminal(), search)));
+      }
+    } catch (IOException e) {
+      System.err.println("peer not reached : " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Wait for the other peer or join it.
+   * 
+   * @param options     The options of the peer.
+   * @param defaultMode The Game mode of the host if it is not given.
+   * @return The peer connected.
+   * @throws IOException If the other peer can not be reached.
+   */
+  private static LockstepPeer connect(HashMap<String, String> options, String defaultMode) throws IOException {
+    var join = options.get("--join");
+    if (join != null) {
+      var separator = join.lastIndexOf(':');
+      if (separator < 0)
+        throw new IllegalArgumentException("--join needs HOST:PORT");
+      return LockstepPeer.join(InetAddress.getByName(join.substring(0, separator)),
+          Integer.parseInt(join.substring(separator + 1)));
+    }
+    var host = options.get("--host");
+    if (host == null)
+      throw new IllegalArgumentException("--host or --join needed");
+    var seed = options.containsKey("--seed") ? Long.parseLong(options.get("--seed")) : new Random().nextLong();
+    return LockstepPeer.host(InetAddress.getByName(options.getOrDefault("--address", "localhost")),
+        Integer.parseInt(host), seed, Integer.parseInt(options.getOrDefault("--mode", defaultMode)));
+  }
+
+  /**
+   * Compile a patches file, or the patches files of the game, so that they are
+   * loaded without parsing text.
+   * 
+   * @param options The options of the compilation.
+   */
+  private static void compile(HashMap<String, String> options) {
+    var inputs = new ArrayList<Path>();
+    if (options.containsKey("--input"))
+      inputs.add(Path.of(options.get("--input")));
+    else {
+      for (var file : new String[] { "data/patches/patches.data", "data/patches/patchesBase.data" })
+        inputs.add(Files.exists(Path.of(file)) ? Path.of(file) : Path.of("src", file));
+    }
+    try {
+      for (var input : inputs) {
+        var output = (options.containsKey("--output") && inputs.size() == 1) ? Path.of(options.get("--output"))
+            : PatchCatalogFile.compiledPath(input);
+        PatchCatalogFile.compile(input, output);
+        System.err.println(input + " compiled to " + output);
+      }
+    } catch (IOException e) {
+      System.err.println("patches not compiled : " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Walk random games checking after each move that undo gives back the game
+   * and that the same moves give the same hash, then compare the packing solver
+   * with a brute force, the program failing at the first difference.
+   * 
+   * @param options The options of the check.
+   */
+  private static void check(HashMap<String, String> options) {
+    try {
+      GameCheck.run(Integer.parseInt(options.getOrDefault("--mode", "2")),
+          Integer.parseInt(options.getOrDefault("--games", "100")), Long.parseLong(options.getOrDefault("--seed", "0")),
+          System.out);
+      PackingCheck.run(Integer.parseInt(options.getOrDefault("--boards", "100")),
+          Long.parseLong(options.getOrDefault("--seed", "0")), System.out);
+    } catch (IllegalStateException e) {
+      System.err.println("check failed : " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Open idle sessions on a game server started on the loopback address and
+   * print the heap and the threads they use.
+   * 
+   * @param options The options of the check.
+   */
+  private static void serverCheck(HashMap<String, String> options) {
+    try {
+      ServerCheck.run(Integer.parseInt(options.getOrDefault("--mode", "2")),
+          Integer.parseInt(options.getOrDefault("--sessions", "1000")), System.out);
+    } catch (IOException | IllegalStateException e) {
+      System.err.println("check failed : " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Give the number of threads of the options, all the processors by default.
+   * 
+   * @param options The options.
+   * @return The number of threads.
+   */
+  private static int threads(HashMap<String, String> options) {
+    return Integer.parseInt(
+        options.getOrDefault("--threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+  }
+
+  /**
+   * Give the searches of a player of the simulator described by a string.
+   * 
+   * @param description random, alphabeta:MILLISECONDS,
+   *                    montecarlo:MILLISECONDS[:THREADS] or
+   *                    rootparallel:MILLISECONDS[:THREADS]
+   * @return The search of the player for the seed of a game.
+   */
+  private static LongFunction<MoveSearch> bot(String description) {
+    var parts = description.split(":");
+    var threads = (parts[0].equals("montecarlo") || parts[0].equals("rootparallel")) && parts.length == 3;
+    if (parts.length != (parts[0].equals("random") ? 1 : threads ? 3 : 2))
+      throw new IllegalArgumentException("unknown player " + description);
+    return switch (parts[0]) {
+    case "random" -> RandomSearch::new;
+    case "alphabeta" -> {
+      var budget = Long.parseLong(parts[1]);
+      yield seed -> new AlphaBetaSearch(budget, 1);
+    }
+    case "montecarlo" -> {
+      var budget = Long.parseLong(parts[1]);
+      var count = threads ? Integer.parseInt(parts[2]) : Runtime.getRuntime().availableProcessors();
+      yield seed -> new MonteCarloSearch(budget, count, seed);
+    }
+    case "rootparallel" -> {
+      var budget = Long.parseLong(parts[1]);
+      var count = threads ? Integer.parseInt(parts[2]) : Runtime.getRuntime().availableProcessors();
+      yield seed -> new RootParallelSearch(budget, count, seed);
+    }
+    default -> throw new IllegalArgumentException("unknown player " + description);
+    };
+  }
 }